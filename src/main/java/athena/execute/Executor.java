@@ -2,6 +2,7 @@ package athena.execute;
 
 import athena.evaluation.SignificanceTest;
 import athena.retrievalmodel.BM25;
+import athena.retrievalmodel.Ranking;
 import athena.retrievalmodel.TfIdf;
 import athena.utils.CommonUtils;
 
@@ -38,8 +39,9 @@ public class Executor {
         queries.put(4, "light bulb bulbs alternative alternatives");
 
         for(Integer i : queries.keySet()) {
-            HashMap<String, Double> bm = bm25.getRanking(queries.get(i), i);
-            bm25.printN(bm, i, queries.get(i));
+            try (Ranking bm = bm25.getTopK(queries.get(i), i, Integer.MAX_VALUE)) {
+                bm25.printN(bm, i, queries.get(i));
+            }
         }
 
         long stopTime = commonUtils.printTimeStamp("Index Creation Completed");
@@ -60,8 +62,9 @@ public class Executor {
         queries.put(4, "light bulb bulbs alternative alternatives");
 
         for(Integer i : queries.keySet()) {
-            HashMap<String, Double> tidf = tfIdf.getRanking(queries.get(i), i);
-            tfIdf.printN(tidf, i,  queries.get(i));
+            try (Ranking tidf = tfIdf.getTopK(queries.get(i), i, Integer.MAX_VALUE)) {
+                tfIdf.printN(tidf, i,  queries.get(i));
+            }
         }
 
         long stopTime = commonUtils.printTimeStamp("Index Creation Completed");
@@ -0,0 +1,91 @@
+package athena.execute;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a task for every query of a query set on a fixed pool of threads. The retrieval models only read the shared
+ * index snapshot, so queries run independently. Results are collected in ascending query ID order, whatever order
+ * the queries finish in, so every run gives the same output. Output such as run files is written by a consumer called
+ * on the calling thread in that same order, never by the tasks.
+ */
+public class QueryBatchExecutor {
+
+    private final int threads;
+
+    public interface QueryTask<T> {
+        T run(Integer queryID, String query);
+    }
+
+    public interface ResultConsumer<T> {
+        void accept(Integer queryID, String query, T result);
+    }
+
+    // 0 threads uses one thread per available core
+    public QueryBatchExecutor(int threads) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    // Results of the queries by ascending query ID, a query whose task failed is left out
+    public <T> LinkedHashMap<Integer, T> execute(Map<Integer, String> queries, QueryTask<T> task) {
+        return execute(queries, task, null);
+    }
+
+    // Hands every result to the consumer as it is collected, by ascending query ID, while the later queries still run
+    public <T> LinkedHashMap<Integer, T> execute(Map<Integer, String> queries, QueryTask<T> task,
+                                                 ResultConsumer<T> consumer) {
+        LinkedHashMap<Integer, T> results = new LinkedHashMap<>();
+        List<Integer> queryIDs = new ArrayList<>(new TreeSet<>(queries.keySet()));
+        if (threads == 1) {
+            for (Integer queryID : queryIDs) {
+                try {
+                    T result = task.run(queryID, queries.get(queryID));
+                    results.put(queryID, result);
+                    accept(consumer, queryID, queries.get(queryID), result);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            return results;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (Integer queryID : queryIDs) {
+                futures.add(pool.submit(() -> task.run(queryID, queries.get(queryID))));
+            }
+            for (int i = 0; i < queryIDs.size(); i++) {
+                try {
+                    T result = futures.get(i).get();
+                    results.put(queryIDs.get(i), result);
+                    accept(consumer, queryIDs.get(i), queries.get(queryIDs.get(i)), result);
+                } catch (ExecutionException | RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    private static <T> void accept(ResultConsumer<T> consumer, Integer queryID, String query, T result) {
+        if (consumer != null) {
+            consumer.accept(queryID, query, result);
+        }
+    }
+}
@@ -1,16 +1,26 @@
 package athena.execute;
 
 import athena.evaluation.EffectivenessEvaluation;
+import athena.index.IndexSnapshot;
 import athena.index.InvertedIndexer;
+import athena.index.PostingsList;
+import athena.index.SnapshotManager;
 import athena.queryexpansion.PseudoRelevanceFeedback;
+import athena.retrievalmodel.BM25;
+import athena.retrievalmodel.QueryResultCache;
+import athena.retrievalmodel.Ranking;
 import athena.retrievalmodel.RetrievalModel;
 import athena.snippetgeneration.SnippetGeneration;
+import athena.snippetgeneration.SnippetService;
 import athena.utils.CommonUtils;
 import athena.utils.SearchEngineUtils;
 import athena.utils.TextFileParser;
+import athena.utils.TinyLfuCache;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.core.env.ConfigurableEnvironment;
 
+import java.io.File;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Properties;
 
@@ -43,15 +53,44 @@ public class SpringConfigurator {
         commonUtils.printTotalTime(startTime, stopTime);
     }
 
-    private void retrieveRanking(String query, Integer queryID) {
+    // Indexes new or changed source files into a new segment of the index. The queries run afterwards rank them
+    public void addDocuments(File[] files) {
+        InvertedIndexer indexer = (InvertedIndexer) context.getBean("invertedIndexer");
+        indexer.addDocuments(files);
+        reopenSnapshot();
+    }
+
+    // Deletes documents from the index by name, returns the number of documents found
+    public int deleteDocuments(Collection<String> documentNames) {
+        InvertedIndexer indexer = (InvertedIndexer) context.getBean("invertedIndexer");
+        int deleted = indexer.deleteDocuments(documentNames);
+        if (deleted > 0) {
+            reopenSnapshot();
+        }
+        return deleted;
+    }
+
+    // The queries still running keep the snapshot they started on
+    private void reopenSnapshot() {
+        SnapshotManager snapshotManager = (SnapshotManager) context.getBean("snapshotManager");
+        if (snapshotManager.maybeReopen()) {
+            System.out.println("Index snapshot reopened");
+        }
+    }
+
+    // Ranks one query, called concurrently for the queries of a batch. The ranking is closed once it is printed
+    private Ranking retrieveRanking(String query, Integer queryID) {
         RetrievalModel retrievalModel = (RetrievalModel) context.getBean("retrievalModel");
+        int printSize = Integer.parseInt(properties.getProperty("search.engine.print.size"));
+        Ranking ranking;
 
         if (properties.getProperty("search.engine.enable.query.expansion").equals("false")) {
-            retrievalModel.printN(retrievalModel.getRanking(query, queryID), queryID, query);
+            ranking = retrievalModel.getTopK(query, queryID, printSize);
         } else {
             PseudoRelevanceFeedback feedback = (PseudoRelevanceFeedback) context.getBean("pseudoRelevanceFeedback");
-            retrievalModel.printN(feedback.getRanking(query, queryID), queryID, query);
+            ranking = feedback.getTopK(query, queryID, printSize);
         }
+        return ranking;
     }
 
     public void executeQuerySearching(Boolean createIndex) {
@@ -118,6 +157,13 @@ public class SpringConfigurator {
         }
         String resourceFolder = commonUtils.getResourcePath();
         setRetrievalModel();
+        SnapshotManager snapshotManager = (SnapshotManager) context.getBean("snapshotManager");
+        if (createIndex && Boolean.parseBoolean(properties.getProperty("search.engine.index.impacts"))) {
+            RetrievalModel retrievalModel = (RetrievalModel) context.getBean("retrievalModel");
+            if (retrievalModel instanceof BM25) {
+                ((BM25) retrievalModel).writeImpactIndex();
+            }
+        }
         Boolean doCaseFolding = Boolean.parseBoolean(properties.getProperty("search.engine.enable.case.fold"));
         Boolean doStopping = Boolean.parseBoolean(properties.getProperty("search.engine.enable.stopping"));
         Boolean doStemming = Boolean.parseBoolean(properties.getProperty("search.engine.enable.stemming"));
@@ -131,8 +177,36 @@ public class SpringConfigurator {
             queries = SearchEngineUtils.getQuerySet(resourceFolder + filePath, doCaseFolding, doStopping);
         }
 
-        for (Integer i : queries.keySet()) {
-            retrieveRanking(queries.get(i), i);
+        QueryBatchExecutor batchExecutor = new QueryBatchExecutor(Integer.parseInt(properties.getProperty(
+                "search.engine.query.threads")));
+        // the run and snippet files are written one query at a time, in query ID order
+        RetrievalModel retrievalModel = (RetrievalModel) context.getBean("retrievalModel");
+        batchExecutor.execute(queries, (queryID, query) -> retrieveRanking(query, queryID),
+                (queryID, query, ranking) -> {
+                    try (Ranking printed = ranking) {
+                        retrievalModel.printN(printed, queryID, query);
+                    }
+                });
+        QueryResultCache resultCache = (QueryResultCache) context.getBean("queryResultCache");
+        if (resultCache.isEnabled()) {
+            System.out.println("Result cache hits : " + resultCache.getHitCount() + ", misses : " +
+                    resultCache.getMissCount() + ", evictions : " + resultCache.getEvictionCount());
+        }
+        IndexSnapshot indexSnapshot = snapshotManager.acquire();
+        try {
+            TinyLfuCache<String, PostingsList> postingsCache = indexSnapshot.getPostingsCache();
+            if (postingsCache != null) {
+                System.out.println("Postings cache hits : " + postingsCache.getHitCount() + ", misses : " +
+                        postingsCache.getMissCount() + ", evictions : " + postingsCache.getEvictionCount() +
+                        ", bytes : " + postingsCache.weight());
+            }
+        } finally {
+            snapshotManager.release(indexSnapshot);
+        }
+        TinyLfuCache<String, String> snippetCache = ((SnippetService) context.getBean("snippetService")).getCache();
+        if (doSnippetGen && snippetCache != null) {
+            System.out.println("Snippet cache hits : " + snippetCache.getHitCount() + ", misses : " +
+                    snippetCache.getMissCount() + ", evictions : " + snippetCache.getEvictionCount());
         }
     }
 
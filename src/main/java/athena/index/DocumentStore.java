@@ -0,0 +1,118 @@
+package athena.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the source documents of one index from the {@code .store} file written by {@link IndexWriter}. Documents are
+ * packed in docId order into blocks that are compressed one by one, a block is fetched with one read at its offset in
+ * the memory-mapped file and one inflate. The block and document tables at the end of the file are loaded when the
+ * store is opened. Only duplicates of the mapped buffer are read, so all methods are safe to call concurrently.
+ */
+public class DocumentStore implements Closeable {
+
+    // Setting up an inflater costs more than inflating a small block, so every thread keeps one
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    private ByteBuffer storeBuffer;
+    private final int[] blockOffsets;
+    private final int[] blockLengths;
+    private final int[] documentBlocks;
+    private final int[] documentStarts;
+    private final int[] documentLengths;
+
+    public DocumentStore(String fileName) throws IOException {
+        storeBuffer = IndexReader.map(fileName);
+        if (storeBuffer.getInt(0) != IndexWriter.STORE_MAGIC) {
+            throw new IOException("Invalid index file : " + fileName);
+        }
+        int documentCount = storeBuffer.getInt(4);
+        int tablesStart = (int) storeBuffer.getLong(storeBuffer.limit() - 8);
+        ByteBuffer tables = storeBuffer.duplicate();
+        tables.position(tablesStart);
+        int blockCount = tables.getInt();
+        blockOffsets = new int[blockCount + 1];
+        blockLengths = new int[blockCount];
+        for (int block = 0; block < blockCount; block++) {
+            // a single mapping is limited to 2GB like the other index files
+            blockOffsets[block] = (int) tables.getLong();
+            blockLengths[block] = tables.getInt();
+        }
+        blockOffsets[blockCount] = tablesStart;
+        documentBlocks = new int[documentCount];
+        documentStarts = new int[documentCount];
+        documentLengths = new int[documentCount];
+        for (int docId = 0; docId < documentCount; docId++) {
+            documentBlocks[docId] = tables.getInt();
+            documentStarts[docId] = tables.getInt();
+            documentLengths[docId] = tables.getInt();
+        }
+    }
+
+    public int getDocumentCount() {
+        return documentBlocks.length;
+    }
+
+    public int getBlockCount() {
+        return blockLengths.length;
+    }
+
+    // Block holding a document, -1 if its content was not stored
+    public int getBlock(int docId) {
+        return documentBlocks[docId];
+    }
+
+    // Decompressed content of a block
+    public byte[] readBlock(int block) throws IOException {
+        ByteBuffer buffer = storeBuffer.duplicate();
+        buffer.position(blockOffsets[block]);
+        byte[] compressed = new byte[blockOffsets[block + 1] - blockOffsets[block]];
+        buffer.get(compressed);
+        byte[] content = new byte[blockLengths[block]];
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        try {
+            inflater.setInput(compressed, 0, compressed.length);
+            int length = 0;
+            while (length < content.length && !inflater.finished()) {
+                int inflated = inflater.inflate(content, length, content.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != content.length) {
+                throw new IOException("Truncated document store block " + block);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt document store block " + block, e);
+        }
+        return content;
+    }
+
+    // Content of a document cut out of its decompressed block
+    public String getDocument(int docId, byte[] blockContent) {
+        return new String(blockContent, documentStarts[docId], documentLengths[docId], StandardCharsets.UTF_8);
+    }
+
+    // Stored bytes of a document cut out of its decompressed block, to copy them into another store
+    public byte[] getDocumentBytes(int docId, byte[] blockContent) {
+        return Arrays.copyOfRange(blockContent, documentStarts[docId], documentStarts[docId] + documentLengths[docId]);
+    }
+
+    // Content of a document, null if it was not stored
+    public String getDocument(int docId) throws IOException {
+        int block = documentBlocks[docId];
+        return block == -1 ? null : getDocument(docId, readBlock(block));
+    }
+
+    @Override
+    public void close() {
+        storeBuffer = null;
+    }
+}
@@ -0,0 +1,262 @@
+package athena.index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the {@code .fwd} forward index of {@link IndexWriter} from the postings, which come in term by term. The
+ * (docId, term ordinal, tf) of every posting are buffered, a full buffer is ordered by docId with a counting sort and
+ * spilled to a temporary file. The terms come in sorted, so the vector of a document is its entries of every spill
+ * one after the other in spill order, and the spills are read side by side in one pass when the file is written.
+ * Once there are too many spills to keep open they are merged into one the same way.
+ * <p>
+ * The buffer is bounded by the memory budget, without a budget it grows and nothing is spilled.
+ */
+class ForwardIndexWriter {
+
+    // docId, term ordinal and tf of a buffered posting, and its place in the docId order
+    private static final int BYTES_PER_POSTING = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_SPILLS = 64;
+    private static final String SPILL_EXTENSION = ".spill";
+
+    private final String fileName;
+    private final int documentCount;
+    private final int capacity;
+    private int[] docIds = new int[INITIAL_CAPACITY];
+    private int[] termOrdinals = new int[INITIAL_CAPACITY];
+    private int[] frequencies = new int[INITIAL_CAPACITY];
+    private int size;
+    private final List<String> spills = new ArrayList<>();
+    private int spillCount;
+    // (term ordinal, tf) of the document being read back from the spills
+    private int[] vector = new int[INITIAL_CAPACITY];
+    private int vectorSize;
+
+    // A budget of 0 keeps all postings in memory
+    ForwardIndexWriter(String fileName, int documentCount, long memoryBudget) {
+        this.fileName = fileName;
+        this.documentCount = documentCount;
+        this.capacity = memoryBudget > 0 ? (int) Math.max(INITIAL_CAPACITY, Math.min(Integer.MAX_VALUE,
+                memoryBudget / BYTES_PER_POSTING)) : Integer.MAX_VALUE;
+    }
+
+    void add(int docId, int termOrdinal, int frequency) throws IOException {
+        if (size == docIds.length) {
+            if (size >= capacity) {
+                spill();
+            } else {
+                int length = (int) Math.min(capacity, 2L * size);
+                docIds = Arrays.copyOf(docIds, length);
+                termOrdinals = Arrays.copyOf(termOrdinals, length);
+                frequencies = Arrays.copyOf(frequencies, length);
+            }
+        }
+        docIds[size] = docId;
+        termOrdinals[size] = termOrdinal;
+        frequencies[size] = frequency;
+        size++;
+    }
+
+    // Offset table by docId, then the term count of every document followed by its (term ordinal gap, tf) pairs. All
+    // as variable-byte ints
+    void write() throws IOException {
+        List<Spill> sources = new ArrayList<>();
+        try {
+            if (!spills.isEmpty()) {
+                spill();
+                for (String spill : spills) {
+                    sources.add(new FileSpill(spill));
+                }
+            } else {
+                sources.add(new MemorySpill(sort()));
+            }
+            try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                int tableLength = 8 + 4 * documentCount;
+                channel.position(tableLength);
+                ByteBuffer table = ByteBuffer.allocate(tableLength);
+                table.putInt(IndexWriter.FORWARD_MAGIC);
+                table.putInt(documentCount);
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+                ByteArrayOutputStream entries = new ByteArrayOutputStream();
+                int offset = 0;
+                for (int docId = 0; docId < documentCount; docId++) {
+                    table.putInt(offset);
+                    readVector(sources, docId);
+                    entries.reset();
+                    VariableByteCodec.writeVInt(entries, vectorSize / 2);
+                    int previous = 0;
+                    for (int i = 0; i < vectorSize; i += 2) {
+                        VariableByteCodec.writeVInt(entries, vector[i] - previous);
+                        VariableByteCodec.writeVInt(entries, vector[i + 1]);
+                        previous = vector[i];
+                    }
+                    entries.writeTo(out);
+                    offset += entries.size();
+                }
+                out.flush();
+                table.flip();
+                channel.write(table, 0);
+            }
+        } finally {
+            close(sources);
+            for (String spill : spills) {
+                new File(spill).delete();
+            }
+        }
+    }
+
+    // Gathers the entries of a document from every source, in source order
+    private void readVector(List<Spill> sources, int docId) throws IOException {
+        vectorSize = 0;
+        for (Spill source : sources) {
+            source.read(docId);
+        }
+    }
+
+    private void addToVector(int termOrdinal, int frequency) {
+        if (vectorSize == vector.length) {
+            vector = Arrays.copyOf(vector, vectorSize * 2);
+        }
+        vector[vectorSize] = termOrdinal;
+        vector[vectorSize + 1] = frequency;
+        vectorSize += 2;
+    }
+
+    // Buffer positions in docId order, postings of a document keep the order they came in, which is the term order
+    private int[] sort() {
+        int[] starts = new int[documentCount + 1];
+        for (int i = 0; i < size; i++) {
+            starts[docIds[i] + 1]++;
+        }
+        for (int docId = 0; docId < documentCount; docId++) {
+            starts[docId + 1] += starts[docId];
+        }
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[starts[docIds[i]]++] = i;
+        }
+        return order;
+    }
+
+    private void spill() throws IOException {
+        List<Spill> sources = new ArrayList<>();
+        try {
+            sources.add(new MemorySpill(sort()));
+            writeSpill(sources);
+        } finally {
+            close(sources);
+        }
+        size = 0;
+        if (spills.size() == MAX_SPILLS) {
+            mergeSpills();
+        }
+    }
+
+    private void mergeSpills() throws IOException {
+        List<String> merged = new ArrayList<>(spills);
+        spills.clear();
+        List<Spill> sources = new ArrayList<>();
+        try {
+            for (String spill : merged) {
+                sources.add(new FileSpill(spill));
+            }
+            writeSpill(sources);
+        } finally {
+            close(sources);
+            for (String spill : merged) {
+                new File(spill).delete();
+            }
+        }
+    }
+
+    // docId + 1 and the entry count of every document with entries, followed by its (term ordinal, tf) pairs, ends
+    // with 0
+    private void writeSpill(List<Spill> sources) throws IOException {
+        String spillName = fileName + SPILL_EXTENSION + spillCount++;
+        spills.add(spillName);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillName)))) {
+            for (int docId = 0; docId < documentCount; docId++) {
+                readVector(sources, docId);
+                if (vectorSize == 0) {
+                    continue;
+                }
+                VariableByteCodec.writeVInt(out, docId + 1);
+                VariableByteCodec.writeVInt(out, vectorSize / 2);
+                for (int i = 0; i < vectorSize; i++) {
+                    VariableByteCodec.writeVInt(out, vector[i]);
+                }
+            }
+            VariableByteCodec.writeVInt(out, 0);
+        }
+    }
+
+    private static void close(List<Spill> sources) throws IOException {
+        for (Spill source : sources) {
+            source.close();
+        }
+    }
+
+    // Entries in docId order, from the buffer or from a spill file
+    private interface Spill extends Closeable {
+        // Adds the entries of the document to the vector when they are next
+        void read(int docId) throws IOException;
+    }
+
+    private class MemorySpill implements Spill {
+        private final int[] order;
+        private int next;
+
+        MemorySpill(int[] order) {
+            this.order = order;
+        }
+
+        @Override
+        public void read(int docId) {
+            while (next < size && docIds[order[next]] == docId) {
+                addToVector(termOrdinals[order[next]], frequencies[order[next]]);
+                next++;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private class FileSpill implements Spill {
+        private final DataInputStream in;
+        private int nextDocId;
+
+        FileSpill(String spillName) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillName)));
+            nextDocId = VariableByteCodec.readVInt(in) - 1;
+        }
+
+        @Override
+        public void read(int docId) throws IOException {
+            if (nextDocId != docId) {
+                return;
+            }
+            int entries = VariableByteCodec.readVInt(in);
+            for (int i = 0; i < entries; i++) {
+                int termOrdinal = VariableByteCodec.readVInt(in);
+                addToVector(termOrdinal, VariableByteCodec.readVInt(in));
+            }
+            nextDocId = VariableByteCodec.readVInt(in) - 1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package athena.index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Impact-ordered copy of the postings of an index snapshot, written to {@code .impacts} next to the segments file.
+ * Every posting stores a precomputed term weight quantized to a signed byte, a weight is its impact times the scale
+ * of the file. The file has a sorted term dictionary with a fixed width offset table in front of the entries like
+ * {@code .dict}, each entry holds the {@link ImpactPostings} of its term.
+ * <p>
+ * The weights depend on collection statistics, so the file belongs to the version of the segments file it was
+ * written from and is stale once documents are added, deleted or merged.
+ */
+public class ImpactIndex implements Closeable {
+
+    public static final String IMPACTS_EXTENSION = ".impacts";
+    public static final int MAX_IMPACT = 127;
+
+    static final int IMPACTS_MAGIC = 0x41544849;
+
+    private long version;
+    private double scale;
+    private int termCount;
+    private int offsetsStart;
+    private int entriesStart;
+    private ByteBuffer buffer;
+
+    // Weight of a posting, its term being in documentFrequency live documents
+    public interface TermWeight {
+        double weight(int documentFrequency, int frequency, int documentLength);
+    }
+
+    public ImpactIndex(String indexPrefix) throws IOException {
+        buffer = IndexReader.map(indexPrefix + IMPACTS_EXTENSION);
+        if (buffer.getInt() != IMPACTS_MAGIC) {
+            throw new IOException("Invalid index file");
+        }
+        version = buffer.getLong();
+        scale = buffer.getDouble();
+        termCount = buffer.getInt();
+        offsetsStart = buffer.position();
+        entriesStart = offsetsStart + termCount * 4;
+    }
+
+    // Quantizes the weights of all live postings of the snapshot, the largest absolute weight gets MAX_IMPACT
+    public static void write(IndexSnapshot indexSnapshot, TermWeight termWeight) throws IOException {
+        List<String> terms = indexSnapshot.getTerms();
+        double maxWeight = 0;
+        for (String term : terms) {
+            PostingsList postings = indexSnapshot.getPostings(term);
+            for (int i = 0; postings != null && i < postings.size(); i++) {
+                maxWeight = Math.max(maxWeight, Math.abs(getWeight(indexSnapshot, termWeight, postings, i)));
+            }
+        }
+        double scale = maxWeight == 0 ? 1 : maxWeight / MAX_IMPACT;
+
+        ByteArrayOutputStream offsetTable = new ByteArrayOutputStream();
+        DataOutputStream entryOffsets = new DataOutputStream(offsetTable);
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        int termCount = 0;
+        for (String term : terms) {
+            PostingsList postings = indexSnapshot.getPostings(term);
+            if (postings == null) {
+                continue;
+            }
+            int[] impacts = new int[postings.size()];
+            // counting sort by descending impact, keeping the docIds of an impact ascending
+            int[] groupSizes = new int[2 * MAX_IMPACT + 1];
+            for (int i = 0; i < postings.size(); i++) {
+                impacts[i] = (int) Math.round(getWeight(indexSnapshot, termWeight, postings, i) / scale);
+                groupSizes[MAX_IMPACT - impacts[i]]++;
+            }
+            entryOffsets.writeInt(entries.size());
+            byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+            VariableByteCodec.writeVInt(entries, termBytes.length);
+            entries.write(termBytes);
+            int groupCount = 0;
+            for (int size : groupSizes) {
+                if (size > 0) {
+                    groupCount++;
+                }
+            }
+            VariableByteCodec.writeVInt(entries, groupCount);
+            int[] groupEnds = new int[groupSizes.length];
+            for (int g = 0, end = 0; g < groupSizes.length; g++) {
+                end += groupSizes[g];
+                groupEnds[g] = end;
+            }
+            int[] sortedDocIds = new int[postings.size()];
+            for (int i = postings.size() - 1; i >= 0; i--) {
+                sortedDocIds[--groupEnds[MAX_IMPACT - impacts[i]]] = postings.getDocIds()[i];
+            }
+            for (int g = 0, start = 0; g < groupSizes.length; start += groupSizes[g], g++) {
+                if (groupSizes[g] == 0) {
+                    continue;
+                }
+                entries.write(MAX_IMPACT - g);
+                VariableByteCodec.writeVInt(entries, groupSizes[g]);
+                int previous = 0;
+                for (int i = start; i < start + groupSizes[g]; i++) {
+                    VariableByteCodec.writeVInt(entries, sortedDocIds[i] - previous);
+                    previous = sortedDocIds[i];
+                }
+            }
+            termCount++;
+        }
+
+        String fileName = indexSnapshot.getIndexPrefix() + IMPACTS_EXTENSION;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fileName + ".tmp")))) {
+            out.writeInt(IMPACTS_MAGIC);
+            out.writeLong(indexSnapshot.getVersion());
+            out.writeDouble(scale);
+            out.writeInt(termCount);
+            offsetTable.writeTo(out);
+            entries.writeTo(out);
+        }
+        Files.move(Paths.get(fileName + ".tmp"), Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static double getWeight(IndexSnapshot indexSnapshot, TermWeight termWeight, PostingsList postings, int i) {
+        return termWeight.weight(postings.size(), postings.getFrequencies()[i],
+                indexSnapshot.getDocumentLength(postings.getDocIds()[i]));
+    }
+
+    // Version of the segments file the impacts were written from
+    public long getVersion() {
+        return version;
+    }
+
+    // Weight of one impact
+    public double getScale() {
+        return scale;
+    }
+
+    // Decodes the impact-ordered postings of one term, null if the term is not indexed
+    public ImpactPostings getImpactPostings(String term) {
+        int low = 0;
+        int high = termCount - 1;
+        ByteBuffer entry = buffer.duplicate();
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            entry.position(entriesStart + buffer.getInt(offsetsStart + middle * 4));
+            byte[] termBytes = new byte[VariableByteCodec.readVInt(entry)];
+            entry.get(termBytes);
+            int compare = new String(termBytes, StandardCharsets.UTF_8).compareTo(term);
+            if (compare < 0) {
+                low = middle + 1;
+            } else if (compare > 0) {
+                high = middle - 1;
+            } else {
+                return readImpactPostings(entry);
+            }
+        }
+        return null;
+    }
+
+    private ImpactPostings readImpactPostings(ByteBuffer entry) {
+        int groupCount = VariableByteCodec.readVInt(entry);
+        int[] impacts = new int[groupCount];
+        int[] groupStarts = new int[groupCount + 1];
+        int[] docIds = new int[4];
+        int size = 0;
+        for (int g = 0; g < groupCount; g++) {
+            impacts[g] = entry.get();
+            int count = VariableByteCodec.readVInt(entry);
+            if (size + count > docIds.length) {
+                docIds = Arrays.copyOf(docIds, Math.max(docIds.length * 2, size + count));
+            }
+            int docId = 0;
+            for (int i = 0; i < count; i++) {
+                docId += VariableByteCodec.readVInt(entry);
+                docIds[size++] = docId;
+            }
+            groupStarts[g + 1] = size;
+        }
+        return new ImpactPostings(impacts, groupStarts, Arrays.copyOf(docIds, size));
+    }
+
+    @Override
+    public void close() {
+        buffer = null;
+    }
+}
@@ -0,0 +1,39 @@
+package athena.index;
+
+/**
+ * Impact-ordered postings of one term. The docIds are grouped by their quantized impact, the groups in descending
+ * impact order and the docIds of a group ascending. Group g holds the docIds from {@link #getGroupStart(int)} up to
+ * the start of the next group.
+ */
+public class ImpactPostings {
+
+    private final int[] impacts;
+    private final int[] groupStarts;
+    private final int[] docIds;
+
+    ImpactPostings(int[] impacts, int[] groupStarts, int[] docIds) {
+        this.impacts = impacts;
+        this.groupStarts = groupStarts;
+        this.docIds = docIds;
+    }
+
+    public int getGroupCount() {
+        return impacts.length;
+    }
+
+    public int getImpact(int group) {
+        return impacts[group];
+    }
+
+    public int getGroupStart(int group) {
+        return groupStarts[group];
+    }
+
+    public int[] getDocIds() {
+        return docIds;
+    }
+
+    public int size() {
+        return docIds.length;
+    }
+}
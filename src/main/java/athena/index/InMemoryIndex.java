@@ -0,0 +1,164 @@
+package athena.index;
+
+import java.util.*;
+
+/**
+ * Inverted index built in memory by {@link InvertedIndexer}. Every document gets a dense int docId in the order it
+ * is added, the postings refer to documents by that id only. A positional index also records the token position of
+ * every term occurrence. The source of a document is kept when it is given, for the document store of the index.
+ */
+public class InMemoryIndex {
+
+    // Rough heap cost of a document entry, a new term (map entry, string, postings list) and one posting
+    private static final int DOCUMENT_BYTES = 64;
+    private static final int TERM_BYTES = 160;
+    private static final int POSTING_BYTES = 8;
+    private static final int POSITION_BYTES = 4;
+
+    private long estimatedBytes;
+    private List<String> documentNames = new ArrayList<>();
+    private List<byte[]> documentContents = new ArrayList<>();
+    private int[] documentLengths = new int[16];
+    private HashMap<String, PostingsList> postings = new HashMap<>();
+    private boolean storePositions;
+
+    public InMemoryIndex() {
+        this(false);
+    }
+
+    public InMemoryIndex(boolean storePositions) {
+        this.storePositions = storePositions;
+    }
+
+    public boolean hasPositions() {
+        return storePositions;
+    }
+
+    public int addDocument(String documentName, List<String> terms, int documentLength) {
+        return addDocument(documentName, terms, documentLength, null);
+    }
+
+    public int addDocument(String documentName, List<String> terms, int documentLength, byte[] content) {
+        int docId = documentNames.size();
+        documentNames.add(documentName);
+        documentContents.add(content);
+        if (content != null) {
+            estimatedBytes += content.length;
+        }
+        if (docId == documentLengths.length) {
+            documentLengths = Arrays.copyOf(documentLengths, docId * 2);
+        }
+        documentLengths[docId] = documentLength;
+        estimatedBytes += DOCUMENT_BYTES + 2 * documentName.length();
+
+        // the count of a term followed by its positions when they are stored
+        HashMap<String, int[]> termCounts = new HashMap<>();
+        for (int position = 0; position < terms.size(); position++) {
+            String term = terms.get(position);
+            int[] count = termCounts.get(term);
+            if (count == null) {
+                count = new int[storePositions ? 2 : 1];
+                termCounts.put(term, count);
+            } else if (storePositions && count[0] + 1 == count.length) {
+                count = Arrays.copyOf(count, count.length * 2);
+                termCounts.put(term, count);
+            }
+            count[0]++;
+            if (storePositions) {
+                count[count[0]] = position;
+            }
+        }
+        for (Map.Entry<String, int[]> entry : termCounts.entrySet()) {
+            PostingsList postingsList = postings.get(entry.getKey());
+            if (postingsList == null) {
+                postingsList = new PostingsList();
+                postings.put(entry.getKey(), postingsList);
+                estimatedBytes += TERM_BYTES + 2 * entry.getKey().length();
+            }
+            if (storePositions) {
+                postingsList.add(docId, entry.getValue()[0], entry.getValue(), 1);
+            } else {
+                postingsList.add(docId, entry.getValue()[0]);
+            }
+        }
+        estimatedBytes += termCounts.size() * POSTING_BYTES;
+        if (storePositions) {
+            estimatedBytes += terms.size() * POSITION_BYTES;
+        }
+        return docId;
+    }
+
+    // Appends the documents of another partial index, its docIds are shifted behind the documents of this one
+    public void append(InMemoryIndex other) {
+        int docBase = documentNames.size();
+        for (int docId = 0; docId < other.getDocumentCount(); docId++) {
+            if (docBase + docId == documentLengths.length) {
+                documentLengths = Arrays.copyOf(documentLengths, documentLengths.length * 2);
+            }
+            documentNames.add(other.getDocumentName(docId));
+            documentContents.add(other.getDocumentContent(docId));
+            documentLengths[docBase + docId] = other.getDocumentLength(docId);
+        }
+        estimatedBytes += other.estimatedBytes;
+        for (Map.Entry<String, PostingsList> entry : other.postings.entrySet()) {
+            PostingsList postingsList = postings.get(entry.getKey());
+            PostingsList otherPostings = entry.getValue();
+            if (postingsList == null) {
+                postingsList = new PostingsList(otherPostings.size());
+                postings.put(entry.getKey(), postingsList);
+            }
+            for (int i = 0; i < otherPostings.size(); i++) {
+                if (storePositions) {
+                    postingsList.add(docBase + otherPostings.getDocIds()[i], otherPostings.getFrequencies()[i],
+                            otherPostings.getPositions(), otherPostings.getPositionStart(i));
+                } else {
+                    postingsList.add(docBase + otherPostings.getDocIds()[i], otherPostings.getFrequencies()[i]);
+                }
+            }
+        }
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public int getDocumentCount() {
+        return documentNames.size();
+    }
+
+    public String getDocumentName(int docId) {
+        return documentNames.get(docId);
+    }
+
+    // Source of a document, null if it was not given
+    public byte[] getDocumentContent(int docId) {
+        return documentContents.get(docId);
+    }
+
+    public int getDocumentLength(int docId) {
+        return documentLengths[docId];
+    }
+
+    public int getTermCount() {
+        return postings.size();
+    }
+
+    public List<String> getSortedTerms() {
+        List<String> terms = new ArrayList<>(postings.keySet());
+        Collections.sort(terms);
+        return terms;
+    }
+
+    public PostingsList getPostings(String term) {
+        return postings.get(term);
+    }
+
+    // Total number of occurrences of every term over all documents
+    public HashMap<String, Integer> getTermFrequencies() {
+        HashMap<String, Integer> termFrequencies = new HashMap<>();
+        for (Map.Entry<String, PostingsList> entry : postings.entrySet()) {
+            termFrequencies.put(entry.getKey(), entry.getValue().getTotalFrequency());
+        }
+        return termFrequencies;
+    }
+}
@@ -0,0 +1,234 @@
+package athena.index;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * K-way merge of sorted index runs or segments written by {@link IndexWriter} into one index. Runs are streamed
+ * sequentially, so only the postings of the term being merged are held in memory, apart from the postings the writer
+ * buffers for the forward index within the memory budget. The docIds of every run start from
+ * 0 and are shifted behind the live documents of the runs before it, runs have to be passed in docId order. Deleted
+ * documents are dropped, and so are terms left without postings. Positions are kept when every run has them, stored
+ * documents are copied over block by block.
+ */
+public class IndexMerger {
+
+    private IndexMerger() {
+    }
+
+    public static int merge(List<String> runPrefixes, String indexPrefix, long memoryBudget) throws IOException {
+        return merge(runPrefixes, null, indexPrefix, memoryBudget);
+    }
+
+    // deletedDocs holds the tombstones of every run, null or a null entry when nothing is deleted. The memory budget
+    // in bytes bounds what the writer buffers, 0 is unbounded
+    public static int merge(List<String> runPrefixes, List<BitSet> deletedDocs, String indexPrefix,
+                            long memoryBudget) throws IOException {
+        List<RunCursor> cursors = new ArrayList<>();
+        int documentCount = 0;
+        try {
+            for (int i = 0; i < runPrefixes.size(); i++) {
+                BitSet deleted = deletedDocs == null ? null : deletedDocs.get(i);
+                RunCursor cursor = new RunCursor(runPrefixes.get(i), i, documentCount, deleted);
+                cursors.add(cursor);
+                documentCount += cursor.liveCount;
+            }
+            boolean storePositions = !cursors.isEmpty();
+            for (RunCursor cursor : cursors) {
+                storePositions &= cursor.positions != null;
+            }
+            try (IndexWriter writer = new IndexWriter(indexPrefix, documentCount, storePositions,
+                    memoryBudget)) {
+                for (RunCursor cursor : cursors) {
+                    cursor.copyDocuments(writer);
+                }
+                PriorityQueue<RunCursor> queue = new PriorityQueue<>((a, b) -> {
+                    int compare = a.term.compareTo(b.term);
+                    return compare != 0 ? compare : Integer.compare(a.run, b.run);
+                });
+                for (RunCursor cursor : cursors) {
+                    if (cursor.nextTerm()) {
+                        queue.add(cursor);
+                    }
+                }
+                while (!queue.isEmpty()) {
+                    String term = queue.peek().term;
+                    PostingsList postings = new PostingsList();
+                    while (!queue.isEmpty() && queue.peek().term.equals(term)) {
+                        RunCursor cursor = queue.poll();
+                        cursor.readPostings(postings, storePositions);
+                        if (cursor.nextTerm()) {
+                            queue.add(cursor);
+                        }
+                    }
+                    if (postings.size() > 0) {
+                        writer.addTerm(term, postings);
+                    }
+                }
+            }
+        } finally {
+            for (RunCursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+        return documentCount;
+    }
+
+    public static void deleteRun(String runPrefix) {
+        for (String extension : new String[]{IndexWriter.DOCUMENTS_EXTENSION, IndexWriter.DICTIONARY_EXTENSION,
+                IndexWriter.POSTINGS_EXTENSION, IndexWriter.POSITIONS_EXTENSION, IndexWriter.FORWARD_EXTENSION,
+                IndexWriter.STORE_EXTENSION, IndexWriter.PASSAGES_EXTENSION}) {
+            File file = new File(runPrefix + extension);
+            if (file.exists() && !file.delete()) {
+                System.err.println("Error deleting index run : " + file);
+            }
+        }
+    }
+
+    // Sequential reader over the documents, dictionary and postings of one run
+    private static class RunCursor implements Closeable {
+        private int run;
+        private int documentCount;
+        private int liveCount;
+        private int[] docMap;
+        private int remainingTerms;
+        private String term;
+        private int documentFrequency;
+        private DataInputStream documents;
+        private DataInputStream dictionary;
+        private InputStream postings;
+        private InputStream positions;
+        private DocumentStore store;
+        private int[] termPositions = new int[16];
+
+        RunCursor(String runPrefix, int run, int docBase, BitSet deleted) throws IOException {
+            this.run = run;
+            int[] magic = new int[1];
+            documents = open(runPrefix + IndexWriter.DOCUMENTS_EXTENSION, magic, IndexWriter.DOCUMENTS_MAGIC);
+            documentCount = documents.readInt();
+            // new docId of every document of the run, -1 for deleted ones
+            docMap = new int[documentCount];
+            for (int docId = 0; docId < documentCount; docId++) {
+                docMap[docId] = deleted != null && deleted.get(docId) ? -1 : docBase + liveCount++;
+            }
+            dictionary = open(runPrefix + IndexWriter.DICTIONARY_EXTENSION, magic, IndexWriter.DICTIONARY_MAGIC,
+                    IndexWriter.POSITIONAL_DICTIONARY_MAGIC);
+            boolean positional = magic[0] == IndexWriter.POSITIONAL_DICTIONARY_MAGIC;
+            remainingTerms = dictionary.readInt();
+            dictionary.skipBytes(remainingTerms * 4);
+            postings = new BufferedInputStream(new FileInputStream(runPrefix + IndexWriter.POSTINGS_EXTENSION));
+            if (new File(runPrefix + IndexWriter.STORE_EXTENSION).exists()) {
+                store = new DocumentStore(runPrefix + IndexWriter.STORE_EXTENSION);
+            }
+            if (positional) {
+                positions = new BufferedInputStream(new FileInputStream(runPrefix + IndexWriter.POSITIONS_EXTENSION));
+            }
+        }
+
+        // Opens an index file and checks its magic number, returns the stream and the magic found
+        private static DataInputStream open(String fileName, int[] magic, int... expected) throws IOException {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+            magic[0] = in.readInt();
+            for (int expectedMagic : expected) {
+                if (magic[0] == expectedMagic) {
+                    return in;
+                }
+            }
+            in.close();
+            throw new IOException("Invalid index file : " + fileName);
+        }
+
+        void copyDocuments(IndexWriter writer) throws IOException {
+            int block = -1;
+            byte[] blockContent = null;
+            for (int i = 0; i < documentCount; i++) {
+                int documentLength = documents.readInt();
+                byte[] name = new byte[VariableByteCodec.readVInt(documents)];
+                documents.readFully(name);
+                if (docMap[i] == -1) {
+                    continue;
+                }
+                byte[] content = null;
+                if (store != null && store.getBlock(i) != -1) {
+                    // the documents of a block follow each other, so every block is only decompressed once
+                    if (store.getBlock(i) != block) {
+                        block = store.getBlock(i);
+                        blockContent = store.readBlock(block);
+                    }
+                    content = store.getDocumentBytes(i, blockContent);
+                }
+                writer.addDocument(new String(name, StandardCharsets.UTF_8), documentLength, content);
+            }
+        }
+
+        boolean nextTerm() throws IOException {
+            if (remainingTerms == 0) {
+                return false;
+            }
+            remainingTerms--;
+            byte[] termBytes = new byte[VariableByteCodec.readVInt(dictionary)];
+            dictionary.readFully(termBytes);
+            term = new String(termBytes, StandardCharsets.UTF_8);
+            documentFrequency = VariableByteCodec.readVInt(dictionary);
+            // the postings are stored in term order, so offset and length are not needed to read them sequentially
+            VariableByteCodec.readVLong(dictionary);
+            VariableByteCodec.readVInt(dictionary);
+            if (positions != null) {
+                VariableByteCodec.readVLong(dictionary);
+            }
+            return true;
+        }
+
+        void readPostings(PostingsList postingsList, boolean storePositions) throws IOException {
+            int docId = 0;
+            for (int i = 0; i < documentFrequency; i++) {
+                docId += VariableByteCodec.readVInt(postings);
+                int frequency = VariableByteCodec.readVInt(postings);
+                if (positions != null) {
+                    readPositions(frequency);
+                }
+                if (docMap[docId] == -1) {
+                    continue;
+                }
+                if (storePositions) {
+                    postingsList.add(docMap[docId], frequency, termPositions, 0);
+                } else {
+                    postingsList.add(docMap[docId], frequency);
+                }
+            }
+            // the writer computes the block maxima of the merged postings again
+            int blockCount = (documentFrequency + PostingsList.BLOCK_SIZE - 1) / PostingsList.BLOCK_SIZE;
+            for (int i = 0; i < 2 * blockCount; i++) {
+                VariableByteCodec.readVInt(postings);
+            }
+        }
+
+        private void readPositions(int frequency) throws IOException {
+            if (frequency > termPositions.length) {
+                termPositions = new int[Math.max(frequency, termPositions.length * 2)];
+            }
+            int position = 0;
+            for (int p = 0; p < frequency; p++) {
+                position += VariableByteCodec.readVInt(positions);
+                termPositions[p] = position;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            documents.close();
+            dictionary.close();
+            postings.close();
+            if (positions != null) {
+                positions.close();
+            }
+            if (store != null) {
+                store.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package athena.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the binary index files written by {@link IndexWriter}. The dictionary and postings files are memory-mapped
+ * read only, so the operating system page cache holding them is shared by every process serving the same index.
+ * Terms are found by a binary search over the on-disk dictionary and only the postings of the requested terms are
+ * decoded, nothing is loaded up front apart from the document table. Positions are only decoded for phrase and
+ * proximity matching. The forward index, the document store and the passages are mapped when the index has them,
+ * older indexes are read without them.
+ */
+public class IndexReader implements Closeable {
+
+    private String[] documentNames;
+    private int[] documentLengths;
+    private int termCount;
+    private int offsetsStart;
+    private int entriesStart;
+    private ByteBuffer dictionaryBuffer;
+    private ByteBuffer postingsBuffer;
+    private ByteBuffer positionsBuffer;
+    private ByteBuffer forwardBuffer;
+    private int vectorOffsetsStart;
+    private int vectorsStart;
+    private DocumentStore documentStore;
+    private ByteBuffer passagesBuffer;
+    private int passageOffsetsStart;
+    private int passagesStart;
+
+    public IndexReader(String indexPrefix) throws IOException {
+        readDocuments(map(indexPrefix + IndexWriter.DOCUMENTS_EXTENSION));
+        dictionaryBuffer = map(indexPrefix + IndexWriter.DICTIONARY_EXTENSION);
+        postingsBuffer = map(indexPrefix + IndexWriter.POSTINGS_EXTENSION);
+        readDictionaryHeader();
+        if (dictionaryBuffer.getInt(0) == IndexWriter.POSITIONAL_DICTIONARY_MAGIC) {
+            positionsBuffer = map(indexPrefix + IndexWriter.POSITIONS_EXTENSION);
+        }
+        if (Files.exists(Paths.get(indexPrefix + IndexWriter.FORWARD_EXTENSION))) {
+            forwardBuffer = map(indexPrefix + IndexWriter.FORWARD_EXTENSION);
+            checkMagic(forwardBuffer, IndexWriter.FORWARD_MAGIC);
+            vectorOffsetsStart = forwardBuffer.position() + 4;
+            vectorsStart = vectorOffsetsStart + forwardBuffer.getInt() * 4;
+        }
+        if (Files.exists(Paths.get(indexPrefix + IndexWriter.STORE_EXTENSION))) {
+            documentStore = new DocumentStore(indexPrefix + IndexWriter.STORE_EXTENSION);
+        }
+        if (Files.exists(Paths.get(indexPrefix + IndexWriter.PASSAGES_EXTENSION))) {
+            passagesBuffer = map(indexPrefix + IndexWriter.PASSAGES_EXTENSION);
+            checkMagic(passagesBuffer, IndexWriter.PASSAGES_MAGIC);
+            passageOffsetsStart = passagesBuffer.position() + 4;
+            passagesStart = passageOffsetsStart + passagesBuffer.getInt() * 4;
+        }
+    }
+
+    // Names of the documents of an index in docId order, without mapping the dictionary and postings
+    public static String[] readDocumentNames(String indexPrefix) throws IOException {
+        IndexReader reader = new IndexReader();
+        reader.readDocuments(map(indexPrefix + IndexWriter.DOCUMENTS_EXTENSION));
+        return reader.documentNames;
+    }
+
+    private IndexReader() {
+    }
+
+    // A single mapping is limited to 2GB, which is far beyond the size of the postings of our collections
+    static MappedByteBuffer map(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private void readDocuments(ByteBuffer buffer) throws IOException {
+        checkMagic(buffer, IndexWriter.DOCUMENTS_MAGIC);
+        int documentCount = buffer.getInt();
+        documentNames = new String[documentCount];
+        documentLengths = new int[documentCount];
+        for (int i = 0; i < documentCount; i++) {
+            documentLengths[i] = buffer.getInt();
+            byte[] name = new byte[VariableByteCodec.readVInt(buffer)];
+            buffer.get(name);
+            documentNames[i] = new String(name, StandardCharsets.UTF_8);
+        }
+    }
+
+    private void readDictionaryHeader() throws IOException {
+        int magic = dictionaryBuffer.getInt(0);
+        checkMagic(dictionaryBuffer, magic == IndexWriter.POSITIONAL_DICTIONARY_MAGIC ? magic :
+                IndexWriter.DICTIONARY_MAGIC);
+        termCount = dictionaryBuffer.getInt();
+        offsetsStart = dictionaryBuffer.position();
+        entriesStart = offsetsStart + termCount * 4;
+    }
+
+    // Binary search over the offset table, returns the position right after the matching term or -1
+    private int findTerm(String term) {
+        int ordinal = getTermOrdinal(term);
+        if (ordinal == -1) {
+            return -1;
+        }
+        ByteBuffer entry = dictionaryBuffer.duplicate();
+        entry.position(entriesStart + dictionaryBuffer.getInt(offsetsStart + ordinal * 4));
+        int termLength = VariableByteCodec.readVInt(entry);
+        return entry.position() + termLength;
+    }
+
+    // Position of a term in the sorted dictionary, -1 if it is not indexed. The term is encoded once and compared
+    // with the dictionary bytes in place. Unsigned UTF-8 byte order is the String order of the dictionary as long as
+    // the term has no char from U+D800 up, those above the surrogates sort after a supplementary character as bytes
+    // but before it as a String. Such a term is compared as a String
+    public int getTermOrdinal(String term) {
+        byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+        boolean compareBytes = isBelowSurrogates(term);
+        int low = 0;
+        int high = termCount - 1;
+        ByteBuffer entry = dictionaryBuffer.duplicate();
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            entry.position(entriesStart + dictionaryBuffer.getInt(offsetsStart + middle * 4));
+            int termLength = VariableByteCodec.readVInt(entry);
+            int compare = compareBytes ? compareTerm(entry.position(), termLength, termBytes) :
+                    compareTerm(entry, termLength, term);
+            if (compare < 0) {
+                low = middle + 1;
+            } else if (compare > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isBelowSurrogates(String term) {
+        for (int i = 0; i < term.length(); i++) {
+            if (term.charAt(i) >= Character.MIN_SURROGATE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Unsigned comparison of the dictionary term at a position with the encoded term
+    private int compareTerm(int position, int length, byte[] termBytes) {
+        int common = Math.min(length, termBytes.length);
+        for (int i = 0; i < common; i++) {
+            int compare = (dictionaryBuffer.get(position + i) & 0xff) - (termBytes[i] & 0xff);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return length - termBytes.length;
+    }
+
+    private static int compareTerm(ByteBuffer entry, int length, String term) {
+        byte[] termBytes = new byte[length];
+        entry.get(termBytes);
+        return new String(termBytes, StandardCharsets.UTF_8).compareTo(term);
+    }
+
+    private void checkMagic(ByteBuffer buffer, int magic) throws IOException {
+        if (buffer.getInt() != magic) {
+            throw new IOException("Invalid index file");
+        }
+    }
+
+    public int getDocumentCount() {
+        return documentNames.length;
+    }
+
+    public String getDocumentName(int docId) {
+        return documentNames[docId];
+    }
+
+    public int getDocumentLength(int docId) {
+        return documentLengths[docId];
+    }
+
+    public boolean hasPositions() {
+        return positionsBuffer != null;
+    }
+
+    public boolean hasTermVectors() {
+        return forwardBuffer != null;
+    }
+
+    // Decodes the terms of one document from the forward index, null if the index has none
+    public TermVector getTermVector(int docId) {
+        if (forwardBuffer == null) {
+            return null;
+        }
+        ByteBuffer vector = forwardBuffer.duplicate();
+        vector.position(vectorsStart + forwardBuffer.getInt(vectorOffsetsStart + docId * 4));
+        int size = VariableByteCodec.readVInt(vector);
+        int[] termOrdinals = new int[size];
+        int[] frequencies = new int[size];
+        int termOrdinal = 0;
+        for (int i = 0; i < size; i++) {
+            termOrdinal += VariableByteCodec.readVInt(vector);
+            termOrdinals[i] = termOrdinal;
+            frequencies[i] = VariableByteCodec.readVInt(vector);
+        }
+        return new TermVector(this, termOrdinals, frequencies);
+    }
+
+    public boolean hasPassages() {
+        return passagesBuffer != null;
+    }
+
+    // Decodes the passages of one document, null if the index has none
+    public Passages getPassages(int docId) {
+        if (passagesBuffer == null) {
+            return null;
+        }
+        ByteBuffer buffer = passagesBuffer.duplicate();
+        buffer.position(passagesStart + passagesBuffer.getInt(passageOffsetsStart + docId * 4));
+        int passageCount = VariableByteCodec.readVInt(buffer);
+        int[] starts = new int[passageCount];
+        int[] lengths = new int[passageCount];
+        int[] wordCounts = new int[passageCount];
+        int[] occurrenceStarts = new int[passageCount + 1];
+        int[] positions = new int[16];
+        int[] termOrdinals = new int[16];
+        int end = 0;
+        int occurrences = 0;
+        for (int i = 0; i < passageCount; i++) {
+            starts[i] = end + VariableByteCodec.readVInt(buffer);
+            lengths[i] = VariableByteCodec.readVInt(buffer);
+            wordCounts[i] = VariableByteCodec.readVInt(buffer);
+            end = starts[i] + lengths[i];
+            int count = VariableByteCodec.readVInt(buffer);
+            if (occurrences + count > positions.length) {
+                positions = Arrays.copyOf(positions, Math.max(occurrences + count, positions.length * 2));
+                termOrdinals = Arrays.copyOf(termOrdinals, positions.length);
+            }
+            int position = 0;
+            for (int j = 0; j < count; j++) {
+                position += VariableByteCodec.readVInt(buffer);
+                positions[occurrences] = position;
+                termOrdinals[occurrences++] = VariableByteCodec.readVInt(buffer);
+            }
+            occurrenceStarts[i + 1] = occurrences;
+        }
+        return new Passages(this, starts, lengths, wordCounts, occurrenceStarts, positions, termOrdinals);
+    }
+
+    // Source documents of the index, null if it has no document store
+    public DocumentStore getDocumentStore() {
+        return documentStore;
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+
+    // Term at a position of the sorted dictionary
+    public String getTerm(int ordinal) {
+        ByteBuffer entry = dictionaryBuffer.duplicate();
+        entry.position(entriesStart + dictionaryBuffer.getInt(offsetsStart + ordinal * 4));
+        byte[] termBytes = new byte[VariableByteCodec.readVInt(entry)];
+        entry.get(termBytes);
+        return new String(termBytes, StandardCharsets.UTF_8);
+    }
+
+    public boolean containsTerm(String term) {
+        return findTerm(term) != -1;
+    }
+
+    public int getDocumentFrequency(String term) {
+        int entry = findTerm(term);
+        if (entry == -1) {
+            return 0;
+        }
+        ByteBuffer buffer = dictionaryBuffer.duplicate();
+        buffer.position(entry);
+        return VariableByteCodec.readVInt(buffer);
+    }
+
+    // Decodes the postings of one term, null if the term is not indexed
+    public PostingsList getPostings(String term) {
+        int entry = findTerm(term);
+        if (entry == -1) {
+            return null;
+        }
+        ByteBuffer buffer = dictionaryBuffer.duplicate();
+        buffer.position(entry);
+        int documentFrequency = VariableByteCodec.readVInt(buffer);
+        long offset = VariableByteCodec.readVLong(buffer);
+
+        ByteBuffer postings = postingsBuffer.duplicate();
+        postings.position((int) offset);
+        PostingsList postingsList = new PostingsList(documentFrequency);
+        int docId = 0;
+        for (int i = 0; i < documentFrequency; i++) {
+            docId += VariableByteCodec.readVInt(postings);
+            postingsList.add(docId, VariableByteCodec.readVInt(postings));
+        }
+        readBlockMaxima(postings, postingsList);
+        return postingsList;
+    }
+
+    // Decodes the postings of one term along with their positions, null if the term is not indexed or the index has
+    // no positions
+    public PostingsList getPositionalPostings(String term) {
+        int entry = findTerm(term);
+        if (entry == -1 || positionsBuffer == null) {
+            return null;
+        }
+        ByteBuffer buffer = dictionaryBuffer.duplicate();
+        buffer.position(entry);
+        int documentFrequency = VariableByteCodec.readVInt(buffer);
+        long offset = VariableByteCodec.readVLong(buffer);
+        VariableByteCodec.readVInt(buffer);
+        long positionsOffset = VariableByteCodec.readVLong(buffer);
+
+        ByteBuffer postings = postingsBuffer.duplicate();
+        postings.position((int) offset);
+        ByteBuffer positions = positionsBuffer.duplicate();
+        positions.position((int) positionsOffset);
+        PostingsList postingsList = new PostingsList(documentFrequency);
+        int[] termPositions = new int[16];
+        int docId = 0;
+        for (int i = 0; i < documentFrequency; i++) {
+            docId += VariableByteCodec.readVInt(postings);
+            int frequency = VariableByteCodec.readVInt(postings);
+            if (frequency > termPositions.length) {
+                termPositions = new int[Math.max(frequency, termPositions.length * 2)];
+            }
+            int position = 0;
+            for (int p = 0; p < frequency; p++) {
+                position += VariableByteCodec.readVInt(positions);
+                termPositions[p] = position;
+            }
+            postingsList.add(docId, frequency, termPositions, 0);
+        }
+        readBlockMaxima(postings, postingsList);
+        return postingsList;
+    }
+
+    // The block maxima stored right behind the postings
+    private static void readBlockMaxima(ByteBuffer postings, PostingsList postingsList) {
+        int[] maxFrequencies = new int[postingsList.getBlockCount()];
+        int[] minDocumentLengths = new int[maxFrequencies.length];
+        for (int block = 0; block < maxFrequencies.length; block++) {
+            maxFrequencies[block] = VariableByteCodec.readVInt(postings);
+            minDocumentLengths[block] = VariableByteCodec.readVInt(postings);
+        }
+        postingsList.setBlockMaxima(maxFrequencies, minDocumentLengths);
+    }
+
+    @Override
+    public void close() {
+        dictionaryBuffer = null;
+        postingsBuffer = null;
+        positionsBuffer = null;
+        forwardBuffer = null;
+        passagesBuffer = null;
+        if (documentStore != null) {
+            documentStore.close();
+            documentStore = null;
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package athena.index;
+
+import athena.utils.TinyLfuCache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable view of the index on disk, handed out to the retrieval models by the snapshot manager. The reader only
+ * hands out duplicates of its read-only buffers, so all methods are safe to call concurrently. Documents are addressed
+ * by their int docId, names are only needed to print results.
+ * <p>
+ * The snapshot covers the segments committed when it was opened. It is reference counted, the opener holds the first
+ * reference and the files are closed once every reference is given up. The docIds of every segment are shifted behind the
+ * segments before it, deleted documents keep their docId but never show up in the postings or the statistics.
+ * <p>
+ * Decoded postings of frequently asked terms are kept in a cache with a memory budget, the lists handed out are shared
+ * and must not be changed by the caller. The lists of a term carry the block-max metadata stored in the index. Source
+ * documents are read from the document stores of the segments, a small cache keeps the most used decompressed blocks.
+ */
+public class IndexSnapshot implements Closeable {
+
+    private static final int OPEN_ATTEMPTS = 3;
+    // Wait before the next attempt to open, times the attempts made so far
+    private static final long RETRY_WAIT_MS = 100;
+    // Sizes the frequency sketch of the postings cache, about the bytes of a high document frequency term
+    private static final int CACHED_POSTINGS_BYTES = 4096;
+    // Sizes the frequency sketch of the document block cache, about the bytes of a decompressed block
+    private static final int CACHED_BLOCK_BYTES = 16 * 1024;
+    private static final String POSITIONAL_KEY = "p ";
+    private static final String POSTINGS_KEY = "f ";
+
+    private final List<IndexReader> segmentReaders = new ArrayList<>();
+    private final List<BitSet> segmentDeletes = new ArrayList<>();
+    private int[] docBases;
+    private String indexPrefix;
+    private long version;
+    private int maxDoc;
+    private int[] documentLengths;
+    private int documentCount;
+    private double averageDocumentLength;
+    private BitSet deletedDocs = new BitSet();
+    private final HashMap<String, Integer> documentIds = new HashMap<>();
+    private TinyLfuCache<String, PostingsList> postingsCache;
+    private TinyLfuCache<Long, byte[]> blockCache;
+    private final AtomicInteger references = new AtomicInteger(1);
+    // Segment manager holding the files of the segments read, null when opened from the segments file
+    private SegmentManager segmentManager;
+    private SegmentInfos segmentInfos;
+
+    // Opens the segments the indexer committed last, their files are kept until the snapshot is closed. The snapshot
+    // manager opens its snapshots this way
+    public IndexSnapshot(InvertedIndexer invertedIndexer) {
+        SegmentManager segmentManager = invertedIndexer.getSegmentManager();
+        SegmentInfos segmentInfos = segmentManager.retainSegments();
+        if (segmentInfos == null) {
+            throw new UncheckedIOException("No index committed at " + invertedIndexer.getIndexPrefix(),
+                    new NoSuchFileException(invertedIndexer.getIndexPrefix() + SegmentManager.SEGMENTS_EXTENSION));
+        }
+        try {
+            open(invertedIndexer.getIndexPrefix(), segmentInfos);
+        } catch (IOException e) {
+            closeReaders();
+            segmentManager.releaseSegments(segmentInfos);
+            throw new UncheckedIOException("Cannot open the index at " + invertedIndexer.getIndexPrefix(), e);
+        }
+        this.segmentManager = segmentManager;
+        this.segmentInfos = segmentInfos;
+        readStatistics();
+    }
+
+    // Opens the segments committed under the index prefix, throws UncheckedIOException when the index has not been
+    // built or its files cannot be read
+    public IndexSnapshot(String indexPrefix) {
+        // a background merge may remove the files of a segments file just read, the next one lists the merged segment
+        for (int attempt = 1; ; attempt++) {
+            try {
+                SegmentInfos segmentInfos = SegmentManager.readSegmentInfos(indexPrefix);
+                if (segmentInfos == null) {
+                    throw new UncheckedIOException("No index committed at " + indexPrefix,
+                            new NoSuchFileException(indexPrefix + SegmentManager.SEGMENTS_EXTENSION));
+                }
+                open(indexPrefix, segmentInfos);
+                break;
+            } catch (IOException e) {
+                closeReaders();
+                if (attempt == OPEN_ATTEMPTS) {
+                    throw new UncheckedIOException("Cannot open the index at " + indexPrefix, e);
+                }
+                waitToRetry(attempt, e);
+            }
+        }
+        readStatistics();
+    }
+
+    private void readStatistics() {
+        documentLengths = new int[maxDoc];
+        for (int i = 0; i < segmentReaders.size(); i++) {
+            IndexReader reader = segmentReaders.get(i);
+            for (int docId = 0; docId < reader.getDocumentCount(); docId++) {
+                documentLengths[docBases[i] + docId] = reader.getDocumentLength(docId);
+            }
+        }
+        long totalLength = 0;
+        for (int docId = 0; docId < maxDoc; docId++) {
+            if (isLive(docId)) {
+                totalLength += getDocumentLength(docId);
+                documentIds.put(getDocumentName(docId), docId);
+            }
+        }
+        documentCount = documentIds.size();
+        // every document deleted, there is nothing to score
+        averageDocumentLength = documentCount == 0 ? 0 : (double) totalLength / documentCount;
+    }
+
+    private void open(String indexPrefix, SegmentInfos segmentInfos) throws IOException {
+        this.indexPrefix = indexPrefix;
+        version = segmentInfos.getVersion();
+        docBases = new int[segmentInfos.getSegments().size()];
+        for (SegmentInfo segment : segmentInfos.getSegments()) {
+            docBases[segmentReaders.size()] = maxDoc;
+            IndexReader reader = new IndexReader(SegmentManager.getSegmentPrefix(indexPrefix, segment.getName()));
+            BitSet deletes = SegmentManager.readDeletes(indexPrefix, segment);
+            segmentReaders.add(reader);
+            segmentDeletes.add(deletes);
+            for (int docId = deletes.nextSetBit(0); docId >= 0; docId = deletes.nextSetBit(docId + 1)) {
+                deletedDocs.set(maxDoc + docId);
+            }
+            maxDoc += reader.getDocumentCount();
+        }
+    }
+
+    // Gives the merge that removed the files time to commit the next segments file
+    private static void waitToRetry(int attempt, IOException cause) {
+        try {
+            Thread.sleep(attempt * RETRY_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException("Interrupted while opening the index", cause);
+        }
+    }
+
+    // Memory budget of the decoded postings cache in MB, 0 turns it off
+    public void setPostingsCacheSize(int postingsCacheSize) {
+        long bytes = postingsCacheSize * 1024L * 1024L;
+        postingsCache = bytes > 0 ? new TinyLfuCache<>(bytes, (int) Math.max(bytes / CACHED_POSTINGS_BYTES, 1)) :
+                null;
+    }
+
+    // Hits, misses, evictions and bytes of the postings cache, null when it is off
+    public TinyLfuCache<String, PostingsList> getPostingsCache() {
+        return postingsCache;
+    }
+
+    // Memory budget of the decompressed document block cache in MB, 0 turns it off
+    public void setDocumentCacheSize(int documentCacheSize) {
+        long bytes = documentCacheSize * 1024L * 1024L;
+        blockCache = bytes > 0 ? new TinyLfuCache<>(bytes, (int) Math.max(bytes / CACHED_BLOCK_BYTES, 1)) : null;
+    }
+
+    // Hits, misses, evictions and bytes of the document block cache, null when it is off
+    public TinyLfuCache<Long, byte[]> getDocumentCache() {
+        return blockCache;
+    }
+
+    public String getIndexPrefix() {
+        return indexPrefix;
+    }
+
+    // Version of the segments file the snapshot was opened from
+    public long getVersion() {
+        return version;
+    }
+
+    // Number of live documents
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    // Upper bound of the docIds, deleted documents included
+    public int getMaxDoc() {
+        return maxDoc;
+    }
+
+    public boolean isLive(int docId) {
+        return !deletedDocs.get(docId);
+    }
+
+    public double getAverageDocumentLength() {
+        return averageDocumentLength;
+    }
+
+    // Segment holding a docId
+    private int getSegment(int docId) {
+        int low = 0;
+        int high = docBases.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (docBases[middle] <= docId) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    public int getDocumentLength(int docId) {
+        return documentLengths[docId];
+    }
+
+    public String getDocumentName(int docId) {
+        int segment = getSegment(docId);
+        return segmentReaders.get(segment).getDocumentName(docId - docBases[segment]);
+    }
+
+    // docId of a live document name, -1 if the document is not indexed
+    public int getDocumentId(String documentName) {
+        Integer docId = documentIds.get(documentName);
+        return docId == null ? -1 : docId;
+    }
+
+    public int getDocumentFrequency(String term) {
+        int documentFrequency = 0;
+        for (int i = 0; i < segmentReaders.size(); i++) {
+            if (segmentDeletes.get(i).isEmpty()) {
+                documentFrequency += segmentReaders.get(i).getDocumentFrequency(term);
+            } else {
+                PostingsList postings = segmentReaders.get(i).getPostings(term);
+                if (postings != null) {
+                    for (int j = 0; j < postings.size(); j++) {
+                        if (!segmentDeletes.get(i).get(postings.getDocIds()[j])) {
+                            documentFrequency++;
+                        }
+                    }
+                }
+            }
+        }
+        return documentFrequency;
+    }
+
+    // Sorted terms of all segments, a term may only occur in deleted documents
+    public List<String> getTerms() {
+        TreeSet<String> terms = new TreeSet<>();
+        for (IndexReader reader : segmentReaders) {
+            for (int i = 0; i < reader.getTermCount(); i++) {
+                terms.add(reader.getTerm(i));
+            }
+        }
+        return new ArrayList<>(terms);
+    }
+
+    // True when every segment has a forward index
+    public boolean hasTermVectors() {
+        for (IndexReader reader : segmentReaders) {
+            if (!reader.hasTermVectors()) {
+                return false;
+            }
+        }
+        return !segmentReaders.isEmpty();
+    }
+
+    // Terms of a live document from the forward index of its segment, null if the segment has none
+    public TermVector getTermVector(int docId) {
+        int segment = getSegment(docId);
+        return segmentReaders.get(segment).getTermVector(docId - docBases[segment]);
+    }
+
+    // Passages of a document from the passage index of its segment, null if the segment has none
+    public Passages getPassages(int docId) {
+        int segment = getSegment(docId);
+        return segmentReaders.get(segment).getPassages(docId - docBases[segment]);
+    }
+
+    // Source of a document from the store of its segment, null if the segment has no store or the document was not
+    // stored. The block holding it is read from disk unless it is cached
+    public String getDocument(int docId) {
+        int segment = getSegment(docId);
+        DocumentStore store = segmentReaders.get(segment).getDocumentStore();
+        int segmentDocId = docId - docBases[segment];
+        if (store == null || store.getBlock(segmentDocId) == -1) {
+            return null;
+        }
+        try {
+            return store.getDocument(segmentDocId, getBlock(segment, store, store.getBlock(segmentDocId)));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private byte[] getBlock(int segment, DocumentStore store, int block) throws IOException {
+        TinyLfuCache<Long, byte[]> cache = blockCache;
+        if (cache == null) {
+            return store.readBlock(block);
+        }
+        Long key = ((long) segment << 32) | block;
+        byte[] content = cache.get(key);
+        if (content == null) {
+            content = store.readBlock(block);
+            cache.put(key, content, content.length);
+        }
+        return content;
+    }
+
+    // Live postings of one term over all segments, null if no live document contains the term
+    public PostingsList getPostings(String term) {
+        return getCachedPostings(term, false);
+    }
+
+    // True when every segment stores positions
+    public boolean hasPositions() {
+        for (IndexReader reader : segmentReaders) {
+            if (!reader.hasPositions()) {
+                return false;
+            }
+        }
+        return !segmentReaders.isEmpty();
+    }
+
+    // Live postings of one term with their positions, null if no live document contains the term
+    public PostingsList getPositionalPostings(String term) {
+        if (!hasPositions()) {
+            return null;
+        }
+        return getCachedPostings(term, true);
+    }
+
+    // Documents matching the terms as a phrase, or in any order within the window when it is above 0, with the
+    // number of matches as frequency. Null if nothing matches or the index has no positions
+    public PostingsList getPhrasePostings(List<String> terms, int window) {
+        List<PostingsList> termPostings = new ArrayList<>();
+        // a repeated term would match itself inside a window
+        for (String term : window == 0 ? terms : new LinkedHashSet<>(terms)) {
+            PostingsList postings = getPositionalPostings(term);
+            if (postings == null) {
+                return null;
+            }
+            termPostings.add(postings);
+        }
+        PostingsList matches = window == 0 ? PhraseMatcher.matchPhrase(termPostings) :
+                PhraseMatcher.matchWithin(termPostings, window);
+        return matches.size() == 0 ? null : matches;
+    }
+
+    // Computes the block-max metadata of phrase postings, the postings of a term carry the maxima stored in the index
+    public PostingsList addBlockMaxima(PostingsList postings) {
+        if (postings == null || postings.hasBlockMaxima()) {
+            return postings;
+        }
+        int[] maxFrequencies = new int[postings.getBlockCount()];
+        int[] minDocumentLengths = new int[postings.getBlockCount()];
+        Arrays.fill(minDocumentLengths, Integer.MAX_VALUE);
+        for (int i = 0; i < postings.size(); i++) {
+            int block = i / PostingsList.BLOCK_SIZE;
+            maxFrequencies[block] = Math.max(maxFrequencies[block], postings.getFrequencies()[i]);
+            minDocumentLengths[block] = Math.min(minDocumentLengths[block],
+                    documentLengths[postings.getDocIds()[i]]);
+        }
+        postings.setBlockMaxima(maxFrequencies, minDocumentLengths);
+        return postings;
+    }
+
+    private PostingsList getCachedPostings(String term, boolean positional) {
+        TinyLfuCache<String, PostingsList> cache = postingsCache;
+        if (cache == null) {
+            return readPostings(term, positional);
+        }
+        String key = (positional ? POSITIONAL_KEY : POSTINGS_KEY) + term;
+        PostingsList postings = cache.get(key);
+        if (postings == null) {
+            postings = readPostings(term, positional);
+            if (postings != null) {
+                cache.put(key, postings, postings.getEstimatedBytes());
+            }
+        }
+        return postings;
+    }
+
+    private PostingsList readPostings(String term, boolean positional) {
+        if (segmentReaders.size() == 1 && segmentDeletes.get(0).isEmpty()) {
+            return positional ? segmentReaders.get(0).getPositionalPostings(term) :
+                    segmentReaders.get(0).getPostings(term);
+        }
+        return getLivePostings(term, positional);
+    }
+
+    // The block maxima of the live postings are bounded by the stored ones of the segment blocks they come from,
+    // the postings of a deleted document only loosen the bound
+    private PostingsList getLivePostings(String term, boolean positional) {
+        List<PostingsList> segmentPostings = new ArrayList<>();
+        int size = 0;
+        for (IndexReader reader : segmentReaders) {
+            PostingsList postings = positional ? reader.getPositionalPostings(term) : reader.getPostings(term);
+            segmentPostings.add(postings);
+            size += postings == null ? 0 : postings.size();
+        }
+        if (size == 0) {
+            return null;
+        }
+        PostingsList postingsList = new PostingsList(size);
+        int[] maxFrequencies = new int[(size + PostingsList.BLOCK_SIZE - 1) / PostingsList.BLOCK_SIZE];
+        int[] minDocumentLengths = new int[maxFrequencies.length];
+        Arrays.fill(minDocumentLengths, Integer.MAX_VALUE);
+        for (int i = 0; i < segmentPostings.size(); i++) {
+            PostingsList postings = segmentPostings.get(i);
+            if (postings == null) {
+                continue;
+            }
+            BitSet deletes = segmentDeletes.get(i);
+            for (int j = 0; j < postings.size(); j++) {
+                int docId = postings.getDocIds()[j];
+                if (deletes.get(docId)) {
+                    continue;
+                }
+                int block = postingsList.size() / PostingsList.BLOCK_SIZE;
+                maxFrequencies[block] = Math.max(maxFrequencies[block], postings.getFrequencies()[j]);
+                minDocumentLengths[block] = Math.min(minDocumentLengths[block],
+                        postings.getBlockMinDocumentLength(j / PostingsList.BLOCK_SIZE));
+                if (positional) {
+                    postingsList.add(docBases[i] + docId, postings.getFrequencies()[j], postings.getPositions(),
+                            postings.getPositionStart(j));
+                } else {
+                    postingsList.add(docBases[i] + docId, postings.getFrequencies()[j]);
+                }
+            }
+        }
+        if (postingsList.size() == 0) {
+            return null;
+        }
+        postingsList.setBlockMaxima(Arrays.copyOf(maxFrequencies, postingsList.getBlockCount()),
+                Arrays.copyOf(minDocumentLengths, postingsList.getBlockCount()));
+        return postingsList;
+    }
+
+    // Takes one more reference, false once the snapshot is closed
+    public boolean tryIncRef() {
+        while (true) {
+            int count = references.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // Gives up one reference, the last one closes the snapshot
+    public void decRef() {
+        if (references.decrementAndGet() == 0) {
+            release();
+        }
+    }
+
+    // Gives up the reference of the opener
+    @Override
+    public void close() {
+        decRef();
+    }
+
+    private void release() {
+        closeReaders();
+        if (segmentManager != null) {
+            segmentManager.releaseSegments(segmentInfos);
+            segmentManager = null;
+        }
+    }
+
+    private void closeReaders() {
+        if (postingsCache != null) {
+            postingsCache.invalidateAll();
+        }
+        if (blockCache != null) {
+            blockCache.invalidateAll();
+        }
+        for (IndexReader reader : segmentReaders) {
+            reader.close();
+        }
+        segmentReaders.clear();
+        segmentDeletes.clear();
+        deletedDocs.clear();
+        maxDoc = 0;
+    }
+}
@@ -0,0 +1,324 @@
+package athena.index;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the binary index files for one index prefix:
+ * <ul>
+ * <li>{@code .docs} - document names and token counts, the position of a document is its docId</li>
+ * <li>{@code .dict} - sorted term dictionary with a fixed width offset table in front of the entries</li>
+ * <li>{@code .post} - delta-gap, variable-byte encoded (docId, tf) postings, followed by the highest tf and the
+ * shortest document length of every block of {@link PostingsList#BLOCK_SIZE} postings for dynamic pruning</li>
+ * <li>{@code .pos} - optional, delta-gap variable-byte encoded token positions of every posting</li>
+ * <li>{@code .fwd} - forward index, the delta-gap variable-byte encoded (term ordinal, tf) pairs of every document
+ * behind an offset table by docId</li>
+ * <li>{@code .store} - source documents packed in docId order into deflate compressed blocks, followed by the block
+ * and document tables and the position of the tables, read by {@link DocumentStore}</li>
+ * <li>{@code .psg} - passages of the stored documents for snippets behind an offset table by docId, with the term
+ * ordinals of their words, written by {@link PassageWriter}</li>
+ * </ul>
+ * Documents and terms are streamed to disk as they are added, terms have to be added in sorted order. The dictionary
+ * is buffered until the writer is closed. The forward index is the postings turned around by document, its postings
+ * are buffered within the memory budget and spilled to temporary files beyond it by {@link ForwardIndexWriter}.
+ * <p>
+ * The passages are split from the document store once it is written and looked up in the written dictionary, one
+ * document at a time. An n-gram dictionary holds no single words, no passages are written for it.
+ * <p>
+ * A run of the SPIMI build is only read back by {@link IndexMerger}, it is written without the forward index and the
+ * passages but with the document store of its sources.
+ */
+public class IndexWriter implements Closeable {
+
+    public static final String DOCUMENTS_EXTENSION = ".docs";
+    public static final String DICTIONARY_EXTENSION = ".dict";
+    public static final String POSTINGS_EXTENSION = ".post";
+    public static final String POSITIONS_EXTENSION = ".pos";
+    public static final String FORWARD_EXTENSION = ".fwd";
+    public static final String STORE_EXTENSION = ".store";
+    public static final String PASSAGES_EXTENSION = ".psg";
+
+    static final int DOCUMENTS_MAGIC = 0x41544844;
+    // Changed when the block maxima were added to the postings, an index written before has to be rebuilt
+    static final int DICTIONARY_MAGIC = 0x41544842;
+    // Dictionary of an index with positions, its entries end with the offset of the positions of the term
+    static final int POSITIONAL_DICTIONARY_MAGIC = 0x41544851;
+    static final int FORWARD_MAGIC = 0x41544846;
+    static final int STORE_MAGIC = 0x41544853;
+    static final int PASSAGES_MAGIC = 0x41544841;
+    // Uncompressed bytes after which a store block is compressed, a document is never split over blocks
+    private static final int STORE_BLOCK_SIZE = 4 * 1024;
+
+    private String indexPrefix;
+    private int documentCount;
+    private int documentsAdded;
+    // token counts by docId for the block maxima of the postings
+    private int[] documentLengths;
+    private DataOutputStream documentsOut;
+    private OutputStream postingsOut;
+    private ByteArrayOutputStream postings = new ByteArrayOutputStream();
+    private long postingsOffset;
+    private OutputStream positionsOut;
+    private ByteArrayOutputStream positions;
+    private long positionsOffset;
+    private ByteArrayOutputStream entryOffsets = new ByteArrayOutputStream();
+    private ByteArrayOutputStream entries = new ByteArrayOutputStream();
+    private int termCount;
+    private String lastTerm;
+    // null for a run
+    private ForwardIndexWriter forwardIndexWriter;
+    private DataOutputStream storeOut;
+    private long storeOffset;
+    private ByteArrayOutputStream storeBlock = new ByteArrayOutputStream();
+    private int storeBlockCount;
+    // (file offset, uncompressed length) of every block and (block, start, length) of every document
+    private ByteArrayOutputStream blockTable = new ByteArrayOutputStream();
+    private ByteArrayOutputStream documentTable = new ByteArrayOutputStream();
+    private Deflater deflater = new Deflater();
+    private byte[] deflateBuffer = new byte[STORE_BLOCK_SIZE];
+    // passages are only written for a word dictionary outside of a run
+    private boolean writePassages;
+
+    public IndexWriter(String indexPrefix, int documentCount) throws IOException {
+        this(indexPrefix, documentCount, false);
+    }
+
+    public IndexWriter(String indexPrefix, int documentCount, boolean storePositions) throws IOException {
+        this(indexPrefix, documentCount, storePositions, 0);
+    }
+
+    // The memory budget in bytes bounds the buffer of the forward index, 0 keeps it in memory
+    public IndexWriter(String indexPrefix, int documentCount, boolean storePositions, long memoryBudget)
+            throws IOException {
+        this(indexPrefix, documentCount, storePositions, memoryBudget, false);
+    }
+
+    private IndexWriter(String indexPrefix, int documentCount, boolean storePositions, long memoryBudget,
+                        boolean run) throws IOException {
+        this.indexPrefix = indexPrefix;
+        this.documentCount = documentCount;
+        documentLengths = new int[documentCount];
+        if (!run) {
+            forwardIndexWriter = new ForwardIndexWriter(indexPrefix + FORWARD_EXTENSION, documentCount, memoryBudget);
+        }
+        writePassages = !run;
+        documentsOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexPrefix + DOCUMENTS_EXTENSION)));
+        documentsOut.writeInt(DOCUMENTS_MAGIC);
+        documentsOut.writeInt(documentCount);
+        postingsOut = new BufferedOutputStream(new FileOutputStream(indexPrefix + POSTINGS_EXTENSION));
+        // a run has a store of its own, the sources are flushed with the run to stay within the memory budget and the
+        // merge copies them into the store of the segment
+        storeOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexPrefix + STORE_EXTENSION)));
+        storeOut.writeInt(STORE_MAGIC);
+        storeOut.writeInt(documentCount);
+        storeOffset = 8;
+        if (storePositions) {
+            positionsOut = new BufferedOutputStream(new FileOutputStream(indexPrefix + POSITIONS_EXTENSION));
+            positions = new ByteArrayOutputStream();
+        }
+    }
+
+    public static void write(String indexPrefix, InMemoryIndex index, long memoryBudget) throws IOException {
+        write(new IndexWriter(indexPrefix, index.getDocumentCount(), index.hasPositions(), memoryBudget), index);
+    }
+
+    // Writes a sorted run for the SPIMI build, to be merged into a segment
+    public static void writeRun(String runPrefix, InMemoryIndex index) throws IOException {
+        write(new IndexWriter(runPrefix, index.getDocumentCount(), index.hasPositions(), 0, true), index);
+    }
+
+    private static void write(IndexWriter indexWriter, InMemoryIndex index) throws IOException {
+        try (IndexWriter writer = indexWriter) {
+            for (int docId = 0; docId < index.getDocumentCount(); docId++) {
+                writer.addDocument(index.getDocumentName(docId), index.getDocumentLength(docId),
+                        index.getDocumentContent(docId));
+            }
+            for (String term : index.getSortedTerms()) {
+                writer.addTerm(term, index.getPostings(term));
+            }
+        }
+    }
+
+    public void addDocument(String documentName, int documentLength) throws IOException {
+        addDocument(documentName, documentLength, null);
+    }
+
+    // The content is the source document as read from disk, null when it is not stored
+    public void addDocument(String documentName, int documentLength, byte[] content) throws IOException {
+        documentsOut.writeInt(documentLength);
+        byte[] name = documentName.getBytes(StandardCharsets.UTF_8);
+        VariableByteCodec.writeVInt(documentsOut, name.length);
+        documentsOut.write(name);
+        if (documentsAdded < documentCount) {
+            documentLengths[documentsAdded] = documentLength;
+        }
+        documentsAdded++;
+        if (content == null) {
+            writeInt(documentTable, -1);
+            writeInt(documentTable, 0);
+            writeInt(documentTable, 0);
+            return;
+        }
+        writeInt(documentTable, storeBlockCount);
+        writeInt(documentTable, storeBlock.size());
+        writeInt(documentTable, content.length);
+        storeBlock.write(content);
+        if (storeBlock.size() >= STORE_BLOCK_SIZE) {
+            writeStoreBlock();
+        }
+    }
+
+    public void addTerm(String term, PostingsList postingsList) throws IOException {
+        if (lastTerm != null && lastTerm.compareTo(term) >= 0) {
+            throw new IOException("Terms out of order : " + lastTerm + ", " + term);
+        }
+        lastTerm = term;
+        postings.reset();
+        encodePostings(postings, postingsList.getDocIds(), postingsList.getFrequencies(), postingsList.size());
+        encodeBlockMaxima(postings, postingsList, documentLengths);
+        postings.writeTo(postingsOut);
+
+        writeInt(entryOffsets, entries.size());
+        writeDictionaryEntry(entries, term, postingsList.size(), postingsOffset, postings.size());
+        postingsOffset += postings.size();
+        if (term.indexOf(' ') != -1) {
+            writePassages = false;
+        }
+        for (int i = 0; forwardIndexWriter != null && i < postingsList.size(); i++) {
+            forwardIndexWriter.add(postingsList.getDocIds()[i], termCount, postingsList.getFrequencies()[i]);
+        }
+        if (positionsOut != null) {
+            positions.reset();
+            encodePositions(positions, postingsList);
+            positions.writeTo(positionsOut);
+            VariableByteCodec.writeVLong(entries, positionsOffset);
+            positionsOffset += positions.size();
+        }
+        termCount++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        documentsOut.close();
+        postingsOut.close();
+        closeStore();
+        if (positionsOut != null) {
+            positionsOut.close();
+        }
+        if (documentsAdded != documentCount) {
+            throw new IOException("Expected " + documentCount + " documents in " + indexPrefix + " but got " +
+                    documentsAdded);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexPrefix + DICTIONARY_EXTENSION)))) {
+            out.writeInt(positionsOut != null ? POSITIONAL_DICTIONARY_MAGIC : DICTIONARY_MAGIC);
+            out.writeInt(termCount);
+            entryOffsets.writeTo(out);
+            entries.writeTo(out);
+        }
+        if (forwardIndexWriter != null) {
+            forwardIndexWriter.write();
+            forwardIndexWriter = null;
+        }
+        Files.deleteIfExists(Paths.get(indexPrefix + PASSAGES_EXTENSION));
+        if (writePassages) {
+            PassageWriter.write(indexPrefix);
+        }
+    }
+
+    private void writeStoreBlock() throws IOException {
+        if (storeBlock.size() == 0) {
+            return;
+        }
+        writeLong(blockTable, storeOffset);
+        writeInt(blockTable, storeBlock.size());
+        deflater.reset();
+        deflater.setInput(storeBlock.toByteArray());
+        deflater.finish();
+        while (!deflater.finished()) {
+            int length = deflater.deflate(deflateBuffer);
+            storeOut.write(deflateBuffer, 0, length);
+            storeOffset += length;
+        }
+        storeBlock.reset();
+        storeBlockCount++;
+    }
+
+    private void closeStore() throws IOException {
+        try {
+            writeStoreBlock();
+            long tablesStart = storeOffset;
+            storeOut.writeInt(storeBlockCount);
+            blockTable.writeTo(storeOut);
+            documentTable.writeTo(storeOut);
+            storeOut.writeLong(tablesStart);
+        } finally {
+            storeOut.close();
+            deflater.end();
+        }
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        writeInt(out, (int) (value >>> 32));
+        writeInt(out, (int) value);
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    static void encodePostings(OutputStream out, int[] docIds, int[] frequencies, int size) throws IOException {
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+            VariableByteCodec.writeVInt(out, docIds[i] - previous);
+            VariableByteCodec.writeVInt(out, frequencies[i]);
+            previous = docIds[i];
+        }
+    }
+
+    // Highest tf and shortest document of every block, a document not added yet counts as empty, which still bounds
+    // its score
+    static void encodeBlockMaxima(OutputStream out, PostingsList postingsList, int[] documentLengths)
+            throws IOException {
+        for (int start = 0; start < postingsList.size(); start += PostingsList.BLOCK_SIZE) {
+            int maxFrequency = 0;
+            int minDocumentLength = Integer.MAX_VALUE;
+            for (int i = start; i < Math.min(start + PostingsList.BLOCK_SIZE, postingsList.size()); i++) {
+                maxFrequency = Math.max(maxFrequency, postingsList.getFrequencies()[i]);
+                minDocumentLength = Math.min(minDocumentLength, documentLengths[postingsList.getDocIds()[i]]);
+            }
+            VariableByteCodec.writeVInt(out, maxFrequency);
+            VariableByteCodec.writeVInt(out, minDocumentLength);
+        }
+    }
+
+    // The positions of every posting restart the gaps from 0, their count is the term frequency
+    static void encodePositions(OutputStream out, PostingsList postingsList) throws IOException {
+        int[] termPositions = postingsList.getPositions();
+        for (int i = 0; i < postingsList.size(); i++) {
+            int previous = 0;
+            int end = postingsList.getPositionStart(i) + postingsList.getFrequencies()[i];
+            for (int p = postingsList.getPositionStart(i); p < end; p++) {
+                VariableByteCodec.writeVInt(out, termPositions[p] - previous);
+                previous = termPositions[p];
+            }
+        }
+    }
+
+    static void writeDictionaryEntry(OutputStream out, String term, int documentFrequency, long postingsOffset,
+                                     int postingsLength) throws IOException {
+        byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+        VariableByteCodec.writeVInt(out, termBytes.length);
+        out.write(termBytes);
+        VariableByteCodec.writeVInt(out, documentFrequency);
+        VariableByteCodec.writeVLong(out, postingsOffset);
+        VariableByteCodec.writeVInt(out, postingsLength);
+    }
+}
@@ -3,7 +3,7 @@ package athena.index;
 import athena.crawler.CrawlerUtils;
 import athena.utils.CommonUtils;
 import athena.utils.SearchEngineUtils;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import athena.utils.TextAnalyzer;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.lang3.StringUtils;
@@ -12,7 +12,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
 
 public class InvertedIndexer {
 
@@ -24,16 +31,34 @@ public class InvertedIndexer {
     private Integer noiseFactor;
     @Value("${search.engine.enable.stopping}")
     private Boolean doStopping;
+    @Value("${search.engine.enable.stemming}")
+    private Boolean doStemming;
+    @Value("${search.engine.input.folder}")
+    private String inputFolder;
+    @Value("${search.engine.steminput.folder}")
+    private String stemInputFolder;
+    @Value("${search.engine.index.threads}")
+    private Integer indexThreads;
+    @Value("${search.engine.write.datafiles}")
+    private Boolean writeDataFiles;
+    @Value("${search.engine.index.memory.budget}")
+    private Integer memoryBudget;
+    @Value("${search.engine.index.merge.factor}")
+    private Integer mergeFactor;
+    @Value("${search.engine.index.positions}")
+    private Boolean storePositions;
 
     private String indexFolder;
     private String dataFolder;
 
     private final static String FILE_ENCODING = "UTF-8";
-    private final static String STRING_SPLIT = " ";
+    private final static int MIN_FILES_PER_TASK = 16;
 
     @Autowired
     private CrawlerUtils crawlerUtils;
     private CommonUtils commonUtils = new CommonUtils();
+    private AtomicInteger runCounter = new AtomicInteger();
+    private SegmentManager segmentManager;
 
     public InvertedIndexer(String folderName) {
         indexFolder = commonUtils.getOutputPath() + "\\" + folderName + "\\";
@@ -47,139 +72,328 @@ public class InvertedIndexer {
 
     private void setDataFolder(String indexFolder) {
         this.dataFolder = indexFolder + "DataFiles\\";
-        commonUtils.verifyFolder(dataFolder);
     }
 
     public String getDataFolder() {
         return dataFolder;
     }
 
-    private void tokenizeHTMLFiles(String folderPath) {
-        String content;
-        commonUtils.verifyFolder(dataFolder);
-        try {
-            File folder = new File(folderPath);
-            File[] files = folder.listFiles();
-            if (files == null) {
-                System.out.println("In tokenizeHTMLFiles : No files present or invalid folder");
-            } else {
-                for (File file : files) {
-                    content = Jsoup.parse(file, FILE_ENCODING).text();
-                    content = removeNumbers(content);
-                    content = SearchEngineUtils.cleanDocumentContent(content, doCaseFold, doStopping, noiseFactor);
-                    createTokenizedFile(formatFileName(file.getName()), content);
-                }
+    public void setIndexThreads(Integer indexThreads) {
+        this.indexThreads = indexThreads;
+    }
+
+    public synchronized void setMemoryBudget(Integer memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        if (segmentManager != null) {
+            segmentManager.setMemoryBudget(getMemoryBudgetBytes());
+        }
+    }
+
+    // 0 when the index is built in memory
+    private long getMemoryBudgetBytes() {
+        return memoryBudget * 1024L * 1024L;
+    }
+
+    public void setMergeFactor(Integer mergeFactor) {
+        this.mergeFactor = mergeFactor;
+    }
+
+    public void setStorePositions(Boolean storePositions) {
+        this.storePositions = storePositions;
+    }
+
+    // A positional index is always built from single words, longer n-grams are matched as phrases at query time
+    private int getIndexGrams() {
+        return storePositions ? 1 : nGrams;
+    }
+
+    // 0 uses one thread per available core
+    public int getIndexThreads() {
+        return indexThreads > 0 ? indexThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    // Analyzer dropping the number lines and doing the cleaning of cleanDocumentContent in one pass, not thread safe
+    public TextAnalyzer newAnalyzer() {
+        return new TextAnalyzer(true, doCaseFold, doStopping ? SearchEngineUtils.getStopWords() : null, noiseFactor);
+    }
+
+    // Parses a source document and collects its valid words, the cleaned content is written to DataFiles only when
+    // asked for. Returns false if nothing is left of the document after cleaning
+    private boolean readDocument(File file, byte[] source, TextAnalyzer analyzer, List<String> words)
+            throws IOException {
+        String text = Jsoup.parse(new ByteArrayInputStream(source), FILE_ENCODING, file.getAbsolutePath()).text();
+        StringBuilder content = writeDataFiles ? new StringBuilder(text.length()) : null;
+        words.clear();
+        boolean hasContent = analyzer.analyze(text, (buffer, length) -> addValidWord(buffer, length, words), content);
+        if (writeDataFiles) {
+            createTokenizedFile(formatFileName(file.getName()), content.toString());
+        }
+        return hasContent;
+    }
+
+    public File getInputFolder() {
+        return new File(commonUtils.getResourcePath() + (doStemming ? stemInputFolder : inputFolder));
+    }
+
+    // Source file of an indexed document, the html page or the stemmed text file
+    public File getSourceFile(String documentName) {
+        File file = new File(getInputFolder(), documentName + ".html");
+        if (!file.exists()) {
+            file = new File(getInputFolder(), documentName + ".txt");
+        }
+        return file;
+    }
+
+    private int getTaskSize(int fileCount) {
+        return Math.max(MIN_FILES_PER_TASK, fileCount / (getIndexThreads() * 4));
+    }
+
+    private String formatFileName(String fileName) {
+        fileName = StringUtils.remove(fileName, ".html");
+        return StringUtils.remove(fileName, ".txt");
+    }
+
+    // The sources are only kept for the document store when the index is written as a segment
+    public InMemoryIndex createIndex(File[] files, Boolean writeFlag) {
+        InMemoryIndex index = indexFiles(files, writeFlag);
+        if (writeFlag) {
+            String segmentName = getSegmentManager().newSegmentName();
+            if (writeSegment(segmentName, index)) {
+                getSegmentManager().replaceAll(segmentName, index.getDocumentCount());
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+        return index;
     }
 
-    // TODO: fix remove numbers
-    private String removeNumbers(String content) {
-        String newContent = "";
+    // Indexes new or changed source files into a new segment, the previous copies of changed documents are deleted.
+    // Only the given files are parsed, the existing segments are left as they are
+    public void addDocuments(File[] files) {
+        Arrays.sort(files);
+        InMemoryIndex index = indexFiles(files, true);
+        if (index.getDocumentCount() == 0) {
+            return;
+        }
+        List<String> documentNames = new ArrayList<>();
+        for (int docId = 0; docId < index.getDocumentCount(); docId++) {
+            documentNames.add(index.getDocumentName(docId));
+        }
+        String segmentName = getSegmentManager().newSegmentName();
+        if (writeSegment(segmentName, index)) {
+            getSegmentManager().addSegment(segmentName, index.getDocumentCount(), documentNames);
+        }
+    }
+
+    // Marks documents as deleted, returns the number of documents found in the index
+    public int deleteDocuments(Collection<String> documentNames) {
+        return getSegmentManager().deleteDocuments(documentNames);
+    }
+
+    // SPIMI build, every worker spills its partial index as a sorted run once it reaches its share of the memory
+    // budget. The runs are k-way merged into the final index, so the heap only bounds the size of a run. When a run
+    // cannot be written the index is left as it is rather than replaced by one missing the documents of that run
+    private void createIndexWithRuns(File[] files) {
+        long budget = getMemoryBudgetBytes() / getIndexThreads();
+        AtomicBoolean failed = new AtomicBoolean();
+        List<String> runs;
+        if (getIndexThreads() == 1 || files.length <= MIN_FILES_PER_TASK) {
+            runs = indexFilesToRuns(files, 0, files.length, budget, failed);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(getIndexThreads());
+            try {
+                runs = pool.invoke(new RangeTask<>(0, files.length, getTaskSize(files.length),
+                        (from, to) -> indexFilesToRuns(files, from, to, budget, failed),
+                        (left, right) -> {
+                            left.addAll(right);
+                            return left;
+                        }));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        if (!failed.get()) {
+            String segmentName = getSegmentManager().newSegmentName();
+            try {
+                int documentCount = IndexMerger.merge(runs, getSegmentManager().getSegmentPrefix(segmentName),
+                        getMemoryBudgetBytes());
+                getSegmentManager().replaceAll(segmentName, documentCount);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        for (String run : runs) {
+            IndexMerger.deleteRun(run);
+        }
+    }
+
+    private List<String> indexFilesToRuns(File[] files, int from, int to, long budget, AtomicBoolean failed) {
+        List<String> runs = new ArrayList<>();
+        InMemoryIndex index = new InMemoryIndex(storePositions);
+        TextAnalyzer analyzer = newAnalyzer();
+        List<String> words = new ArrayList<>();
+        List<String> terms = new ArrayList<>();
         try {
-            BufferedReader br = new BufferedReader(new StringReader(content));
-            String line = br.readLine();
-            while (line != null) {
-                if (!line.matches("[0-9\t]+")) {
-                    newContent += line + " ";
+            for (int f = from; f < to && !failed.get(); f++) {
+                // the sources count against the budget of the run and are written with it
+                indexFile(files[f], index, analyzer, words, terms, true);
+                if (index.getEstimatedBytes() >= budget) {
+                    writeRun(index, runs);
+                    index = new InMemoryIndex(storePositions);
                 }
-                line = br.readLine();
+            }
+            if (index.getDocumentCount() > 0 && !failed.get()) {
+                writeRun(index, runs);
             }
         } catch (IOException e) {
             e.printStackTrace();
+            failed.set(true);
         }
-        return newContent;
+        return runs;
     }
 
-    private String formatFileName(String fileName) {
-        fileName = StringUtils.remove(fileName, ".html");
-        return StringUtils.remove(fileName, ".txt");
+    // Runs written by the SPIMI builds of this indexer
+    int getRunCount() {
+        return runCounter.get();
+    }
+
+    // The run is listed before it is written, so a partly written run is deleted with the others
+    private void writeRun(InMemoryIndex index, List<String> runs) throws IOException {
+        String runPrefix = indexFolder + "Run_" + runCounter.getAndIncrement();
+        runs.add(runPrefix);
+        IndexWriter.writeRun(runPrefix, index);
+    }
+
+    // Indexes the source files in memory, on the index threads
+    private InMemoryIndex indexFiles(File[] files, boolean storeSources) {
+        InMemoryIndex index;
+        if (getIndexThreads() == 1 || files.length <= MIN_FILES_PER_TASK) {
+            index = indexFiles(files, 0, files.length, storeSources);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(getIndexThreads());
+            try {
+                index = pool.invoke(new RangeTask<>(0, files.length, getTaskSize(files.length),
+                        (from, to) -> indexFiles(files, from, to, storeSources),
+                        (left, right) -> {
+                            left.append(right);
+                            return left;
+                        }));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return index;
     }
 
-    public HashMap<String, HashMap<String, Integer>> createIndex(File[] files, Boolean writeFlag) {
-        HashMap<String, HashMap<String, Integer>> index = new HashMap<>();
-        HashMap<String, Integer> terms;
-        HashMap<String, Integer> tokenCountMap = new HashMap<>();
-        List<String> words;
+    // Indexes the source files[from, to) into a partial index with docIds starting from 0
+    private InMemoryIndex indexFiles(File[] files, int from, int to, boolean storeSources) {
+        InMemoryIndex index = new InMemoryIndex(storePositions);
+        TextAnalyzer analyzer = newAnalyzer();
+        List<String> words = new ArrayList<>();
+        List<String> terms = new ArrayList<>();
+        for (int f = from; f < to; f++) {
+            indexFile(files[f], index, analyzer, words, terms, storeSources);
+        }
+        return index;
+    }
+
+    // Every document is parsed, cleaned and added to the postings in one pass. A file that cannot be read is left out
+    // of the index, the other files of its range are still indexed. The source is kept for the document store only
+    // when asked for
+    private void indexFile(File file, InMemoryIndex index, TextAnalyzer analyzer, List<String> words,
+                           List<String> terms, boolean storeSource) {
         int tokenCount;
         String word;
+        String documentID = formatFileName(file.getName());
+        byte[] source;
+        boolean hasContent;
         try {
-            for (File file : files) {
-                String documentID = StringUtils.remove(file.getName(), ".txt");
-                FileReader fileReader = new FileReader(file);
-                BufferedReader br = new BufferedReader(fileReader);
-                String currentLine = br.readLine();
-                if (currentLine != null) {
-                    words = getValidWords(currentLine.split(STRING_SPLIT));
-                    tokenCount = words.size() - nGrams;
-                    for (int i = 0; i <= tokenCount; i++) {
-                        word = words.get(i);
-                        for (int j = 1; j < nGrams; j++) {
-                            word = word + " " + words.get(i + j);
-                        }
-                        if (index.containsKey(word)) {
-                            terms = index.get(word);
-                            if (terms.keySet().contains(documentID)) {
-                                terms.put(documentID, terms.get(documentID) + 1);
-                            } else {
-                                terms.put(documentID, 1);
-                            }
-                            index.put(word, terms);
-                        } else {
-                            terms = new HashMap<>();
-                            terms.put(documentID, 1);
-                            index.put(word, terms);
-                        }
-                    }
-                    tokenCountMap.put(documentID, tokenCount);
-                }
-            }
+            // read once, for the parser and for the document store
+            source = Files.readAllBytes(file.toPath());
+            hasContent = readDocument(file, source, analyzer, words);
         } catch (IOException e) {
+            System.err.println("Skipping unreadable file : " + file);
             e.printStackTrace();
+            return;
         }
-        if (writeFlag) {
-            writeIndexToJsonFile(index);
-            writeTokenCountToJsonFile(tokenCountMap);
+        if (hasContent) {
+            tokenCount = words.size() - getIndexGrams();
+            terms.clear();
+            for (int i = 0; i <= tokenCount; i++) {
+                word = words.get(i);
+                for (int j = 1; j < getIndexGrams(); j++) {
+                    word = word + " " + words.get(i + j);
+                }
+                terms.add(word);
+            }
+            index.addDocument(documentID, terms, tokenCount, storeSource ? source : null);
         }
-        return index;
     }
 
     public void createIndex(String inputFolder) {
-        tokenizeHTMLFiles(inputFolder);
-        File folder = new File(dataFolder);
+        File folder = new File(inputFolder);
         File[] files = folder.listFiles();
-        createIndex(files, true);
-    }
-
-    private List<String> getValidWords(String[] strings) {
-        List<String> validWords = new ArrayList<>();
-        Integer wordLength;
-        String tempString;
-        for (String word : strings) {
-            wordLength = word.length();
-            if (wordLength != 0) {
-                if (wordLength == 1) {
-                    if (!word.equals(".")) {
-                        validWords.add(word);
-                    }
-                } else {
-                    if (word.charAt(wordLength - 1) == '.') {
-                        tempString = word.substring(0, wordLength - 2);
-                        if (tempString.length() > 0) {
-                            validWords.add(tempString);
-                        }
-                    } else {
-                        validWords.add(word);
-                    }
-                }
-                if(word.equals("am")||word.equals("pm")){
-                    break;
-                }
+        if (files == null) {
+            System.out.println("In createIndex : No files present or invalid folder");
+            return;
+        }
+        if (writeDataFiles) {
+            commonUtils.verifyFolder(dataFolder);
+        }
+        // docIds are handed out in file order, sorting keeps them stable between builds
+        Arrays.sort(files);
+        if (memoryBudget > 0) {
+            createIndexWithRuns(files);
+        } else {
+            createIndex(files, true);
+        }
+    }
+
+    // Splits the files in contiguous ranges, the result of the left range is combined first so the docIds come out
+    // exactly as in a single threaded build. Tasks are never serialized
+    @SuppressWarnings("serial")
+    private static class RangeTask<T> extends RecursiveTask<T> {
+        private int from;
+        private int to;
+        private int taskSize;
+        private BiFunction<Integer, Integer, T> rangeFunction;
+        private BinaryOperator<T> combiner;
+
+        RangeTask(int from, int to, int taskSize, BiFunction<Integer, Integer, T> rangeFunction,
+                  BinaryOperator<T> combiner) {
+            this.from = from;
+            this.to = to;
+            this.taskSize = taskSize;
+            this.rangeFunction = rangeFunction;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected T compute() {
+            if (to - from <= taskSize) {
+                return rangeFunction.apply(from, to);
             }
+            int middle = (from + to) >>> 1;
+            RangeTask<T> right = new RangeTask<>(middle, to, taskSize, rangeFunction, combiner);
+            right.fork();
+            T left = new RangeTask<>(from, middle, taskSize, rangeFunction, combiner).compute();
+            return combiner.apply(left, right.join());
         }
-        return validWords;
+    }
+
+    // A single "." is dropped, a word ending with '.' loses its last two chars, and nothing after "am" or "pm" is
+    // indexed. Returns false once the rest of the document is to be skipped
+    private boolean addValidWord(char[] buffer, int length, List<String> validWords) {
+        if (length == 1) {
+            if (buffer[0] != '.') {
+                validWords.add(String.valueOf(buffer[0]));
+            }
+        } else if (buffer[length - 1] == '.') {
+            if (length > 2) {
+                validWords.add(new String(buffer, 0, length - 2));
+            }
+        } else {
+            validWords.add(new String(buffer, 0, length));
+        }
+        return !(length == 2 && (buffer[0] == 'a' || buffer[0] == 'p') && buffer[1] == 'm');
     }
 
     public LinkedHashMap<String, Integer> sortTermFrequency(HashMap<String, Integer> hashMap) {
@@ -198,90 +412,72 @@ public class InvertedIndexer {
         return documentFrequency;
     }
 
-    private void writeIndexToJsonFile(HashMap<String, HashMap<String, Integer>> index) {
-        writeToJsonFile(index, "Index_" + nGrams);
+    // Returns false when the segment could not be written, it is then not to be committed
+    private boolean writeSegment(String segmentName, InMemoryIndex index) {
+        try {
+            IndexWriter.write(getSegmentManager().getSegmentPrefix(segmentName), index, getMemoryBudgetBytes());
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public String getIndexPrefix() {
+        return indexFolder + "Index_" + getIndexGrams();
     }
 
-    private void writeTokenCountToJsonFile(HashMap<String, Integer> token) {
-        writeToJsonFile(token, "TokenCount_" + nGrams);
+    public synchronized SegmentManager getSegmentManager() {
+        if (segmentManager == null) {
+            segmentManager = new SegmentManager(getIndexPrefix(), mergeFactor);
+            segmentManager.setMemoryBudget(getMemoryBudgetBytes());
+        }
+        return segmentManager;
     }
 
-    private void writeToJsonFile(Object object, String fileName) {
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            File file = new File(indexFolder + fileName + ".json");
-            mapper.writerWithDefaultPrettyPrinter().writeValue(file, object);
-        } catch (IOException e) {
-            e.printStackTrace();
+    // Waits for the background merges and stops the merge thread, called when the context is closed
+    public synchronized void close() {
+        if (segmentManager != null) {
+            segmentManager.close();
+            segmentManager = null;
         }
     }
 
+    // File prefixes of the committed segments in docId order
+    public List<String> getSegmentPrefixes() {
+        return getSegmentManager().getSegmentPrefixes();
+    }
+
     public void createTokenizedFile(String filename, String content) {
         crawlerUtils.writeToFile(dataFolder, filename, content, CrawlerUtils.TEXT_FILE);
     }
 
-    private Object readFromJsonFile(String fileName) {
-        Object object = new Object();
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            File file = new File(indexFolder + fileName + ".json");
-            object = mapper.readValue(file, Object.class);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return object;
-    }
-
-    public HashMap<String, Integer> generateTermFrequencyTable(HashMap<String, HashMap<String, Integer>> index) {
-        HashMap<String, Integer> termFrequencyMap = new HashMap<>();
-        Set<String> indexKeySet = index.keySet();
-        HashMap<String, Integer> terms;
-        Integer termFrequency;
-        Set<String> termKeySet;
-        for (String s : indexKeySet) {
-            terms = index.get(s);
-            termKeySet = terms.keySet();
-            termFrequency = 0;
-            for (String t : termKeySet) {
-                termFrequency += terms.get(t);
-            }
-            termFrequencyMap.put(s, termFrequency);
-        }
-        return sortTermFrequency(termFrequencyMap);
+    public HashMap<String, Integer> generateTermFrequencyTable(InMemoryIndex index) {
+        return sortTermFrequency(index.getTermFrequencies());
     }
 
-    public List<List<String>> generateDocumentFrequencyTable(HashMap<String, HashMap<String, Integer>> index) {
+    public List<List<String>> generateDocumentFrequencyTable(InMemoryIndex index) {
         List<List<String>> documentFrequencyList = new ArrayList<>();
-        Set<String> indexKeySet = index.keySet();
-        HashMap<String, Integer> terms;
-        String documentIDs;
-        Set<String> termKeySet;
-        for (String s : indexKeySet) {
+        PostingsList postings;
+        StringBuilder documentIDs;
+        for (String s : index.getSortedTerms()) {
             List<String> list = new ArrayList<>();
             list.add(s);
-            terms = index.get(s);
-            termKeySet = terms.keySet();
-            documentIDs = "";
-            termKeySet.toArray();
-            for (String t : termKeySet) {
-                documentIDs = documentIDs + t + ", ";
+            postings = index.getPostings(s);
+            documentIDs = new StringBuilder();
+            for (int i = 0; i < postings.size(); i++) {
+                if (i > 0) {
+                    documentIDs.append(", ");
+                }
+                documentIDs.append(index.getDocumentName(postings.getDocIds()[i]));
             }
-            documentIDs = documentIDs.substring(0, (documentIDs.length() - 2));
-            list.add(documentIDs);
-            list.add(termKeySet.size() + "");
+            list.add(documentIDs.toString());
+            list.add(postings.size() + "");
             documentFrequencyList.add(list);
         }
         return sortDocumentFrequency(documentFrequencyList);
     }
 
-    public HashMap<String, HashMap<String, Integer>> readIndexFromJsonFile() {
-        return (HashMap<String, HashMap<String, Integer>>) readFromJsonFile("Index_" + nGrams);
-    }
-
-    public HashMap<String, Integer> readTokenCountToJsonFile() {
-        return (HashMap<String, Integer>) readFromJsonFile("TokenCount_" + nGrams);
-    }
-
     public void generateTermFrequencyCSV(HashMap<String, Integer> hashMap, String fileName) {
         try {
             CSVFormat csvFormat = CSVFormat.EXCEL;
@@ -0,0 +1,172 @@
+package athena.index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Splits the stored documents of a segment into passages for snippets and writes the {@code .psg} file. A passage is
+ * a line of the document, lines of markup and lines of digits and tabs only are left out. The words of a line are
+ * what the snippet shows, the line without commas and dots split at spaces, and every word found in the dictionary is
+ * recorded by its position in the line and its term ordinal, so snippets are scored without tokenizing the text again.
+ * <p>
+ * The file is written once the other files of the segment are, the documents are read back from the document store
+ * block by block and the words looked up in the dictionary, as they are and lower cased, without the punctuation
+ * around them. Only the document being split is held in memory.
+ */
+class PassageWriter {
+
+    private static final int INITIAL_OCCURRENCE_CAPACITY = 64;
+
+    private final IndexReader reader;
+    private final ByteArrayOutputStream passages = new ByteArrayOutputStream();
+    private int passageCount;
+    private int[] positions = new int[INITIAL_OCCURRENCE_CAPACITY];
+    private int[] termOrdinals = new int[INITIAL_OCCURRENCE_CAPACITY];
+
+    private PassageWriter(IndexReader reader) {
+        this.reader = reader;
+    }
+
+    // Offset table by docId, then per document the passage count and for every passage the start gap from the end of
+    // the previous passage, length and word count, followed by the (position gap, term ordinal) of the words that are
+    // terms. All as variable-byte ints
+    static void write(String indexPrefix) throws IOException {
+        try (IndexReader reader = new IndexReader(indexPrefix);
+             FileChannel channel = FileChannel.open(Paths.get(indexPrefix + IndexWriter.PASSAGES_EXTENSION),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            PassageWriter writer = new PassageWriter(reader);
+            DocumentStore store = reader.getDocumentStore();
+            int documentCount = reader.getDocumentCount();
+            int tableLength = 8 + 4 * documentCount;
+            channel.position(tableLength);
+            ByteBuffer table = ByteBuffer.allocate(tableLength);
+            table.putInt(IndexWriter.PASSAGES_MAGIC);
+            table.putInt(documentCount);
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+            ByteArrayOutputStream document = new ByteArrayOutputStream();
+            int offset = 0;
+            int block = -1;
+            byte[] blockContent = null;
+            for (int docId = 0; docId < documentCount; docId++) {
+                table.putInt(offset);
+                writer.passages.reset();
+                writer.passageCount = 0;
+                if (store != null && store.getBlock(docId) != -1) {
+                    // the documents of a block follow each other, so every block is only decompressed once
+                    if (store.getBlock(docId) != block) {
+                        block = store.getBlock(docId);
+                        blockContent = store.readBlock(block);
+                    }
+                    writer.addDocument(store.getDocument(docId, blockContent));
+                }
+                document.reset();
+                VariableByteCodec.writeVInt(document, writer.passageCount);
+                writer.passages.writeTo(document);
+                document.writeTo(out);
+                offset += document.size();
+            }
+            out.flush();
+            table.flip();
+            channel.write(table, 0);
+        }
+    }
+
+    private void addDocument(String document) throws IOException {
+        int previousEnd = 0;
+        int lineStart = 0;
+        for (int i = 0; i <= document.length(); i++) {
+            char c = i < document.length() ? document.charAt(i) : '\n';
+            if (c != '\n' && c != '\r') {
+                continue;
+            }
+            if (isPassage(document, lineStart, i)) {
+                addPassage(document.substring(lineStart, i), lineStart - previousEnd);
+                previousEnd = i;
+            }
+            // \r\n ends one line
+            if (c == '\r' && i + 1 < document.length() && document.charAt(i + 1) == '\n') {
+                i++;
+            }
+            lineStart = i + 1;
+        }
+    }
+
+    // Lines starting with a tag and lines without anything but digits and blanks are no passages
+    private static boolean isPassage(String document, int start, int end) {
+        while (start < end && Character.isWhitespace(document.charAt(start))) {
+            start++;
+        }
+        if (start == end || document.charAt(start) == '<') {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = document.charAt(i);
+            if (!Character.isWhitespace(c) && (c < '0' || c > '9')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addPassage(String line, int startGap) throws IOException {
+        String[] words = line.replace(",", "").replace(".", "").split(" ");
+        int occurrences = 0;
+        for (int position = 0; position < words.length; position++) {
+            String word = stripPunctuation(words[position]);
+            if (word.isEmpty()) {
+                continue;
+            }
+            int ordinal = getTermOrdinal(word);
+            if (ordinal == -1) {
+                continue;
+            }
+            if (occurrences == positions.length) {
+                positions = Arrays.copyOf(positions, occurrences * 2);
+                termOrdinals = Arrays.copyOf(termOrdinals, occurrences * 2);
+            }
+            positions[occurrences] = position;
+            termOrdinals[occurrences] = ordinal;
+            occurrences++;
+        }
+        VariableByteCodec.writeVInt(passages, startGap);
+        VariableByteCodec.writeVInt(passages, line.length());
+        VariableByteCodec.writeVInt(passages, words.length);
+        VariableByteCodec.writeVInt(passages, occurrences);
+        int previous = 0;
+        for (int i = 0; i < occurrences; i++) {
+            VariableByteCodec.writeVInt(passages, positions[i] - previous);
+            VariableByteCodec.writeVInt(passages, termOrdinals[i]);
+            previous = positions[i];
+        }
+        passageCount++;
+    }
+
+    private static String stripPunctuation(String word) {
+        int start = 0;
+        int end = word.length();
+        while (start < end && !Character.isLetterOrDigit(word.charAt(start))) {
+            start++;
+        }
+        while (end > start && !Character.isLetterOrDigit(word.charAt(end - 1))) {
+            end--;
+        }
+        return word.substring(start, end);
+    }
+
+    // The lower cased word is looked up when the word itself is not a term
+    private int getTermOrdinal(String word) {
+        int ordinal = reader.getTermOrdinal(word);
+        if (ordinal == -1) {
+            String lowerCase = word.toLowerCase();
+            if (!lowerCase.equals(word)) {
+                ordinal = reader.getTermOrdinal(lowerCase);
+            }
+        }
+        return ordinal;
+    }
+}
@@ -0,0 +1,72 @@
+package athena.index;
+
+/**
+ * Passages of one document from the passage index, in document order. A passage is given by its char range in the
+ * stored document and its number of words, along with the position in the passage and the term ordinal of every word
+ * that is a term of the segment. Query terms are turned into ordinals of the same segment to match them.
+ */
+public class Passages {
+
+    private final IndexReader reader;
+    private final int[] starts;
+    private final int[] lengths;
+    private final int[] wordCounts;
+    // occurrences of passage i are [occurrenceStarts[i], occurrenceStarts[i + 1])
+    private final int[] occurrenceStarts;
+    private final int[] positions;
+    private final int[] termOrdinals;
+
+    Passages(IndexReader reader, int[] starts, int[] lengths, int[] wordCounts, int[] occurrenceStarts,
+             int[] positions, int[] termOrdinals) {
+        this.reader = reader;
+        this.starts = starts;
+        this.lengths = lengths;
+        this.wordCounts = wordCounts;
+        this.occurrenceStarts = occurrenceStarts;
+        this.positions = positions;
+        this.termOrdinals = termOrdinals;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    // Char offset of a passage in the stored document
+    public int getStart(int passage) {
+        return starts[passage];
+    }
+
+    public int getLength(int passage) {
+        return lengths[passage];
+    }
+
+    public int getWordCount(int passage) {
+        return wordCounts[passage];
+    }
+
+    public int getOccurrenceStart(int passage) {
+        return occurrenceStarts[passage];
+    }
+
+    public int getOccurrenceEnd(int passage) {
+        return occurrenceStarts[passage + 1];
+    }
+
+    // Position of the word of an occurrence among the words of its passage
+    public int getPosition(int occurrence) {
+        return positions[occurrence];
+    }
+
+    public int getTermOrdinal(int occurrence) {
+        return termOrdinals[occurrence];
+    }
+
+    public String getTerm(int occurrence) {
+        return reader.getTerm(termOrdinals[occurrence]);
+    }
+
+    // Ordinal of a term in the dictionary of the segment of the document, -1 if it is not a term
+    public int getTermOrdinal(String term) {
+        return reader.getTermOrdinal(term);
+    }
+}
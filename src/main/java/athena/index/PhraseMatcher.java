@@ -0,0 +1,142 @@
+package athena.index;
+
+import java.util.List;
+
+/**
+ * Positional intersection of the postings of several terms. The docIds are intersected first, galloping through the
+ * longer lists from the shortest one, and positions are only compared for documents holding every term. The result
+ * has one posting per matching document with the number of matches as its frequency, so a phrase can be scored like
+ * any other term.
+ */
+public class PhraseMatcher {
+
+    private PhraseMatcher() {
+    }
+
+    // Documents where the terms occur next to each other in the given order
+    public static PostingsList matchPhrase(List<PostingsList> termPostings) {
+        return match(termPostings, 0);
+    }
+
+    // Documents where all the terms occur, in any order, within a window of the given number of positions
+    public static PostingsList matchWithin(List<PostingsList> termPostings, int window) {
+        return match(termPostings, window);
+    }
+
+    private static PostingsList match(List<PostingsList> termPostings, int window) {
+        PostingsList matches = new PostingsList();
+        PostingsList lead = termPostings.get(0);
+        for (PostingsList postings : termPostings) {
+            if (postings.size() < lead.size()) {
+                lead = postings;
+            }
+        }
+        int[] cursors = new int[termPostings.size()];
+        for (int i = 0; i < lead.size(); i++) {
+            int docId = lead.getDocIds()[i];
+            boolean allTerms = true;
+            for (int t = 0; t < cursors.length && allTerms; t++) {
+                PostingsList postings = termPostings.get(t);
+                cursors[t] = advance(postings, cursors[t], docId);
+                if (cursors[t] == postings.size()) {
+                    return matches;
+                }
+                allTerms = postings.getDocIds()[cursors[t]] == docId;
+            }
+            if (allTerms) {
+                int count = window == 0 ? countPhrases(termPostings, cursors) : countWindows(termPostings, cursors,
+                        window);
+                if (count > 0) {
+                    matches.add(docId, count);
+                }
+            }
+        }
+        return matches;
+    }
+
+    // Index of the first posting at or after from with a docId not below the target
+    private static int advance(PostingsList postings, int from, int docId) {
+        int[] docIds = postings.getDocIds();
+        int size = postings.size();
+        int high = from;
+        for (int step = 1; high < size && docIds[high] < docId; step <<= 1) {
+            from = high + 1;
+            high += step;
+        }
+        high = Math.min(high, size);
+        while (from < high) {
+            int middle = (from + high) >>> 1;
+            if (docIds[middle] < docId) {
+                from = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return from;
+    }
+
+    // Number of positions p of the first term where term t occurs at p + t for every term
+    private static int countPhrases(List<PostingsList> termPostings, int[] cursors) {
+        int terms = cursors.length;
+        int[] next = new int[terms];
+        int[] end = new int[terms];
+        for (int t = 0; t < terms; t++) {
+            PostingsList postings = termPostings.get(t);
+            next[t] = postings.getPositionStart(cursors[t]);
+            end[t] = next[t] + postings.getFrequencies()[cursors[t]];
+        }
+        int count = 0;
+        int[] firstPositions = termPostings.get(0).getPositions();
+        for (int p = next[0]; p < end[0]; p++) {
+            int start = firstPositions[p];
+            boolean phrase = true;
+            for (int t = 1; t < terms && phrase; t++) {
+                int[] positions = termPostings.get(t).getPositions();
+                while (next[t] < end[t] && positions[next[t]] < start + t) {
+                    next[t]++;
+                }
+                if (next[t] == end[t]) {
+                    return count;
+                }
+                phrase = positions[next[t]] == start + t;
+            }
+            if (phrase) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Moves through the positions of all terms in increasing order and counts every step where the current
+    // occurrences of the terms span less than the window
+    private static int countWindows(List<PostingsList> termPostings, int[] cursors, int window) {
+        int terms = cursors.length;
+        int[] next = new int[terms];
+        int[] end = new int[terms];
+        for (int t = 0; t < terms; t++) {
+            PostingsList postings = termPostings.get(t);
+            next[t] = postings.getPositionStart(cursors[t]);
+            end[t] = next[t] + postings.getFrequencies()[cursors[t]];
+        }
+        int count = 0;
+        while (true) {
+            int minTerm = 0;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int t = 0; t < terms; t++) {
+                int position = termPostings.get(t).getPositions()[next[t]];
+                if (position < min) {
+                    min = position;
+                    minTerm = t;
+                }
+                max = Math.max(max, position);
+            }
+            if (max - min < window) {
+                count++;
+            }
+            if (++next[minTerm] == end[minTerm]) {
+                return count;
+            }
+        }
+    }
+}
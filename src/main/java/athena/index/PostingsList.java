@@ -0,0 +1,140 @@
+package athena.index;
+
+import java.util.Arrays;
+
+/**
+ * Postings of one term as parallel docId and term frequency arrays, sorted by docId. The arrays may be longer than
+ * {@link #size()} while the list is being built.
+ * <p>
+ * Positional postings also keep the token positions of every posting in one flat array, the positions of the i-th
+ * posting start at {@link #getPositionStart(int)} and there are frequency of them, in increasing order.
+ * <p>
+ * Lists used for dynamic pruning carry block-max metadata, the highest term frequency and the shortest document of
+ * every block of {@link #BLOCK_SIZE} postings. Both bound the score of any posting in the block. The index stores
+ * them next to the postings of every term, they are read along with the postings.
+ */
+public class PostingsList {
+
+    public static final int BLOCK_SIZE = 64;
+    private static final int INITIAL_CAPACITY = 4;
+    // The list object and the headers of its arrays
+    private static final int OBJECT_BYTES = 128;
+
+    private int[] docIds;
+    private int[] frequencies;
+    private int size;
+    private int[] positions;
+    private int[] positionStarts;
+    private int[] blockMaxFrequencies;
+    private int[] blockMinDocumentLengths;
+
+    public PostingsList() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public PostingsList(int capacity) {
+        docIds = new int[Math.max(capacity, 1)];
+        frequencies = new int[Math.max(capacity, 1)];
+    }
+
+    public void add(int docId, int frequency) {
+        if (size == docIds.length) {
+            docIds = Arrays.copyOf(docIds, size * 2);
+            frequencies = Arrays.copyOf(frequencies, size * 2);
+        }
+        docIds[size] = docId;
+        frequencies[size] = frequency;
+        size++;
+    }
+
+    public void add(int docId, int frequency, int[] termPositions, int offset) {
+        if (positions == null) {
+            positions = new int[Math.max(frequency, INITIAL_CAPACITY)];
+            positionStarts = new int[docIds.length + 1];
+        }
+        int start = positionStarts[size];
+        add(docId, frequency);
+        if (positionStarts.length < docIds.length + 1) {
+            positionStarts = Arrays.copyOf(positionStarts, docIds.length + 1);
+        }
+        if (start + frequency > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(positions.length * 2, start + frequency));
+        }
+        System.arraycopy(termPositions, offset, positions, start, frequency);
+        positionStarts[size] = start + frequency;
+    }
+
+    public boolean hasPositions() {
+        return positions != null;
+    }
+
+    public int[] getPositions() {
+        return positions;
+    }
+
+    public int getPositionStart(int index) {
+        return positionStarts[index];
+    }
+
+    public int[] getDocIds() {
+        return docIds;
+    }
+
+    public int[] getFrequencies() {
+        return frequencies;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Index of the docId in the postings, negative if the document does not contain the term
+    public int indexOf(int docId) {
+        return Arrays.binarySearch(docIds, 0, size, docId);
+    }
+
+    public int getTotalFrequency() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += frequencies[i];
+        }
+        return total;
+    }
+
+    // Heap size of the arrays, capacity included
+    public long getEstimatedBytes() {
+        long bytes = OBJECT_BYTES + 4L * (docIds.length + frequencies.length);
+        if (positions != null) {
+            bytes += 4L * (positions.length + positionStarts.length);
+        }
+        if (blockMaxFrequencies != null) {
+            bytes += 4L * (blockMaxFrequencies.length + blockMinDocumentLengths.length);
+        }
+        return bytes;
+    }
+
+    public boolean hasBlockMaxima() {
+        return blockMaxFrequencies != null;
+    }
+
+    public void setBlockMaxima(int[] maxFrequencies, int[] minDocumentLengths) {
+        blockMaxFrequencies = maxFrequencies;
+        blockMinDocumentLengths = minDocumentLengths;
+    }
+
+    public int getBlockCount() {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    public int getBlockMaxFrequency(int block) {
+        return blockMaxFrequencies[block];
+    }
+
+    public int getBlockMinDocumentLength(int block) {
+        return blockMinDocumentLengths[block];
+    }
+
+    public int getBlockLastDocId(int block) {
+        return docIds[Math.min((block + 1) * BLOCK_SIZE, size) - 1];
+    }
+}
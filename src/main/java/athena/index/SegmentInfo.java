@@ -0,0 +1,60 @@
+package athena.index;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * One immutable segment of the index, as listed in the segments file.
+ */
+public class SegmentInfo {
+
+    private String name;
+    private int documentCount;
+    private int deletedCount;
+    private int deleteGeneration;
+
+    public SegmentInfo() {
+    }
+
+    public SegmentInfo(String name, int documentCount) {
+        this.name = name;
+        this.documentCount = documentCount;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    public void setDocumentCount(int documentCount) {
+        this.documentCount = documentCount;
+    }
+
+    public int getDeletedCount() {
+        return deletedCount;
+    }
+
+    public void setDeletedCount(int deletedCount) {
+        this.deletedCount = deletedCount;
+    }
+
+    // Every change to the deletes of a segment is written to a new file, 0 while nothing is deleted
+    public int getDeleteGeneration() {
+        return deleteGeneration;
+    }
+
+    public void setDeleteGeneration(int deleteGeneration) {
+        this.deleteGeneration = deleteGeneration;
+    }
+
+    @JsonIgnore
+    public int getLiveCount() {
+        return documentCount - deletedCount;
+    }
+}
@@ -0,0 +1,48 @@
+package athena.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Contents of the segments file: the live segments in docId order, a version bumped on every commit and the number
+ * of the next segment name to hand out.
+ */
+public class SegmentInfos {
+
+    private long version;
+    private int nextSegment;
+    private List<SegmentInfo> segments = new ArrayList<>();
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public int getNextSegment() {
+        return nextSegment;
+    }
+
+    public void setNextSegment(int nextSegment) {
+        this.nextSegment = nextSegment;
+    }
+
+    public List<SegmentInfo> getSegments() {
+        return segments;
+    }
+
+    public void setSegments(List<SegmentInfo> segments) {
+        this.segments = segments;
+    }
+
+    public SegmentInfo getSegment(String name) {
+        for (SegmentInfo segment : segments) {
+            if (segment.getName().equals(name)) {
+                return segment;
+            }
+        }
+        return null;
+    }
+}
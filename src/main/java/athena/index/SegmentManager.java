@@ -0,0 +1,416 @@
+package athena.index;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the list of immutable segments an index is made of. New documents are written to a new segment, deleted or
+ * updated documents are only marked in the tombstones of the segment holding them. Every change is committed by
+ * atomically replacing the segments file, readers opening the index see either the old or the new list.
+ * <p>
+ * Once there are merge factor segments, the adjacent segments with the fewest live documents are merged in the
+ * background into one segment, dropping the deleted documents.
+ * <p>
+ * Snapshots opened through the manager retain the segments they read. The files of a retained segment are only
+ * deleted once the last snapshot reading them released it, even when the segment was merged away or replaced.
+ */
+public class SegmentManager {
+
+    public static final String SEGMENTS_EXTENSION = ".segments";
+    public static final String DELETES_EXTENSION = ".del";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private String indexPrefix;
+    private int mergeFactor;
+    // bytes a merge may buffer, 0 is unbounded
+    private volatile long memoryBudget;
+    private SegmentInfos segmentInfos;
+    // Segments being written or merged, not committed yet
+    private Set<String> pendingSegments = new HashSet<>();
+    private HashMap<String, BitSet> deletes = new HashMap<>();
+    // Number of open snapshots reading each segment
+    private HashMap<String, Integer> segmentReferences = new HashMap<>();
+    // Segment and docId of the live copy of every document, loaded on the first delete
+    private HashMap<String, DocumentLocation> liveDocuments;
+    private boolean merging;
+    private ExecutorService mergeExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "segment-merger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SegmentManager(String indexPrefix, int mergeFactor) {
+        this.indexPrefix = indexPrefix;
+        this.mergeFactor = Math.max(2, mergeFactor);
+        try {
+            segmentInfos = readSegmentInfos(indexPrefix);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (segmentInfos == null) {
+            segmentInfos = new SegmentInfos();
+        }
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    // Last committed segments of an index, null if the index has not been built
+    public static SegmentInfos readSegmentInfos(String indexPrefix) throws IOException {
+        File file = new File(indexPrefix + SEGMENTS_EXTENSION);
+        return file.exists() ? OBJECT_MAPPER.readValue(file, SegmentInfos.class) : null;
+    }
+
+    public static String getSegmentPrefix(String indexPrefix, String segmentName) {
+        return indexPrefix + "_" + segmentName;
+    }
+
+    private static String getDeletesFile(String segmentPrefix, int deleteGeneration) {
+        return segmentPrefix + "_" + deleteGeneration + DELETES_EXTENSION;
+    }
+
+    // Tombstones of one segment, a set bit marks a deleted docId
+    public static BitSet readDeletes(String indexPrefix, SegmentInfo segment) throws IOException {
+        if (segment.getDeleteGeneration() == 0) {
+            return new BitSet();
+        }
+        String segmentPrefix = getSegmentPrefix(indexPrefix, segment.getName());
+        return BitSet.valueOf(Files.readAllBytes(Paths.get(getDeletesFile(segmentPrefix,
+                segment.getDeleteGeneration()))));
+    }
+
+    public String getSegmentPrefix(String segmentName) {
+        return getSegmentPrefix(indexPrefix, segmentName);
+    }
+
+    public synchronized long getVersion() {
+        return segmentInfos.getVersion();
+    }
+
+    public synchronized List<String> getSegmentPrefixes() {
+        List<String> prefixes = new ArrayList<>();
+        for (SegmentInfo segment : segmentInfos.getSegments()) {
+            prefixes.add(getSegmentPrefix(segment.getName()));
+        }
+        return prefixes;
+    }
+
+    // Copy of the last committed segments, retained until they are released. Null if nothing has been committed
+    public synchronized SegmentInfos retainSegments() {
+        if (segmentInfos.getVersion() == 0) {
+            return null;
+        }
+        SegmentInfos retained = new SegmentInfos();
+        retained.setVersion(segmentInfos.getVersion());
+        retained.setNextSegment(segmentInfos.getNextSegment());
+        for (SegmentInfo segment : segmentInfos.getSegments()) {
+            SegmentInfo copy = new SegmentInfo(segment.getName(), segment.getDocumentCount());
+            copy.setDeletedCount(segment.getDeletedCount());
+            copy.setDeleteGeneration(segment.getDeleteGeneration());
+            retained.getSegments().add(copy);
+            segmentReferences.merge(segment.getName(), 1, Integer::sum);
+        }
+        return retained;
+    }
+
+    // The files of segments no longer committed nor retained are deleted with the last release
+    public synchronized void releaseSegments(SegmentInfos retained) {
+        for (SegmentInfo segment : retained.getSegments()) {
+            segmentReferences.computeIfPresent(segment.getName(), (name, count) -> count == 1 ? null : count - 1);
+        }
+        deleteUnreferencedFiles();
+    }
+
+    public synchronized String newSegmentName() {
+        String name = "s" + segmentInfos.getNextSegment();
+        segmentInfos.setNextSegment(segmentInfos.getNextSegment() + 1);
+        pendingSegments.add(name);
+        return name;
+    }
+
+    // A full build replaces every segment of the index
+    public synchronized void replaceAll(String segmentName, int documentCount) {
+        segmentInfos.getSegments().clear();
+        deletes.clear();
+        liveDocuments = null;
+        segmentInfos.getSegments().add(new SegmentInfo(segmentName, documentCount));
+        pendingSegments.remove(segmentName);
+        commit();
+    }
+
+    // Adds a new segment, older copies of its documents are deleted so re-indexed documents replace them
+    public synchronized void addSegment(String segmentName, int documentCount, List<String> documentNames) {
+        markDeleted(documentNames);
+        segmentInfos.getSegments().add(new SegmentInfo(segmentName, documentCount));
+        pendingSegments.remove(segmentName);
+        if (liveDocuments != null) {
+            for (int docId = 0; docId < documentNames.size(); docId++) {
+                liveDocuments.put(documentNames.get(docId), new DocumentLocation(segmentName, docId));
+            }
+        }
+        commit();
+        maybeMerge();
+    }
+
+    // Returns the number of documents deleted
+    public synchronized int deleteDocuments(Collection<String> documentNames) {
+        int deleted = markDeleted(documentNames);
+        if (deleted > 0) {
+            commit();
+            maybeMerge();
+        }
+        return deleted;
+    }
+
+    private int markDeleted(Collection<String> documentNames) {
+        HashSet<String> changedSegments = new HashSet<>();
+        int deleted = 0;
+        try {
+            loadLiveDocuments();
+            for (String documentName : documentNames) {
+                DocumentLocation location = liveDocuments.remove(documentName);
+                if (location != null) {
+                    getDeletes(segmentInfos.getSegment(location.segment)).set(location.docId);
+                    changedSegments.add(location.segment);
+                    deleted++;
+                }
+            }
+            for (String segmentName : changedSegments) {
+                SegmentInfo segment = segmentInfos.getSegment(segmentName);
+                BitSet segmentDeletes = deletes.get(segmentName);
+                segment.setDeletedCount(segmentDeletes.cardinality());
+                segment.setDeleteGeneration(segment.getDeleteGeneration() + 1);
+                Files.write(Paths.get(getDeletesFile(getSegmentPrefix(segmentName), segment.getDeleteGeneration())),
+                        segmentDeletes.toByteArray());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return deleted;
+    }
+
+    private BitSet getDeletes(SegmentInfo segment) throws IOException {
+        BitSet segmentDeletes = deletes.get(segment.getName());
+        if (segmentDeletes == null) {
+            segmentDeletes = readDeletes(indexPrefix, segment);
+            deletes.put(segment.getName(), segmentDeletes);
+        }
+        return segmentDeletes;
+    }
+
+    private void loadLiveDocuments() throws IOException {
+        if (liveDocuments != null) {
+            return;
+        }
+        liveDocuments = new HashMap<>();
+        for (SegmentInfo segment : segmentInfos.getSegments()) {
+            putLiveDocuments(segment);
+        }
+    }
+
+    private void putLiveDocuments(SegmentInfo segment) throws IOException {
+        String[] documentNames = IndexReader.readDocumentNames(getSegmentPrefix(segment.getName()));
+        BitSet segmentDeletes = getDeletes(segment);
+        for (int docId = 0; docId < documentNames.length; docId++) {
+            if (!segmentDeletes.get(docId)) {
+                liveDocuments.put(documentNames[docId], new DocumentLocation(segment.getName(), docId));
+            }
+        }
+    }
+
+    // Writes the segments file next to the old one and moves it in place, then removes unreferenced files
+    private void commit() {
+        segmentInfos.setVersion(segmentInfos.getVersion() + 1);
+        File segmentsFile = new File(indexPrefix + SEGMENTS_EXTENSION);
+        File tempFile = new File(indexPrefix + SEGMENTS_EXTENSION + ".tmp");
+        try {
+            OBJECT_MAPPER.writeValue(tempFile, segmentInfos);
+            Files.move(tempFile.toPath(), segmentsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        deleteUnreferencedFiles();
+    }
+
+    // Files of retained segments are kept, old tombstones included, they are deleted by a later commit or release
+    private void deleteUnreferencedFiles() {
+        File indexFile = new File(indexPrefix);
+        String filePrefix = indexFile.getName() + "_";
+        File[] files = indexFile.getParentFile().listFiles((dir, name) -> name.startsWith(filePrefix));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName().substring(filePrefix.length());
+            int extension = name.indexOf('.');
+            if (extension == -1) {
+                continue;
+            }
+            String segmentName = name.substring(0, extension);
+            int deleteGeneration = 0;
+            if (name.endsWith(DELETES_EXTENSION)) {
+                int separator = segmentName.lastIndexOf('_');
+                if (separator == -1) {
+                    continue;
+                }
+                deleteGeneration = Integer.parseInt(segmentName.substring(separator + 1));
+                segmentName = segmentName.substring(0, separator);
+            }
+            if (pendingSegments.contains(segmentName) || segmentReferences.containsKey(segmentName)) {
+                continue;
+            }
+            SegmentInfo segment = segmentInfos.getSegment(segmentName);
+            if (segment == null || (deleteGeneration != 0 && deleteGeneration != segment.getDeleteGeneration())) {
+                if (!file.delete()) {
+                    System.err.println("Error deleting index file : " + file);
+                }
+            }
+        }
+    }
+
+    private void maybeMerge() {
+        if (merging || segmentInfos.getSegments().size() < mergeFactor) {
+            return;
+        }
+        List<SegmentInfo> segments = segmentInfos.getSegments();
+        int start = 0;
+        long smallest = Long.MAX_VALUE;
+        for (int i = 0; i + mergeFactor <= segments.size(); i++) {
+            long liveCount = 0;
+            for (int j = i; j < i + mergeFactor; j++) {
+                liveCount += segments.get(j).getLiveCount();
+            }
+            if (liveCount < smallest) {
+                smallest = liveCount;
+                start = i;
+            }
+        }
+        List<SegmentInfo> window = new ArrayList<>(segments.subList(start, start + mergeFactor));
+        List<String> prefixes = new ArrayList<>();
+        List<BitSet> windowDeletes = new ArrayList<>();
+        try {
+            for (SegmentInfo segment : window) {
+                prefixes.add(getSegmentPrefix(segment.getName()));
+                windowDeletes.add((BitSet) getDeletes(segment).clone());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        String mergedName = newSegmentName();
+        merging = true;
+        mergeExecutor.submit(() -> {
+            try {
+                int documentCount = IndexMerger.merge(prefixes, windowDeletes, getSegmentPrefix(mergedName),
+                        memoryBudget);
+                commitMerge(window, windowDeletes, mergedName, documentCount);
+            } catch (IOException e) {
+                e.printStackTrace();
+                abortMerge(mergedName);
+            }
+        });
+    }
+
+    // Swaps the merged segments for the new one. Documents deleted while the merge was running are carried over to
+    // the tombstones of the new segment
+    private synchronized void commitMerge(List<SegmentInfo> window, List<BitSet> windowDeletes, String mergedName,
+                                          int documentCount) throws IOException {
+        List<SegmentInfo> segments = segmentInfos.getSegments();
+        int start = segments.indexOf(segmentInfos.getSegment(window.get(0).getName()));
+        if (start == -1 || start + window.size() > segments.size()
+                || !window.get(window.size() - 1).getName().equals(segments.get(start + window.size() - 1).getName())) {
+            // the segments were replaced by a full build in the meantime
+            abortMerge(mergedName);
+            return;
+        }
+        BitSet mergedDeletes = new BitSet();
+        int newDocId = 0;
+        for (int i = 0; i < window.size(); i++) {
+            SegmentInfo segment = segments.get(start + i);
+            BitSet before = windowDeletes.get(i);
+            BitSet after = getDeletes(segment);
+            for (int docId = 0; docId < segment.getDocumentCount(); docId++) {
+                if (!before.get(docId)) {
+                    if (after.get(docId)) {
+                        mergedDeletes.set(newDocId);
+                    }
+                    newDocId++;
+                }
+            }
+        }
+        SegmentInfo merged = new SegmentInfo(mergedName, documentCount);
+        if (!mergedDeletes.isEmpty()) {
+            merged.setDeletedCount(mergedDeletes.cardinality());
+            merged.setDeleteGeneration(1);
+            Files.write(Paths.get(getDeletesFile(getSegmentPrefix(mergedName), 1)), mergedDeletes.toByteArray());
+        }
+        for (int i = 0; i < window.size(); i++) {
+            deletes.remove(segments.remove(start).getName());
+        }
+        segments.add(start, merged);
+        deletes.put(mergedName, mergedDeletes);
+        if (liveDocuments != null) {
+            putLiveDocuments(merged);
+        }
+        pendingSegments.remove(mergedName);
+        merging = false;
+        commit();
+        maybeMerge();
+    }
+
+    private synchronized void abortMerge(String mergedName) {
+        pendingSegments.remove(mergedName);
+        merging = false;
+        deleteUnreferencedFiles();
+    }
+
+    // Blocks until no merge is running or queued
+    public void waitForMerges() {
+        while (true) {
+            synchronized (this) {
+                if (!merging) {
+                    return;
+                }
+            }
+            try {
+                mergeExecutor.submit(() -> {
+                }).get();
+            } catch (Exception e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+    }
+
+    public void close() {
+        waitForMerges();
+        mergeExecutor.shutdown();
+        try {
+            mergeExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class DocumentLocation {
+        private String segment;
+        private int docId;
+
+        DocumentLocation(String segment, int docId) {
+            this.segment = segment;
+            this.docId = docId;
+        }
+    }
+}
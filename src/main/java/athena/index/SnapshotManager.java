@@ -0,0 +1,113 @@
+package athena.index;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Hands out the snapshot of the segments the indexer committed last, shared by every retrieval model. A query
+ * acquires the snapshot it runs on and releases it once it no longer reads from it, so a query never sees the index
+ * change under it. Reopening swaps in a snapshot of the segments committed since, the old snapshot is closed once
+ * the last query using it released it. Reopen listeners are told about the new snapshot right after it is swapped in,
+ * so what is cached for the old one can be dropped.
+ */
+public class SnapshotManager implements Closeable {
+
+    private final InvertedIndexer invertedIndexer;
+    private final List<Consumer<IndexSnapshot>> reopenListeners = new CopyOnWriteArrayList<>();
+    private volatile IndexSnapshot current;
+    private boolean closed;
+    private int postingsCacheSize;
+    private int documentCacheSize;
+
+    // The index is opened by the first query, once it has been (re)built
+    public SnapshotManager(InvertedIndexer invertedIndexer) {
+        this.invertedIndexer = invertedIndexer;
+    }
+
+    // Memory budget of the decoded postings cache of every snapshot in MB, 0 turns it off
+    @Value("${search.engine.postings.cache.size}")
+    public synchronized void setPostingsCacheSize(int postingsCacheSize) {
+        this.postingsCacheSize = postingsCacheSize;
+        if (current != null) {
+            current.setPostingsCacheSize(postingsCacheSize);
+        }
+    }
+
+    // Memory budget of the decompressed document block cache of every snapshot in MB, 0 turns it off
+    @Value("${search.engine.document.cache.size}")
+    public synchronized void setDocumentCacheSize(int documentCacheSize) {
+        this.documentCacheSize = documentCacheSize;
+        if (current != null) {
+            current.setDocumentCacheSize(documentCacheSize);
+        }
+    }
+
+    // Current snapshot with a reference taken for the caller, to be given back through release
+    public IndexSnapshot acquire() {
+        while (true) {
+            IndexSnapshot snapshot = current;
+            if (snapshot == null) {
+                snapshot = open();
+            }
+            // a reopen may have closed the snapshot just read, the next attempt gets the new one
+            if (snapshot.tryIncRef()) {
+                return snapshot;
+            }
+        }
+    }
+
+    public void release(IndexSnapshot snapshot) {
+        snapshot.decRef();
+    }
+
+    // Called with the new snapshot on every reopen, the listener must not keep it beyond the call
+    public void addReopenListener(Consumer<IndexSnapshot> listener) {
+        reopenListeners.add(listener);
+    }
+
+    // Swaps in a snapshot of the segments committed since the current one was opened. Returns false when nothing
+    // changed or no snapshot has been opened yet, the first query then opens the last commit
+    public synchronized boolean maybeReopen() {
+        if (closed || current == null || invertedIndexer.getSegmentManager().getVersion() == current.getVersion()) {
+            return false;
+        }
+        IndexSnapshot previous = current;
+        current = newSnapshot();
+        previous.decRef();
+        for (Consumer<IndexSnapshot> listener : reopenListeners) {
+            listener.accept(current);
+        }
+        return true;
+    }
+
+    private synchronized IndexSnapshot open() {
+        if (closed) {
+            throw new IllegalStateException("The snapshot manager is closed");
+        }
+        if (current == null) {
+            current = newSnapshot();
+        }
+        return current;
+    }
+
+    private IndexSnapshot newSnapshot() {
+        IndexSnapshot snapshot = new IndexSnapshot(invertedIndexer);
+        snapshot.setPostingsCacheSize(postingsCacheSize);
+        snapshot.setDocumentCacheSize(documentCacheSize);
+        return snapshot;
+    }
+
+    // The current snapshot is closed once the queries still using it released it
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (current != null) {
+            current.decRef();
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package athena.index;
+
+/**
+ * Terms of one document from the forward index, as dictionary ordinals of its segment with their term frequencies,
+ * sorted by ordinal and so by term. The text of a term is only looked up when asked for.
+ */
+public class TermVector {
+
+    private final IndexReader reader;
+    private final int[] termOrdinals;
+    private final int[] frequencies;
+
+    TermVector(IndexReader reader, int[] termOrdinals, int[] frequencies) {
+        this.reader = reader;
+        this.termOrdinals = termOrdinals;
+        this.frequencies = frequencies;
+    }
+
+    public int size() {
+        return termOrdinals.length;
+    }
+
+    public int getTermOrdinal(int index) {
+        return termOrdinals[index];
+    }
+
+    public String getTerm(int index) {
+        return reader.getTerm(termOrdinals[index]);
+    }
+
+    public int getFrequency(int index) {
+        return frequencies[index];
+    }
+}
@@ -0,0 +1,81 @@
+package athena.index;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable-byte encoding used by the binary index files. Each byte carries 7 bits of the value, the high bit is set
+ * on every byte except the last one.
+ */
+public class VariableByteCodec {
+
+    private VariableByteCodec() {
+    }
+
+    public static void writeVInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    public static void writeVLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    public static int readVInt(ByteBuffer buffer) {
+        int b = buffer.get();
+        int value = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    public static long readVLong(ByteBuffer buffer) {
+        long b = buffer.get();
+        long value = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    public static int readVInt(InputStream in) throws IOException {
+        int b = readByte(in);
+        int value = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = readByte(in);
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    public static long readVLong(InputStream in) throws IOException {
+        long b = readByte(in);
+        long value = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = readByte(in);
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+}
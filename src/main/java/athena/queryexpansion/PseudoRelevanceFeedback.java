@@ -1,20 +1,32 @@
 package athena.queryexpansion;
 
+import athena.index.InMemoryIndex;
+import athena.index.IndexSnapshot;
 import athena.index.InvertedIndexer;
+import athena.index.SnapshotManager;
+import athena.index.TermVector;
+import athena.retrievalmodel.Ranking;
 import athena.retrievalmodel.RetrievalModel;
-import athena.retrievalmodel.RetrievalModels;
+import athena.retrievalmodel.ScoreAccumulator;
 import athena.utils.SearchEngineUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * Created by Harshit on 4/8/2017.
  */
+@Lazy
 @Component
 public class PseudoRelevanceFeedback {
 
@@ -22,31 +34,38 @@ public class PseudoRelevanceFeedback {
     private InvertedIndexer invertedIndexer;
     @Autowired
     private RetrievalModel retrievalModel;
+    @Autowired
+    private SnapshotManager snapshotManager;
+
+    private static final String RELEVANCE_MODEL = "rm3";
+
+    @Value("${search.engine.feedback.model}")
+    private String feedbackModel;
+    @Value("${search.engine.feedback.documents}")
+    private Integer feedbackDocumentCount;
+    @Value("${search.engine.feedback.terms}")
+    private Integer feedbackTermCount;
+    @Value("${search.engine.feedback.original.weight}")
+    private Double originalWeight;
+
+    public void setFeedbackModel(String feedbackModel) {
+        this.feedbackModel = feedbackModel;
+    }
 
     public String expandQuery(String query, Integer queryID) {
         String result = query;
 
-        HashMap<String, Double> bm25map = retrievalModel.getRanking(query, queryID);
-        HashMap<String, Double> bm25mapSorted = RetrievalModels.sortBM(bm25map);
-        Set<String> keySet = bm25mapSorted.keySet();
-        File[] files = new File[15];
-        int i = 0;
-
-        for (String s : keySet) {
-            if(i<15){
-                files[i] = new File(invertedIndexer.getDataFolder() + s + ".txt");
-                i = i+ 1;
-            }
+        HashMap<String, Integer> termFrequencyTable;
+        try (Ranking feedbackDocuments = retrievalModel.getTopK(query, queryID, feedbackDocumentCount)) {
+            termFrequencyTable = getTermFrequencies(feedbackDocuments);
         }
-        HashMap<String, HashMap<String, Integer>> topDocs = invertedIndexer.createIndex(files, false);
-        HashMap<String, Integer> termFrequencyTable = invertedIndexer.generateTermFrequencyTable(topDocs);
         HashMap<String, Integer> sortedTF = invertedIndexer.sortTermFrequency(termFrequencyTable);
         Set<String> sortKeySet = sortedTF.keySet();
         int j = 0;
         ArrayList<String> stopList = SearchEngineUtils.getStopWords();
 
         for (String s : sortKeySet) {
-            if ((j < 4)&&(!stopList.contains(s.toLowerCase()))) {
+            if ((j < feedbackTermCount)&&(!stopList.contains(s.toLowerCase()))) {
                 result = result + " " + s;
                 j++;
             }
@@ -55,8 +74,115 @@ public class PseudoRelevanceFeedback {
     }
 
 
+    // Term frequencies summed over the feedback documents, from the forward index when the index has one. Older
+    // indexes have the documents read and tokenized again
+    private HashMap<String, Integer> getTermFrequencies(Ranking feedbackDocuments) {
+        IndexSnapshot indexSnapshot = feedbackDocuments.getIndexSnapshot();
+        if (!indexSnapshot.hasTermVectors()) {
+            File[] files = new File[feedbackDocuments.size()];
+            for (int i = 0; i < feedbackDocuments.size(); i++) {
+                files[i] = invertedIndexer.getSourceFile(feedbackDocuments.getDocumentName(i));
+            }
+            InMemoryIndex topDocs = invertedIndexer.createIndex(files, false);
+            return invertedIndexer.generateTermFrequencyTable(topDocs);
+        }
+        HashMap<String, Integer> termFrequencies = new HashMap<>();
+        for (int i = 0; i < feedbackDocuments.size(); i++) {
+            TermVector termVector = indexSnapshot.getTermVector(feedbackDocuments.getDocId(i));
+            for (int j = 0; j < termVector.size(); j++) {
+                termFrequencies.merge(termVector.getTerm(j), termVector.getFrequency(j), Integer::sum);
+            }
+        }
+        return termFrequencies;
+    }
+
+    // RM3 : the first pass scores are kept, only the expansion terms are scored and added onto them. The original
+    // query and the relevance model are interpolated by the original weight, the query terms weighing one each
+    private Ranking getRelevanceModelRanking(IndexSnapshot indexSnapshot, String query, Integer queryID, int k) {
+        ScoreAccumulator scores = retrievalModel.getScores(indexSnapshot, query, queryID);
+        Ranking feedbackDocuments = new Ranking(scores.getTopK(feedbackDocumentCount), indexSnapshot);
+        Map<String, Double> relevanceModel = getRelevanceModel(feedbackDocuments);
+        String trimmedQuery = query.trim();
+        int queryLength = trimmedQuery.isEmpty() ? 1 : trimmedQuery.split("\\s+").length;
+        scores.scale(originalWeight / queryLength);
+        for (Map.Entry<String, Double> term : relevanceModel.entrySet()) {
+            double weight = (1 - originalWeight) * term.getValue();
+            // a term without weight would only bring in documents it does not score
+            if (weight != 0) {
+                retrievalModel.addTermScores(indexSnapshot, scores, term.getKey(), weight);
+            }
+        }
+        return new Ranking(scores.getTopK(k), indexSnapshot).retain();
+    }
+
+    // Term weights P(w|R), the sum over the feedback documents of P(w|D) weighted by the share of the document in
+    // the first pass scores. Stop words are left out, the best terms are kept and their weights sum to 1
+    public Map<String, Double> getRelevanceModel(Ranking feedbackDocuments) {
+        double totalScore = 0;
+        for (int i = 0; i < feedbackDocuments.size(); i++) {
+            totalScore += Math.max(feedbackDocuments.getScore(i), 0);
+        }
+        HashSet<String> stopList = new HashSet<>(SearchEngineUtils.getStopWords());
+        HashMap<String, Double> termWeights = new HashMap<>();
+        for (int i = 0; i < feedbackDocuments.size() && totalScore > 0; i++) {
+            double documentWeight = Math.max(feedbackDocuments.getScore(i), 0) / totalScore;
+            TermVector termVector = feedbackDocuments.getIndexSnapshot().getTermVector(feedbackDocuments.getDocId(i));
+            long documentLength = 0;
+            for (int j = 0; j < termVector.size(); j++) {
+                documentLength += termVector.getFrequency(j);
+            }
+            if (documentWeight == 0 || documentLength == 0) {
+                continue;
+            }
+            for (int j = 0; j < termVector.size(); j++) {
+                String term = termVector.getTerm(j);
+                if (!stopList.contains(term.toLowerCase())) {
+                    termWeights.merge(term, documentWeight * termVector.getFrequency(j) / documentLength,
+                            Double::sum);
+                }
+            }
+        }
+
+        List<Map.Entry<String, Double>> terms = new ArrayList<>(termWeights.entrySet());
+        terms.sort((a, b) -> a.getValue().equals(b.getValue()) ? a.getKey().compareTo(b.getKey()) :
+                Double.compare(b.getValue(), a.getValue()));
+        terms = terms.subList(0, Math.min(feedbackTermCount, terms.size()));
+        double totalWeight = 0;
+        for (Map.Entry<String, Double> term : terms) {
+            totalWeight += term.getValue();
+        }
+        LinkedHashMap<String, Double> relevanceModel = new LinkedHashMap<>();
+        for (Map.Entry<String, Double> term : terms) {
+            relevanceModel.put(term.getKey(), term.getValue() / totalWeight);
+        }
+        return relevanceModel;
+    }
+
     public HashMap<String, Double> getRanking(String query, Integer queryID) {
-        return retrievalModel.getRanking(expandQuery(query, queryID), queryID);
+        return getRanking(query, queryID, Integer.MAX_VALUE);
+    }
+
+    public HashMap<String, Double> getRanking(String query, Integer queryID, int k) {
+        try (Ranking ranking = getTopK(query, queryID, k)) {
+            return ranking.toMap();
+        }
+    }
+
+    // RM3 needs the term vectors of the forward index, without them the frequency expansion is used. The caller
+    // closes the ranking once it is printed
+    public Ranking getTopK(String query, Integer queryID, int k) {
+        if (RELEVANCE_MODEL.equalsIgnoreCase(feedbackModel)) {
+            // both passes score the same snapshot
+            IndexSnapshot indexSnapshot = snapshotManager.acquire();
+            try {
+                if (indexSnapshot.hasTermVectors()) {
+                    return getRelevanceModelRanking(indexSnapshot, query, queryID, k);
+                }
+            } finally {
+                snapshotManager.release(indexSnapshot);
+            }
+        }
+        return retrievalModel.getTopK(expandQuery(query, queryID), queryID, k);
     }
 
 }
@@ -1,27 +1,45 @@
 package athena.retrievalmodel;
 
-import athena.index.InvertedIndexer;
+import athena.index.ImpactIndex;
+import athena.index.ImpactPostings;
+import athena.index.IndexSnapshot;
+import athena.index.PostingsList;
+import athena.index.SnapshotManager;
+import athena.snippetgeneration.SnippetService;
 import athena.utils.CommonUtils;
 import athena.utils.SearchEngineUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 public class BM25 implements RetrievalModel {
 
     @Autowired
-    private InvertedIndexer invertedIndexer;
+    private SnapshotManager snapshotManager;
     @Autowired
     private CommonUtils commonUtils;
+    @Autowired
+    private QueryResultCache queryResultCache;
+    @Autowired
+    private SnippetService snippetService;
 
     @Value("${search.engine.name}")
     private String searchEngineName;
     @Value("${search.engine.ngrams}")
     private Integer nGrams;
+    @Value("${search.engine.query.proximity.window}")
+    private Integer proximityWindow;
     @Value("${search.engine.print.size}")
     private Integer printSize;
     @Value("${search.engine.enable.snippet}")
@@ -29,12 +47,50 @@ public class BM25 implements RetrievalModel {
     @Value("${search.engine.relevance.bm25}")
     private Boolean useRelevance;
 
+    @Value("${search.engine.bm25.evaluation}")
+    private String evaluation;
+    @Value("${search.engine.bm25.impact.budget}")
+    private Integer impactBudget;
+
+    // Impact index of the last snapshot version looked up, read by the queries without a lock. Replaced as a whole
+    // and never closed, queries may still be reading the one they got
+    private volatile Impacts impacts = new Impacts(-1, null);
+
+    private final AtomicLong scoredPostings = new AtomicLong();
+
+    private static final String WAND = "wand";
+    private static final String BLOCK_MAX_WAND = "bmw";
+    private static final String MAX_SCORE = "maxscore";
+    private static final String IMPACT = "impact";
+    private static final List<String> PRUNING_EVALUATIONS = Arrays.asList(WAND, BLOCK_MAX_WAND, MAX_SCORE);
     private static final Integer K2 = 100;
     private static final Double K1 = 1.2;
     private static final Double B = 0.75;
 
     public HashMap<String, Double> getRanking(String query, Integer queryID) {
-        return calculateBM25(query, queryID);
+        return getRanking(query, queryID, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public HashMap<String, Double> getRanking(String query, Integer queryID, int k) {
+        try (Ranking ranking = getTopK(query, queryID, k)) {
+            return ranking.toMap();
+        }
+    }
+
+    @Override
+    public Ranking getTopK(String query, Integer queryID, int k) {
+        String normalizedQuery = RetrievalModels.normalizeQuery(query, nGrams);
+        // the relevance judgements make the ranking depend on the query ID
+        String key = getModelName() + "|" + evaluation + "|" + impactBudget + "|" + nGrams + "|" + proximityWindow
+                + "|" + (useRelevance ? queryID : "") + "|" + k + "|" + normalizedQuery;
+        IndexSnapshot indexSnapshot = snapshotManager.acquire();
+        try {
+            return queryResultCache.getRanking(key, indexSnapshot.getVersion(),
+                    () -> calculateBM25(indexSnapshot, normalizedQuery, queryID, k)).retain();
+        } finally {
+            snapshotManager.release(indexSnapshot);
+        }
     }
 
     @Override
@@ -42,65 +98,226 @@ public class BM25 implements RetrievalModel {
         return "BM25";
     }
 
-    private HashMap<String, Double> calculateBM25(String query, Integer queryID) {
-        HashMap<String, Double> bm25Map = new HashMap<>();
-        HashMap<String, HashMap<String, Integer>> index = invertedIndexer.readIndexFromJsonFile();
-        HashMap<String, Integer> tokenCountMap = invertedIndexer.readTokenCountToJsonFile();
-        Double averageTokenCount = RetrievalModels.getAverageTokenCount(tokenCountMap);
-        Integer totalDocumentCount = tokenCountMap.size();
+    private Ranking calculateBM25(IndexSnapshot indexSnapshot, String query, Integer queryID, int k) {
+        // the impacts hold the weights of single indexed terms without relevance information
+        if (IMPACT.equals(evaluation) && !useRelevance && (nGrams == 1 || !indexSnapshot.hasPositions())) {
+            ImpactIndex impacts = getImpactIndex(indexSnapshot);
+            if (impacts != null) {
+                return calculateImpactBM25(indexSnapshot, query, k, impacts);
+            }
+        }
+        if (!PRUNING_EVALUATIONS.contains(evaluation)) {
+            return new Ranking(calculateScores(indexSnapshot, query, queryID).getTopK(k), indexSnapshot);
+        }
+        List<PostingsCursor> cursors = new ArrayList<>();
+        // the postings of a term carry the block maxima of the index, only phrase postings have them computed
+        forEachQueryTerm(indexSnapshot, query, queryID, (documentList, scorer) ->
+                cursors.add(new PostingsCursor(indexSnapshot.addBlockMaxima(documentList), indexSnapshot, scorer)));
+        TopKCollector collector = new TopKCollector(Math.min(k, indexSnapshot.getMaxDoc()));
+        if (MAX_SCORE.equals(evaluation)) {
+            scoredPostings.addAndGet(MaxScoreEvaluator.evaluate(cursors, collector));
+        } else {
+            scoredPostings.addAndGet(WandEvaluator.evaluate(cursors, collector, BLOCK_MAX_WAND.equals(evaluation)));
+        }
+        return new Ranking(collector, indexSnapshot);
+    }
+
+    @Override
+    public ScoreAccumulator getScores(IndexSnapshot indexSnapshot, String query, Integer queryID) {
+        return calculateScores(indexSnapshot, RetrievalModels.normalizeQuery(query, nGrams), queryID);
+    }
+
+    // Scored without relevance information, with a query count of 1
+    @Override
+    public void addTermScores(IndexSnapshot indexSnapshot, ScoreAccumulator scores, String term, double weight) {
+        PostingsList documentList = RetrievalModels.getPostings(indexSnapshot, term, proximityWindow);
+        if (documentList != null) {
+            double logValue = calculateLogValue(indexSnapshot, documentList, Collections.emptyList());
+            double averageTokenCount = indexSnapshot.getAverageDocumentLength();
+            addScores(indexSnapshot, scores, documentList, (frequency, documentLength) -> calculateScore(logValue,
+                    frequency, documentLength, averageTokenCount, 1), weight);
+        }
+    }
 
-        HashMap<String, Integer> documentList;
-        Set<String> documentKeySet;
+    // Term at a time over every posting of the query terms
+    private ScoreAccumulator calculateScores(IndexSnapshot indexSnapshot, String query, Integer queryID) {
+        ScoreAccumulator bm25Scores = ScoreAccumulator.forCurrentThread(indexSnapshot.getMaxDoc());
+        forEachQueryTerm(indexSnapshot, query, queryID, (documentList, scorer) ->
+                addScores(indexSnapshot, bm25Scores, documentList, scorer, 1));
+        return bm25Scores;
+    }
+
+    private void addScores(IndexSnapshot indexSnapshot, ScoreAccumulator scores, PostingsList documentList,
+                           TermScorer scorer, double weight) {
+        // nothing to add, the documents of the term are not scored by it
+        if (weight == 0) {
+            return;
+        }
+        int[] docIds = documentList.getDocIds();
+        int[] frequencies = documentList.getFrequencies();
+        for (int i = 0; i < documentList.size(); i++) {
+            scores.add(docIds[i], weight * scorer.score(frequencies[i], indexSnapshot.getDocumentLength(docIds[i])));
+        }
+        scoredPostings.addAndGet(documentList.size());
+    }
+
+    // Hands the postings and the scorer of every query term found in the index to the consumer, in query map order
+    private void forEachQueryTerm(IndexSnapshot indexSnapshot, String query, Integer queryID,
+                                  BiConsumer<PostingsList, TermScorer> consumer) {
+        Double averageTokenCount = indexSnapshot.getAverageDocumentLength();
+        PostingsList documentList;
         HashMap<String, Integer> queryMap = RetrievalModels.getQueryMap(query, nGrams);
         Set<String> queryWords = queryMap.keySet();
-        List<String> relevantDocs = SearchEngineUtils.getRelevance(queryID);
-        Integer R = relevantDocs.size();
+        List<Integer> relevantDocs = new ArrayList<>();
+        // the relevance judgements are read from disk, only when they are used
+        if (useRelevance) {
+            for (String relevantDoc : SearchEngineUtils.getRelevance(queryID)) {
+                relevantDocs.add(indexSnapshot.getDocumentId(relevantDoc));
+            }
+        }
 
         for (String s : queryWords) {
-            documentList = index.get(s);
+            documentList = RetrievalModels.getPostings(indexSnapshot, s, proximityWindow);
             if (documentList != null) {
-                documentKeySet = documentList.keySet();
-                Integer ri = getRelevantCountForTerm(relevantDocs, documentKeySet);
-                Integer termDocumentCount = documentKeySet.size();
-                Double logValue;
-                if (useRelevance) {
-                    Double numerator = (ri + 0.5) / (R - ri + 0.5);
-                    Double denominator = (termDocumentCount - ri + 0.5) / (totalDocumentCount - termDocumentCount - R + ri + 0.5);
-                    logValue = Math.log(numerator / denominator);
-                } else {
-                    logValue = Math.log((totalDocumentCount - termDocumentCount + 0.5) / (termDocumentCount + 0.5));
-                }
+                double logValue = calculateLogValue(indexSnapshot, documentList, relevantDocs);
                 Integer termQueryCount = queryMap.get(s);
-                for (String docID : documentKeySet) {
-                    Double value = logValue;
-                    value = value * (((K1 + 1) * documentList.get(docID)) / (calculateK(tokenCountMap.get(docID), averageTokenCount) +
-                            documentList.get(docID)));
-                    value = value * (((K2 + 1) * termQueryCount) / (K2 + termQueryCount));
-                    if (bm25Map.containsKey(docID)) {
-                        bm25Map.put(docID, bm25Map.get(docID) + value);
-                    } else {
-                        bm25Map.put(docID, value);
-                    }
-                }
+                consumer.accept(documentList, (frequency, documentLength) -> calculateScore(logValue, frequency,
+                        documentLength, averageTokenCount, termQueryCount));
             }
         }
+    }
 
-        return RetrievalModels.sortBM(bm25Map);
+    private double calculateLogValue(IndexSnapshot indexSnapshot, PostingsList documentList,
+                                     List<Integer> relevantDocs) {
+        Integer totalDocumentCount = indexSnapshot.getDocumentCount();
+        Integer R = relevantDocs.size();
+        Integer ri = getRelevantCountForTerm(relevantDocs, documentList);
+        Integer termDocumentCount = documentList.size();
+        if (useRelevance) {
+            Double numerator = (ri + 0.5) / (R - ri + 0.5);
+            Double denominator = (termDocumentCount - ri + 0.5) / (totalDocumentCount - termDocumentCount - R + ri + 0.5);
+            return Math.log(numerator / denominator);
+        }
+        return Math.log((totalDocumentCount - termDocumentCount + 0.5) / (termDocumentCount + 0.5));
     }
 
-    private Integer getRelevantCountForTerm(List<String> relevantDocs, Set<String> termDocuments) {
+    private Ranking calculateImpactBM25(IndexSnapshot indexSnapshot, String query, int k, ImpactIndex impacts) {
+        HashMap<String, Integer> queryMap = RetrievalModels.getQueryMap(query, nGrams);
+        List<ImpactPostings> termPostings = new ArrayList<>();
+        int[] multipliers = new int[queryMap.size()];
+        for (String s : queryMap.keySet()) {
+            ImpactPostings postings = impacts.getImpactPostings(s);
+            if (postings != null) {
+                Integer termQueryCount = queryMap.get(s);
+                multipliers[termPostings.size()] = ((K2 + 1) * termQueryCount) / (K2 + termQueryCount);
+                termPostings.add(postings);
+            }
+        }
+        TopKCollector collector = new TopKCollector(Math.min(k, indexSnapshot.getMaxDoc()));
+        scoredPostings.addAndGet(ImpactEvaluator.evaluate(termPostings, multipliers, impactBudget,
+                indexSnapshot.getMaxDoc(), impacts.getScale(), collector));
+        return new Ranking(collector, indexSnapshot);
+    }
+
+    // Writes the quantized BM25 weight of every live posting of the snapshot for the impact evaluation
+    public synchronized void writeImpactIndex() {
+        IndexSnapshot indexSnapshot = snapshotManager.acquire();
+        try {
+            Double averageTokenCount = indexSnapshot.getAverageDocumentLength();
+            Integer totalDocumentCount = indexSnapshot.getDocumentCount();
+            ImpactIndex.write(indexSnapshot, (documentFrequency, frequency, documentLength) -> calculateScore(
+                    Math.log((totalDocumentCount - documentFrequency + 0.5) / (documentFrequency + 0.5)), frequency,
+                    documentLength, averageTokenCount, 1));
+            openImpacts(indexSnapshot, true);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            snapshotManager.release(indexSnapshot);
+        }
+        // the impact rankings cached so far came from exact scores or an older impact index
+        queryResultCache.invalidateAll();
+    }
+
+    // Impact index written for the snapshot, null if there is none or it was written for other segments. The file is
+    // only opened by writeImpactIndex and by the first query on a newer snapshot version. Queries still running on an
+    // older snapshot score exactly
+    private ImpactIndex getImpactIndex(IndexSnapshot indexSnapshot) {
+        Impacts current = impacts;
+        if (current.version < indexSnapshot.getVersion()) {
+            current = openImpacts(indexSnapshot, false);
+        }
+        return current.version == indexSnapshot.getVersion() ? current.impactIndex : null;
+    }
+
+    // Swaps in the impacts file of the snapshot, unless the snapshot version was already looked up and it is not
+    // rewritten. Null when there is no file for this version
+    private synchronized Impacts openImpacts(IndexSnapshot indexSnapshot, boolean rewritten) {
+        long version = indexSnapshot.getVersion();
+        if (impacts.version > version || (impacts.version == version && !rewritten)) {
+            return impacts;
+        }
+        ImpactIndex impactIndex = null;
+        try {
+            ImpactIndex opened = new ImpactIndex(indexSnapshot.getIndexPrefix());
+            if (opened.getVersion() == version) {
+                impactIndex = opened;
+            } else {
+                opened.close();
+            }
+        } catch (NoSuchFileException e) {
+            impactIndex = null;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        impacts = new Impacts(version, impactIndex);
+        return impacts;
+    }
+
+    private double calculateScore(double logValue, int frequency, int documentLength, double averageTokenCount,
+                                  int termQueryCount) {
+        double value = logValue;
+        value = value * (((K1 + 1) * frequency) / (calculateK(documentLength, averageTokenCount) + frequency));
+        value = value * (((K2 + 1) * termQueryCount) / (K2 + termQueryCount));
+        return value;
+    }
+
+    // Evaluation used from now on, exhaustive, wand, bmw, maxscore or impact
+    public void setEvaluation(String evaluation) {
+        this.evaluation = evaluation;
+    }
+
+    public void setImpactBudget(Integer impactBudget) {
+        this.impactBudget = impactBudget;
+    }
+
+    // Postings scored by all queries so far
+    public long getScoredPostings() {
+        return scoredPostings.get();
+    }
+
+    private Integer getRelevantCountForTerm(List<Integer> relevantDocs, PostingsList termDocuments) {
         int count = relevantDocs.size();
-        relevantDocs.removeAll(termDocuments);
+        relevantDocs.removeIf(docId -> termDocuments.indexOf(docId) >= 0);
         return count - relevantDocs.size();
     }
 
-    private Double calculateK(Integer documentLength, Double averageLength) {
+    private double calculateK(int documentLength, double averageLength) {
         return K1 * ((1 - B) + B * (documentLength / averageLength));
     }
 
 
+    private static class Impacts {
+        private final long version;
+        private final ImpactIndex impactIndex;
+
+        Impacts(long version, ImpactIndex impactIndex) {
+            this.version = version;
+            this.impactIndex = impactIndex;
+        }
+    }
+
     @Override
-    public void printN(HashMap<String, Double> hashMap, Integer queryID, String query) {
+    public void printN(Ranking ranking, Integer queryID, String query) {
         String fs = File.separator;
         String folderName = commonUtils.getOutputPath() + fs + searchEngineName + fs;
         commonUtils.verifyFolder(folderName);
@@ -108,6 +325,7 @@ public class BM25 implements RetrievalModel {
             folderName = folderName + "0";
         }
         String filePath = folderName + queryID + ".txt";
-        RetrievalModels.printN(hashMap, queryID, filePath, searchEngineName, printSize, query, genSnippet);
+        RetrievalModels.printN(ranking, queryID, filePath, searchEngineName, printSize, query,
+                genSnippet ? snippetService : null);
     }
 }
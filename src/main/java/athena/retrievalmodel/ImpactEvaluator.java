@@ -0,0 +1,64 @@
+package athena.retrievalmodel;
+
+import athena.index.ImpactPostings;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Score-at-a-time evaluation over impact-ordered postings. The impact groups of all query terms are processed from
+ * the highest contribution down, adding integer impacts to the document scores. With a postings budget the
+ * evaluation stops after the group that reaches it, the groups left out are the ones that change the scores least.
+ */
+public class ImpactEvaluator {
+
+    private static final int GROUP_BITS = 8;
+    private static final int TERM_BITS = 16;
+
+    private ImpactEvaluator() {
+    }
+
+    // Collects the best documents, multipliers are the integer query weights of the terms. A budget of 0 processes
+    // every posting. Returns the number of postings processed
+    public static long evaluate(List<ImpactPostings> termPostings, int[] multipliers, int budget, int maxDoc,
+                                double scale, TopKCollector collector) {
+        int groups = 0;
+        for (ImpactPostings postings : termPostings) {
+            groups += postings.getGroupCount();
+        }
+        // contribution descending, then term and group, packed into one sortable long per group
+        long[] order = new long[groups];
+        int next = 0;
+        for (int t = 0; t < termPostings.size(); t++) {
+            ImpactPostings postings = termPostings.get(t);
+            for (int g = 0; g < postings.getGroupCount(); g++) {
+                long contribution = (long) postings.getImpact(g) * multipliers[t];
+                order[next++] = ((Integer.MAX_VALUE - contribution) << (TERM_BITS + GROUP_BITS)) |
+                        ((long) t << GROUP_BITS) | g;
+            }
+        }
+        Arrays.sort(order);
+
+        // the integer sums are exact in the doubles of the accumulator
+        ScoreAccumulator accumulator = ScoreAccumulator.forCurrentThread(maxDoc);
+        long processed = 0;
+        for (long key : order) {
+            if (budget > 0 && processed >= budget) {
+                break;
+            }
+            int t = (int) (key >>> GROUP_BITS) & ((1 << TERM_BITS) - 1);
+            int g = (int) key & ((1 << GROUP_BITS) - 1);
+            ImpactPostings postings = termPostings.get(t);
+            int contribution = postings.getImpact(g) * multipliers[t];
+            int[] groupDocIds = postings.getDocIds();
+            int end = postings.getGroupStart(g + 1);
+            for (int i = postings.getGroupStart(g); i < end; i++) {
+                accumulator.add(groupDocIds[i], contribution);
+            }
+            processed += end - postings.getGroupStart(g);
+        }
+        accumulator.scale(scale);
+        accumulator.collect(collector);
+        return processed;
+    }
+}
@@ -0,0 +1,105 @@
+package athena.retrievalmodel;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Document-at-a-time top k evaluation with MaxScore. The terms are ordered by their upper bound and split where the
+ * bounds of the lowest ones add up to more than the lowest score in the collector. A document holding only the
+ * lower, non-essential terms can not make it into the collector, so candidates come from the essential terms only,
+ * and the non-essential terms of a candidate are looked up from the highest bound down until the rest of the bounds
+ * can no longer lift it above the collector. The split moves up as the collector fills.
+ * <p>
+ * The lookups are added up in bound order to decide early, the score of a collected document adds up its terms in
+ * query term order like the term-at-a-time accumulator, so the results are the same as scoring every posting.
+ */
+public class MaxScoreEvaluator {
+
+    // Covers the difference in rounding between the early sums and the final score
+    private static final double SCORE_MARGIN = 1e-9;
+
+    private MaxScoreEvaluator() {
+    }
+
+    // Collects the best documents of the cursors, which are given in query term order, and returns the number of
+    // postings scored
+    public static long evaluate(List<PostingsCursor> cursors, TopKCollector collector) {
+        int terms = cursors.size();
+        // query term indexes by ascending upper bound
+        Integer[] byBound = new Integer[terms];
+        for (int i = 0; i < terms; i++) {
+            byBound[i] = i;
+        }
+        Arrays.sort(byBound, (a, b) -> Double.compare(cursors.get(a).getUpperBound(),
+                cursors.get(b).getUpperBound()));
+        PostingsCursor[] sorted = new PostingsCursor[terms];
+        double[] boundSums = new double[terms];
+        for (int i = 0; i < terms; i++) {
+            sorted[i] = cursors.get(byBound[i]);
+            boundSums[i] = (i == 0 ? 0 : boundSums[i - 1]) + sorted[i].getUpperBound();
+        }
+        double[] contributions = new double[terms];
+        boolean[] matched = new boolean[terms];
+        long scoredPostings = 0;
+        double threshold = collector.getThreshold();
+        int firstEssential = 0;
+        while (firstEssential < terms && boundSums[firstEssential] <= threshold) {
+            firstEssential++;
+        }
+
+        while (firstEssential < terms) {
+            int docId = PostingsCursor.NO_MORE_DOCS;
+            for (int i = firstEssential; i < terms; i++) {
+                docId = Math.min(docId, sorted[i].docId());
+            }
+            if (docId == PostingsCursor.NO_MORE_DOCS) {
+                break;
+            }
+            Arrays.fill(matched, false);
+            double partialScore = 0;
+            double absoluteScore = 0;
+            for (int i = firstEssential; i < terms; i++) {
+                if (sorted[i].docId() == docId) {
+                    double contribution = sorted[i].score();
+                    contributions[byBound[i]] = contribution;
+                    matched[byBound[i]] = true;
+                    partialScore += contribution;
+                    absoluteScore += Math.abs(contribution);
+                    scoredPostings++;
+                    sorted[i].next();
+                }
+            }
+            boolean competitive = true;
+            for (int i = firstEssential - 1; i >= 0; i--) {
+                double bound = partialScore + boundSums[i];
+                if (bound + SCORE_MARGIN * (absoluteScore + boundSums[i]) <= threshold) {
+                    competitive = false;
+                    break;
+                }
+                sorted[i].advance(docId);
+                if (sorted[i].docId() == docId) {
+                    double contribution = sorted[i].score();
+                    contributions[byBound[i]] = contribution;
+                    matched[byBound[i]] = true;
+                    partialScore += contribution;
+                    absoluteScore += Math.abs(contribution);
+                    scoredPostings++;
+                }
+            }
+            if (competitive) {
+                double score = 0;
+                for (int t = 0; t < terms; t++) {
+                    if (matched[t]) {
+                        score += contributions[t];
+                    }
+                }
+                collector.collect(docId, score);
+                threshold = collector.getThreshold();
+                while (firstEssential < terms && boundSums[firstEssential] <= threshold) {
+                    firstEssential++;
+                }
+            }
+        }
+        return scoredPostings;
+    }
+}
@@ -0,0 +1,98 @@
+package athena.retrievalmodel;
+
+import athena.index.IndexSnapshot;
+import athena.index.PostingsList;
+
+/**
+ * Document-at-a-time cursor over the postings of one query term, used by the dynamic pruning evaluators. The upper
+ * bounds of the term and of each of its blocks come from the block-max metadata of the postings, scored with the
+ * highest frequency and the shortest document of the block.
+ */
+public class PostingsCursor {
+
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+    // The bounds are rounded differently than the scores they bound
+    private static final double BOUND_SLACK = 1e-9;
+
+    private final PostingsList postings;
+    private final IndexSnapshot indexSnapshot;
+    private final TermScorer scorer;
+    private final double[] blockBounds;
+    private double upperBound;
+    private int index;
+    private int docId;
+    private int block;
+
+    public PostingsCursor(PostingsList postings, IndexSnapshot indexSnapshot, TermScorer scorer) {
+        this.postings = postings;
+        this.indexSnapshot = indexSnapshot;
+        this.scorer = scorer;
+        blockBounds = new double[postings.getBlockCount()];
+        for (int b = 0; b < blockBounds.length; b++) {
+            // terms with a negative weight never add to a score
+            double bound = scorer.score(postings.getBlockMaxFrequency(b), postings.getBlockMinDocumentLength(b));
+            blockBounds[b] = Math.max(bound, 0) * (1 + BOUND_SLACK);
+            upperBound = Math.max(upperBound, blockBounds[b]);
+        }
+        docId = postings.size() > 0 ? postings.getDocIds()[0] : NO_MORE_DOCS;
+    }
+
+    public int docId() {
+        return docId;
+    }
+
+    public void next() {
+        index++;
+        docId = index < postings.size() ? postings.getDocIds()[index] : NO_MORE_DOCS;
+    }
+
+    // Moves to the first posting with a docId not below the target, skipping whole blocks on their last docId
+    public void advance(int target) {
+        int b = index / PostingsList.BLOCK_SIZE;
+        while (b < blockBounds.length && postings.getBlockLastDocId(b) < target) {
+            b++;
+        }
+        if (b == blockBounds.length) {
+            index = postings.size();
+            docId = NO_MORE_DOCS;
+            return;
+        }
+        int low = Math.max(index, b * PostingsList.BLOCK_SIZE);
+        int high = Math.min((b + 1) * PostingsList.BLOCK_SIZE, postings.size()) - 1;
+        int[] docIds = postings.getDocIds();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (docIds[middle] < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        index = low;
+        docId = docIds[low];
+    }
+
+    // Moves the block pointer, not the cursor, to the block that would hold the target
+    public void shallowAdvance(int target) {
+        block = Math.max(block, index / PostingsList.BLOCK_SIZE);
+        while (block < blockBounds.length && postings.getBlockLastDocId(block) < target) {
+            block++;
+        }
+    }
+
+    public double getBlockUpperBound() {
+        return block < blockBounds.length ? blockBounds[block] : 0;
+    }
+
+    public int getBlockLastDocId() {
+        return block < blockBounds.length ? postings.getBlockLastDocId(block) : NO_MORE_DOCS - 1;
+    }
+
+    public double getUpperBound() {
+        return upperBound;
+    }
+
+    public double score() {
+        return scorer.score(postings.getFrequencies()[index], indexSnapshot.getDocumentLength(docId));
+    }
+}
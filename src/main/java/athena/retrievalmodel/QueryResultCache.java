@@ -0,0 +1,97 @@
+package athena.retrievalmodel;
+
+import athena.index.SnapshotManager;
+import athena.utils.TinyLfuCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+/**
+ * Rankings of recently asked queries, shared by the retrieval models. The key holds the model name, the model
+ * parameters the ranking depends on and the query, the cache only serves rankings of the newest index version. It is
+ * emptied when the snapshot manager reopens the index, or when a model asks for a newer version first, so a changed
+ * index never answers from the old rankings. Queries still running on an older snapshot are ranked without the cache.
+ * Eviction is W-TinyLFU over the number of rankings, so queries asked once do not push out the popular ones.
+ */
+@Component
+public class QueryResultCache {
+
+    private TinyLfuCache<String, Ranking> cache;
+    private long indexVersion = -1;
+    private long invalidationCount;
+
+    // Number of rankings kept, 0 turns the cache off
+    @Value("${search.engine.query.cache.size}")
+    public synchronized void setMaximumSize(int maximumSize) {
+        cache = maximumSize > 0 ? new TinyLfuCache<>(maximumSize, maximumSize) : null;
+    }
+
+    // Drops the rankings of the old snapshot as soon as the index is reopened
+    @Autowired(required = false)
+    public void setSnapshotManager(SnapshotManager snapshotManager) {
+        snapshotManager.addReopenListener(indexSnapshot -> getCache(indexSnapshot.getVersion()));
+    }
+
+    // Cached ranking of the key for the index version, computed and cached when there is none
+    public Ranking getRanking(String key, long version, Supplier<Ranking> ranking) {
+        TinyLfuCache<String, Ranking> rankings = getCache(version);
+        if (rankings == null) {
+            return ranking.get();
+        }
+        Ranking cached = rankings.get(key);
+        if (cached == null) {
+            cached = ranking.get();
+            synchronized (this) {
+                // not kept if the index changed while it was computed
+                if (version == indexVersion && rankings == cache) {
+                    rankings.put(key, cached, 1);
+                }
+            }
+        }
+        return cached;
+    }
+
+    public synchronized void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+        invalidationCount++;
+    }
+
+    public synchronized long getHitCount() {
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    public synchronized long getMissCount() {
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    public synchronized long getEvictionCount() {
+        return cache == null ? 0 : cache.getEvictionCount();
+    }
+
+    public synchronized long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    public synchronized long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    public synchronized boolean isEnabled() {
+        return cache != null;
+    }
+
+    // Null for an older index version, whose rankings are neither served nor kept
+    private synchronized TinyLfuCache<String, Ranking> getCache(long version) {
+        if (cache != null && version > indexVersion) {
+            if (indexVersion != -1) {
+                invalidateAll();
+            }
+            indexVersion = version;
+        }
+        return version < indexVersion ? null : cache;
+    }
+}
@@ -0,0 +1,90 @@
+package athena.retrievalmodel;
+
+import athena.index.IndexSnapshot;
+import athena.index.Passages;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Ranked documents of one query as parallel docId and score arrays, best first. Equal scores are ordered by
+ * ascending docId. Document names are only resolved when asked for, through the snapshot the docIds belong to.
+ * A ranking is never changed once built, so it can be cached and shared.
+ * <p>
+ * The retrieval models hand out rankings with a reference on their snapshot taken, the caller closes the ranking once
+ * it no longer reads its documents so a reopened index can close the old snapshot.
+ */
+public class Ranking implements Closeable {
+
+    private final int[] docIds;
+    private final double[] scores;
+    private final IndexSnapshot indexSnapshot;
+
+    // Takes the documents of the collector, which is left empty
+    public Ranking(TopKCollector collector, IndexSnapshot indexSnapshot) {
+        this.scores = new double[collector.size()];
+        this.docIds = collector.drain(scores);
+        this.indexSnapshot = indexSnapshot;
+    }
+
+    public int size() {
+        return docIds.length;
+    }
+
+    public int getDocId(int rank) {
+        return docIds[rank];
+    }
+
+    public double getScore(int rank) {
+        return scores[rank];
+    }
+
+    // Takes a reference on the snapshot for one more caller, each caller closes the ranking once
+    public Ranking retain() {
+        if (indexSnapshot != null && !indexSnapshot.tryIncRef()) {
+            throw new IllegalStateException("The snapshot of the ranking is closed");
+        }
+        return this;
+    }
+
+    // Snapshot the docIds belong to, only to be read while the ranking is not closed
+    public IndexSnapshot getIndexSnapshot() {
+        return indexSnapshot;
+    }
+
+    // Version of the index the docIds belong to
+    public long getIndexVersion() {
+        return indexSnapshot.getVersion();
+    }
+
+    public String getDocumentName(int rank) {
+        return indexSnapshot.getDocumentName(docIds[rank]);
+    }
+
+    // Source of the document from the document store, null if the index did not store it
+    public String getDocument(int rank) {
+        return indexSnapshot.getDocument(docIds[rank]);
+    }
+
+    // Passages of the document for snippets, null if the index has no passage index
+    public Passages getPassages(int rank) {
+        return indexSnapshot.getPassages(docIds[rank]);
+    }
+
+    // Document names and scores in rank order, for callers of the map based ranking
+    public HashMap<String, Double> toMap() {
+        HashMap<String, Double> hashMap = new LinkedHashMap<>();
+        for (int i = 0; i < docIds.length; i++) {
+            hashMap.put(getDocumentName(i), scores[i]);
+        }
+        return hashMap;
+    }
+
+    @Override
+    public void close() {
+        if (indexSnapshot != null) {
+            indexSnapshot.decRef();
+        }
+    }
+}
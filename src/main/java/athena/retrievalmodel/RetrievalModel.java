@@ -1,11 +1,26 @@
 package athena.retrievalmodel;
 
+import athena.index.IndexSnapshot;
+
 import java.util.HashMap;
 
 public interface RetrievalModel {
     HashMap<String, Double> getRanking(String query, Integer queryID);
 
+    // Only the k best documents, sorted by descending score
+    HashMap<String, Double> getRanking(String query, Integer queryID, int k);
+
+    // The k best documents as docIds and scores, best first. The caller closes the ranking once it is printed
+    Ranking getTopK(String query, Integer queryID, int k);
+
+    // Exhaustive scores of every matching document of the snapshot, the accumulator is reused by the next query on
+    // the thread
+    ScoreAccumulator getScores(IndexSnapshot indexSnapshot, String query, Integer queryID);
+
+    // Adds the scores of one more query term, multiplied by the weight, onto the scores accumulated on the snapshot
+    void addTermScores(IndexSnapshot indexSnapshot, ScoreAccumulator scores, String term, double weight);
+
     String getModelName();
 
-    void printN(HashMap<String, Double> hashMap, Integer queryID, String query);
+    void printN(Ranking ranking, Integer queryID, String query);
 }
@@ -1,23 +1,33 @@
 package athena.retrievalmodel;
 
-import athena.snippetgeneration.SnippetGeneration;
+import athena.index.IndexSnapshot;
+import athena.index.PostingsList;
+import athena.snippetgeneration.SnippetService;
 import athena.utils.CommonUtils;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.DecimalFormat;
 import java.util.*;
+import java.util.regex.Pattern;
 
 /**
  * Created by Pallav on 4/8/2017.
  */
 public class RetrievalModels {
     private static final String SPLIT_CHARACTER = " ";
+    private static final Pattern SPACES = Pattern.compile(" +");
 
-    private static SnippetGeneration sn = new SnippetGeneration();
     private static CommonUtils commonUtils = new CommonUtils();
 
+    // Query with the same ranking for any spacing of single word terms. Empty words are part of n-grams, so those
+    // queries are left as they are
+    public static String normalizeQuery(String query, Integer nGrams) {
+        if (nGrams != 1) {
+            return query;
+        }
+        return SPACES.matcher(query.trim()).replaceAll(SPLIT_CHARACTER);
+    }
+
     // Split the whole query into separate words and counts
     public static HashMap<String, Integer> getQueryMap(String query, Integer nGrams) {
         HashMap<String, Integer> hashMap = new HashMap<>();
@@ -38,6 +48,19 @@ public class RetrievalModels {
         return hashMap;
     }
 
+    // Postings of a query term. On a positional index the words of an n-gram term are matched as a phrase, or within
+    // the proximity window when it is set, instead of being looked up as one term
+    public static PostingsList getPostings(IndexSnapshot indexSnapshot, String term, int proximityWindow) {
+        if (term.indexOf(' ') > 0 && indexSnapshot.hasPositions()) {
+            List<String> words = Arrays.asList(term.split(SPLIT_CHARACTER));
+            // double spaces in the query leave empty words, those n-grams are never indexed
+            if (words.size() > 1 && !words.contains("") && !term.endsWith(SPLIT_CHARACTER)) {
+                return indexSnapshot.getPhrasePostings(words, proximityWindow);
+            }
+        }
+        return indexSnapshot.getPostings(term);
+    }
+
     // For a given map, calculates the average token count
     public static double getAverageTokenCount(HashMap<String, Integer> tokenCount) {
         Integer totalTokenCount = 0;
@@ -58,29 +81,23 @@ public class RetrievalModels {
         return hashMap1;
     }
 
-    public static void printN(HashMap<String, Double> hashMap, Integer
+    // Writes the run lines of the first printSize results. Snippets are only made for the page of results the snippet
+    // service shows, none when it is null. A snippet not made within the time budget of the service is left empty
+    public static void printN(Ranking ranking, Integer
             queryID, String filePath, String model, Integer printSize, String
-                                      query, Boolean genSnippet) {
-        int k = 1;
-        DecimalFormat numberFormat = new DecimalFormat("#.000");
+                                      query, SnippetService snippetService) {
         File file = new File(filePath);
         String snipFolder = file.getParent() + "\\Snippets";
         commonUtils.verifyFolder(snipFolder);
-        try {
-            FileWriter fileWriter = new FileWriter(file);
-            for (String s : hashMap.keySet()) {
-                fileWriter.write(queryID + " Q0 " + s + " " + k + " " + numberFormat.format(hashMap.get(s)) +
-                        " Athena[" + model + "]\n");
-                if (genSnippet) {
-                    commonUtils.appendToFile(snipFolder + "\\Snippet_" + queryID + ".txt", s + "\n" + sn.thisSnippet(s, query) + "\n\n");
-                }
-                k++;
-                if (k > printSize) {
-                    break;
-                }
+        String[] snippets = snippetService == null ? new String[0] : snippetService.getSnippets(ranking, query);
+        // one open of the run file and of the snippet file per query, the lines are buffered
+        try (RunWriter runWriter = new RunWriter(filePath, snipFolder + "\\Snippet_" + queryID + ".txt")) {
+            for (int rank = 0; rank < Math.min(ranking.size(), printSize); rank++) {
+                runWriter.writeResult(queryID, ranking.getDocumentName(rank), rank + 1, ranking.getScore(rank), model);
+            }
+            for (int rank = 0; rank < snippets.length; rank++) {
+                runWriter.writeSnippet(ranking.getDocumentName(rank), snippets[rank] == null ? "" : snippets[rank]);
             }
-            fileWriter.close();
-
         } catch (IOException e) {
             e.printStackTrace();
         }
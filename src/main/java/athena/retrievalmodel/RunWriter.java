@@ -0,0 +1,60 @@
+package athena.retrievalmodel;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormat;
+
+/**
+ * Writes the TREC run lines of one query, and its snippet records when a snippet file is given. Each file is opened
+ * once and the records go through a buffer that is only flushed when it is full and on close, so a query costs one
+ * open per file whatever the number of results.
+ * <p>
+ * The run file is written anew, also when there are no results. Snippets are appended to the snippet file, which is
+ * opened with the first snippet.
+ */
+public class RunWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String snippetFile;
+    private final DecimalFormat numberFormat = new DecimalFormat("#.000");
+    private final Writer runWriter;
+    private Writer snippetWriter;
+
+    // The snippet file may be null when no snippets are written
+    public RunWriter(String runFile, String snippetFile) throws IOException {
+        this.snippetFile = snippetFile;
+        this.runWriter = open(runFile, false);
+    }
+
+    public void writeResult(Integer queryID, String documentName, int rank, double score, String model)
+            throws IOException {
+        runWriter.write(queryID + " Q0 " + documentName + " " + rank + " " + numberFormat.format(score) +
+                " Athena[" + model + "]\n");
+    }
+
+    public void writeSnippet(String documentName, String snippet) throws IOException {
+        if (snippetWriter == null) {
+            snippetWriter = open(snippetFile, true);
+        }
+        snippetWriter.write(documentName + "\n" + snippet + "\n\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            runWriter.close();
+        } finally {
+            if (snippetWriter != null) {
+                snippetWriter.close();
+            }
+        }
+    }
+
+    private Writer open(String file, boolean append) throws IOException {
+        return new BufferedWriter(new FileWriter(file, append), BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,84 @@
+package athena.retrievalmodel;
+
+/**
+ * Per query score accumulator indexed by docId. Remembers which documents were scored so that only those are
+ * visited when the ranking is built.
+ */
+public class ScoreAccumulator {
+
+    private static final ThreadLocal<ScoreAccumulator> THREAD_ACCUMULATORS = new ThreadLocal<>();
+
+    private double[] scores;
+    private boolean[] scored;
+    private int[] docIds;
+    private int size;
+
+    public ScoreAccumulator(int documentCount) {
+        scores = new double[documentCount];
+        scored = new boolean[documentCount];
+        docIds = new int[documentCount];
+    }
+
+    // Empty accumulator of the calling thread, the arrays are only allocated again when the document count changes.
+    // It is cleared by the next call on the thread, so it must not be used beyond the query
+    public static ScoreAccumulator forCurrentThread(int documentCount) {
+        ScoreAccumulator accumulator = THREAD_ACCUMULATORS.get();
+        if (accumulator == null || accumulator.scores.length != documentCount) {
+            accumulator = new ScoreAccumulator(documentCount);
+            THREAD_ACCUMULATORS.set(accumulator);
+        } else {
+            accumulator.clear();
+        }
+        return accumulator;
+    }
+
+    // Resets only the scored documents
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            scores[docIds[i]] = 0;
+            scored[docIds[i]] = false;
+        }
+        size = 0;
+    }
+
+    public void add(int docId, double value) {
+        if (!scored[docId]) {
+            scored[docId] = true;
+            docIds[size++] = docId;
+        }
+        scores[docId] += value;
+    }
+
+    // Multiplies the scores of all scored documents
+    public void scale(double factor) {
+        for (int i = 0; i < size; i++) {
+            scores[docIds[i]] *= factor;
+        }
+    }
+
+    public double getScore(int docId) {
+        return scores[docId];
+    }
+
+    public boolean isScored(int docId) {
+        return scored[docId];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Collector holding the k best scored documents
+    public TopKCollector getTopK(int k) {
+        TopKCollector collector = new TopKCollector(Math.min(k, size));
+        collect(collector);
+        return collector;
+    }
+
+    // Offers every scored document to the collector
+    public void collect(TopKCollector collector) {
+        for (int i = 0; i < size; i++) {
+            collector.collect(docIds[i], scores[docIds[i]]);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package athena.retrievalmodel;
+
+/**
+ * Score of one query term for a posting. It has to grow with the frequency and shrink with the document length, so
+ * that the block maxima of the postings bound it.
+ */
+public interface TermScorer {
+    double score(int frequency, int documentLength);
+}
@@ -1,13 +1,15 @@
 package athena.retrievalmodel;
 
-import athena.index.InvertedIndexer;
+import athena.index.IndexSnapshot;
+import athena.index.PostingsList;
+import athena.index.SnapshotManager;
+import athena.snippetgeneration.SnippetService;
 import athena.utils.CommonUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
 import java.io.File;
 import java.util.HashMap;
-import java.util.Set;
 
 /**
  * Created by Pallav on 4/8/2017.
@@ -16,88 +18,109 @@ import java.util.Set;
 public class TfIdf implements RetrievalModel {
 
     @Autowired
-    private InvertedIndexer invertedIndexer;
+    private SnapshotManager snapshotManager;
     @Autowired
     private CommonUtils commonUtils;
+    @Autowired
+    private QueryResultCache queryResultCache;
+    @Autowired
+    private SnippetService snippetService;
 
     @Value("${search.engine.name}")
     private String searchEngineName;
     @Value("${search.engine.ngrams}")
     private Integer nGrams;
+    @Value("${search.engine.query.proximity.window}")
+    private Integer proximityWindow;
     @Value("${search.engine.print.size}")
     private Integer printSize;
     @Value("${search.engine.enable.snippet}")
     private Boolean genSnippet;
 
-    private HashMap<String, Double> tfIdfMap = new HashMap<>();
-    private HashMap<String, HashMap<String, Integer>> index;
-    private HashMap<String, Integer> tokenCountMap;
-
-    private HashMap<String, Double> calculateTfIdf(String query) {
+    // Term at a time over the postings of the query terms, the scores of one query never outlive the call
+    private ScoreAccumulator calculateTfIdf(IndexSnapshot indexSnapshot, String query) {
         HashMap<String, Integer> queryTerms = RetrievalModels.getQueryMap(query, nGrams);
-        Set<String> queries = queryTerms.keySet();
-        Set<String> docs = tokenCountMap.keySet();
-        Integer totalDocumentSize = tokenCountMap.size();
-        for (String s : docs) {                       //Document name
-            double tfIdfScore = 0;
-            for (String q : queries) {
-                double tf = calculateTf(q, s);
-                double idf = calculateIdf(q, totalDocumentSize);
-                tfIdfScore += tf * idf;
-            }
+        ScoreAccumulator tfIdfScores = ScoreAccumulator.forCurrentThread(indexSnapshot.getMaxDoc());
+        for (String q : queryTerms.keySet()) {
+            addTermScores(indexSnapshot, tfIdfScores, q, 1);
+        }
+        return tfIdfScores;
+    }
+
+    @Override
+    public ScoreAccumulator getScores(IndexSnapshot indexSnapshot, String query, Integer queryID) {
+        return calculateTfIdf(indexSnapshot, RetrievalModels.normalizeQuery(query, nGrams));
+    }
+
+    @Override
+    public void addTermScores(IndexSnapshot indexSnapshot, ScoreAccumulator scores, String term, double weight) {
+        // the tf is taken from the lower cased term and the idf from the term as it is
+        PostingsList postings = RetrievalModels.getPostings(indexSnapshot, term.toLowerCase(), proximityWindow);
+        if (postings == null) {
+            return;
+        }
+        double idf = calculateIdf(term.equals(term.toLowerCase()) ? postings :
+                RetrievalModels.getPostings(indexSnapshot, term, proximityWindow), indexSnapshot.getDocumentCount());
+        for (int i = 0; i < postings.size(); i++) {
+            double tfIdfScore = weight * calculateTf(indexSnapshot, postings, i) * idf;
+            // documents without any score are left out of the ranking
             if (tfIdfScore != 0) {
-                tfIdfMap.put(s, tfIdfScore);
+                scores.add(postings.getDocIds()[i], tfIdfScore);
             }
         }
-        return RetrievalModels.sortBM(tfIdfMap);
     }
 
-    private double calculateTf(String queryTerm, String docId) {
+    private double calculateTf(IndexSnapshot indexSnapshot, PostingsList postings, int position) {
         // Number of times a term appears in a document
-        HashMap<String, Integer> integerHashMap = index.get(queryTerm.toLowerCase());
-        if (integerHashMap == null) {
-            return 0;
-        }
-        if (integerHashMap.containsKey(docId)) {
-            double num = index.get(queryTerm.toLowerCase()).get(docId);
-            // Total number of terms in a document
-            double totalTerms = tokenCountMap.get(docId);
-            if (totalTerms == 0) {
-                return 0;
-            } else return num / totalTerms;
-        } else {
+        double num = postings.getFrequencies()[position];
+        // Total number of terms in a document
+        double totalTerms = indexSnapshot.getDocumentLength(postings.getDocIds()[position]);
+        if (totalTerms == 0) {
             return 0;
-        }
+        } else return num / totalTerms;
     }
 
-    private double calculateIdf(String queryTerm, Integer totalDocumentCount) {
+    private double calculateIdf(PostingsList postings, Integer totalDocumentCount) {
         // number of docs with term t in it
-        if (index.containsKey(queryTerm)) {
-            double num = index.get(queryTerm).size();
-            if (num == 0) {
-                return 0;
-            } else return Math.log(totalDocumentCount / num);
-        } else return 0;
+        if (postings == null) {
+            return 0;
+        }
+        double num = postings.size();
+        return Math.log(totalDocumentCount / num);
     }
 
     @Override
     public HashMap<String, Double> getRanking(String query, Integer queryID) {
-        setIndexAndTokenMap();
-        return calculateTfIdf(query);
+        return getRanking(query, queryID, Integer.MAX_VALUE);
     }
 
     @Override
-    public String getModelName() {
-        return "Tf-idf";
+    public HashMap<String, Double> getRanking(String query, Integer queryID, int k) {
+        try (Ranking ranking = getTopK(query, queryID, k)) {
+            return ranking.toMap();
+        }
     }
 
-    private void setIndexAndTokenMap() {
-        index = invertedIndexer.readIndexFromJsonFile();
-        tokenCountMap = invertedIndexer.readTokenCountToJsonFile();
+    @Override
+    public Ranking getTopK(String query, Integer queryID, int k) {
+        String normalizedQuery = RetrievalModels.normalizeQuery(query, nGrams);
+        String key = getModelName() + "|" + nGrams + "|" + proximityWindow + "|" + k + "|" + normalizedQuery;
+        IndexSnapshot indexSnapshot = snapshotManager.acquire();
+        try {
+            return queryResultCache.getRanking(key, indexSnapshot.getVersion(), () ->
+                    new Ranking(calculateTfIdf(indexSnapshot, normalizedQuery).getTopK(k), indexSnapshot)).retain();
+        } finally {
+            snapshotManager.release(indexSnapshot);
+        }
+    }
+
+    @Override
+    public String getModelName() {
+        return "Tf-idf";
     }
 
     @Override
-    public void printN(HashMap<String, Double> hashMap, Integer queryID, String query) {
+    public void printN(Ranking ranking, Integer queryID, String query) {
         String fs = File.separator;
         String folderName = commonUtils.getOutputPath() + fs + searchEngineName + fs;
         commonUtils.verifyFolder(folderName);
@@ -107,7 +130,7 @@ public class TfIdf implements RetrievalModel {
         }
         String filePath = folderName + queryID + ".txt";
 
-        RetrievalModels.printN(hashMap, queryID, filePath, getModelName(),
-                printSize, query, genSnippet);
+        RetrievalModels.printN(ranking, queryID, filePath, getModelName(),
+                printSize, query, genSnippet ? snippetService : null);
     }
 }
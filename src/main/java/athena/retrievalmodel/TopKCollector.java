@@ -0,0 +1,103 @@
+package athena.retrievalmodel;
+
+/**
+ * Keeps the k best (id, score) pairs seen so far in a min-heap of primitive arrays, the root is the weakest kept
+ * pair and is replaced when a better one comes in. Selecting k out of n costs O(n log k) and nothing is boxed.
+ * Higher scores are better, equal scores are ordered by ascending id.
+ */
+public class TopKCollector {
+
+    private final int[] ids;
+    private final double[] scores;
+    private int size;
+
+    public TopKCollector(int k) {
+        ids = new int[Math.max(k, 0)];
+        scores = new double[Math.max(k, 0)];
+    }
+
+    public void collect(int id, double score) {
+        if (size < ids.length) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (size > 0 && better(id, score, ids[0], scores[0])) {
+            ids[0] = id;
+            scores[0] = score;
+            siftDown(0, size);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Lowest score a new pair has to beat once the collector is full, negative infinity before
+    public double getThreshold() {
+        return size < ids.length ? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+    // Kept ids ordered best first. Empties the collector, the scores are returned through the given array
+    public int[] drain(double[] sortedScores) {
+        int count = size;
+        int[] sortedIds = new int[count];
+        // popping the root moves the weakest pair behind the heap, which leaves the arrays sorted best first
+        while (size > 0) {
+            int last = --size;
+            swap(0, last);
+            siftDown(0, size);
+        }
+        for (int i = 0; i < count; i++) {
+            sortedIds[i] = ids[i];
+            if (sortedScores != null) {
+                sortedScores[i] = scores[i];
+            }
+        }
+        return sortedIds;
+    }
+
+    private static boolean better(int id, double score, int otherId, double otherScore) {
+        return score > otherScore || (score == otherScore && id < otherId);
+    }
+
+    private boolean better(int i, int j) {
+        return better(ids[i], scores[i], ids[j], scores[j]);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!better(parent, i)) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int end) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= end) {
+                return;
+            }
+            if (child + 1 < end && better(child, child + 1)) {
+                child++;
+            }
+            if (!better(i, child)) {
+                return;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}
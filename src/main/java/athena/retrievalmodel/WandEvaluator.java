@@ -0,0 +1,92 @@
+package athena.retrievalmodel;
+
+import java.util.List;
+
+/**
+ * Document-at-a-time top k evaluation with WAND pivoting. The cursors are kept sorted by docId and the pivot is the
+ * first document whose preceding term upper bounds add up to more than the lowest score in the collector, every
+ * document before it is skipped without being scored. Block-Max WAND also checks the bounds of the blocks around the
+ * pivot and skips to the end of the shortest block when they can not beat the collector either.
+ * <p>
+ * Documents are visited in docId order, so a later document with the same score as the weakest collected one never
+ * makes it in and is skipped as well. The results are the same as scoring every posting.
+ */
+public class WandEvaluator {
+
+    private WandEvaluator() {
+    }
+
+    // Collects the best documents of the cursors, which are given in query term order, and returns the number of
+    // postings scored. A document score adds up its terms in that order, like the term-at-a-time accumulator
+    public static long evaluate(List<PostingsCursor> cursors, TopKCollector collector, boolean blockMax) {
+        PostingsCursor[] sorted = cursors.toArray(new PostingsCursor[0]);
+        long scoredPostings = 0;
+        while (true) {
+            sortByDocId(sorted);
+            double threshold = collector.getThreshold();
+            double bound = 0;
+            int pivot = -1;
+            for (int i = 0; i < sorted.length && sorted[i].docId() != PostingsCursor.NO_MORE_DOCS; i++) {
+                bound += sorted[i].getUpperBound();
+                if (bound > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot == -1) {
+                return scoredPostings;
+            }
+            int pivotDoc = sorted[pivot].docId();
+            while (pivot + 1 < sorted.length && sorted[pivot + 1].docId() == pivotDoc) {
+                pivot++;
+            }
+            if (blockMax) {
+                // the later cursors are all beyond next, so up to it only the blocks of the first ones can score
+                int next = pivot + 1 < sorted.length ? sorted[pivot + 1].docId() : PostingsCursor.NO_MORE_DOCS;
+                double blockBound = 0;
+                for (int i = 0; i <= pivot; i++) {
+                    sorted[i].shallowAdvance(pivotDoc);
+                    blockBound += sorted[i].getBlockUpperBound();
+                    next = Math.min(next, sorted[i].getBlockLastDocId() + 1);
+                }
+                if (blockBound <= threshold) {
+                    for (int i = 0; i <= pivot; i++) {
+                        sorted[i].advance(next);
+                    }
+                    continue;
+                }
+            }
+            if (sorted[0].docId() == pivotDoc) {
+                double score = 0;
+                for (PostingsCursor cursor : cursors) {
+                    if (cursor.docId() == pivotDoc) {
+                        score += cursor.score();
+                        scoredPostings++;
+                    }
+                }
+                collector.collect(pivotDoc, score);
+                for (int i = 0; i <= pivot; i++) {
+                    sorted[i].next();
+                }
+            } else {
+                for (int i = 0; sorted[i].docId() < pivotDoc; i++) {
+                    sorted[i].advance(pivotDoc);
+                }
+            }
+        }
+    }
+
+    // Insertion sort, queries have a handful of terms and the order barely changes between steps
+    private static void sortByDocId(PostingsCursor[] cursors) {
+        for (int i = 1; i < cursors.length; i++) {
+            PostingsCursor cursor = cursors[i];
+            int docId = cursor.docId();
+            int j = i - 1;
+            while (j >= 0 && cursors[j].docId() > docId) {
+                cursors[j + 1] = cursors[j];
+                j--;
+            }
+            cursors[j + 1] = cursor;
+        }
+    }
+}
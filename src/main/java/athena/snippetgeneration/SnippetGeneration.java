@@ -1,14 +1,19 @@
 package athena.snippetgeneration;
 
+import athena.index.Passages;
 import athena.utils.CommonUtils;
 import athena.utils.SearchEngineUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static athena.retrievalmodel.RetrievalModels.sortBM;
 
@@ -45,16 +50,107 @@ public class SnippetGeneration {
 //
 //    }
 
+    private static final int SNIPPET_PASSAGES = 4;
+
+    // Loaded once, on the first snippet from the passage index
+    private static class StopWords {
+        private static final Set<String> WORDS = new HashSet<>(SearchEngineUtils.getStopWords());
+    }
+
     public String thisSnippet(String docName, String query){
+        return thisSnippet(docName, null, query);
+    }
+
+    // Picks the passages from the passage index. A passage scores the square of its query term occurrences over its
+    // word count, the best four are shown best first with the query terms upper cased. Equal scores keep the document
+    // order. Without passages the lines of the document are scored instead
+    public String thisSnippet(String docName, String document, Passages passages, String query) {
+        if (document == null || passages == null) {
+            return thisSnippet(docName, document, query);
+        }
+        int[] queryOrdinals = new int[0];
+        for (String word : query.split(" ")) {
+            if (!word.isEmpty() && !StopWords.WORDS.contains(word)) {
+                int ordinal = passages.getTermOrdinal(word);
+                if (ordinal != -1) {
+                    queryOrdinals = Arrays.copyOf(queryOrdinals, queryOrdinals.length + 1);
+                    queryOrdinals[queryOrdinals.length - 1] = ordinal;
+                }
+            }
+        }
+        double[] scores = new double[passages.size()];
+        for (int p = 0; p < passages.size(); p++) {
+            int hits = 0;
+            for (int o = passages.getOccurrenceStart(p); o < passages.getOccurrenceEnd(p); o++) {
+                if (contains(queryOrdinals, passages.getTermOrdinal(o))) {
+                    hits++;
+                }
+            }
+            scores[p] = (double) hits * hits / passages.getWordCount(p);
+        }
+
+        StringBuilder snippet = new StringBuilder();
+        boolean[] shown = new boolean[passages.size()];
+        int count = Math.min(SNIPPET_PASSAGES, passages.size());
+        for (int i = 0; i < count; i++) {
+            int best = -1;
+            for (int p = 0; p < passages.size(); p++) {
+                if (!shown[p] && (best == -1 || scores[p] > scores[best])) {
+                    best = p;
+                }
+            }
+            shown[best] = true;
+            appendPassage(snippet, document, passages, best, queryOrdinals);
+        }
+        if (count == SNIPPET_PASSAGES) {
+            snippet.append("\n");
+        }
+        return snippet.toString();
+    }
+
+    // The words of the passage as in the line snippets, without commas and dots and each followed by a space
+    private void appendPassage(StringBuilder snippet, String document, Passages passages, int passage,
+                               int[] queryOrdinals) {
+        int start = passages.getStart(passage);
+        String[] words = document.substring(start, start + passages.getLength(passage)).replace(",", "")
+                .replace(".", "").split(" ");
+        boolean[] matched = new boolean[words.length];
+        for (int o = passages.getOccurrenceStart(passage); o < passages.getOccurrenceEnd(passage); o++) {
+            if (contains(queryOrdinals, passages.getTermOrdinal(o))) {
+                matched[passages.getPosition(o)] = true;
+            }
+        }
+        for (int i = 0; i < words.length; i++) {
+            snippet.append(matched[i] ? words[i].toUpperCase() : words[i]).append(' ');
+        }
+        snippet.append('\n');
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The document comes from the document store of the index, the source file is only read when it is null
+    public String thisSnippet(String docName, String document, String query){
         String[] queryArray = query.split(" ");
         query = SearchEngineUtils.stoppedText(query);
         //System.out.println(query);
         //query = commonUtils.stoppedText(query);
         //System.out.println(query);
         //System.exit(1);
-        String filePath = commonUtils.getResourcePath() +
-                "\\cacm\\" + docName + ".html";
-        List<String> lines = commonUtils.getLinesFromFile(filePath);
+        List<String> lines;
+        if (document != null) {
+            lines = new BufferedReader(new StringReader(document)).lines().collect(Collectors.toList());
+        } else {
+            String filePath = commonUtils.getResourcePath() +
+                    "\\cacm\\" + docName + ".html";
+            lines = commonUtils.getLinesFromFile(filePath);
+        }
         HashMap<String, Double> sigMap = new HashMap<>();
         for(int i=0; i<lines.size(); i++) {
             String thisLine = lines.get(i);
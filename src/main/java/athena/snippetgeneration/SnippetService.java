@@ -0,0 +1,169 @@
+package athena.snippetgeneration;
+
+import athena.retrievalmodel.Ranking;
+import athena.retrievalmodel.RetrievalModels;
+import athena.utils.TinyLfuCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Makes the snippets of the results that are shown, the first page of a ranking, apart from ranking the query. The
+ * snippets of a page are made in parallel on a fixed pool of threads and the query waits for them at most the time
+ * budget, counted from before the first snippet is submitted, and a snippet not done by then is given up. When the
+ * queue of the pool is full the snippet is left empty, so a burst of queries neither piles up work nor makes the
+ * query threads produce snippets themselves.
+ * <p>
+ * A snippet task holds a reference on the snapshot of the ranking until it is done, so it can still read the
+ * documents after the query printed its results. Tasks of a page given up skip their snippet.
+ * <p>
+ * Snippets are cached by docId and the query with its spacing normalized. DocIds only hold within one index version,
+ * the cache is emptied when a ranking of another version asks for snippets.
+ */
+@Component
+public class SnippetService {
+
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private final SnippetGeneration snippetGeneration = new SnippetGeneration();
+    private ThreadPoolExecutor executor;
+    private int snippetCount;
+    private long timeBudget;
+    private TinyLfuCache<String, String> cache;
+    private long indexVersion = -1;
+
+    @Value("${search.engine.snippet.count}")
+    public void setSnippetCount(int snippetCount) {
+        this.snippetCount = snippetCount;
+    }
+
+    public int getSnippetCount() {
+        return snippetCount;
+    }
+
+    // 0 threads uses one thread per available core
+    @Value("${search.engine.snippet.threads}")
+    public synchronized void setThreads(int threads) {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "snippet-generator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Milliseconds a query waits for its snippets, 0 waits until all are made
+    @Value("${search.engine.snippet.time.budget}")
+    public void setTimeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    // Number of snippets kept, 0 turns the cache off
+    @Value("${search.engine.snippet.cache.size}")
+    public synchronized void setCacheSize(int cacheSize) {
+        cache = cacheSize > 0 ? new TinyLfuCache<>(cacheSize, cacheSize) : null;
+    }
+
+    public synchronized TinyLfuCache<String, String> getCache() {
+        return cache;
+    }
+
+    // Snippets of the first results of the ranking in rank order, null for a snippet not made within the time budget
+    // or rejected by a full queue
+    public String[] getSnippets(Ranking ranking, String query) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeBudget);
+        String normalizedQuery = RetrievalModels.normalizeQuery(query, 1);
+        TinyLfuCache<String, String> snippets = getCache(ranking.getIndexVersion());
+        String[] page = new String[Math.min(snippetCount, ranking.size())];
+        List<Future<String>> futures = new ArrayList<>();
+        AtomicBoolean givenUp = new AtomicBoolean();
+        for (int rank = 0; rank < page.length; rank++) {
+            page[rank] = snippets == null ? null : snippets.get(getKey(ranking, rank, normalizedQuery));
+            futures.add(page[rank] != null ? null : submit(ranking, rank, normalizedQuery, givenUp));
+        }
+
+        for (int rank = 0; rank < page.length; rank++) {
+            Future<String> future = futures.get(rank);
+            if (future == null) {
+                continue;
+            }
+            try {
+                page[rank] = timeBudget > 0 ? future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) :
+                        future.get();
+                put(snippets, ranking.getIndexVersion(), getKey(ranking, rank, normalizedQuery), page[rank]);
+            } catch (TimeoutException e) {
+                givenUp.set(true);
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                givenUp.set(true);
+                break;
+            }
+        }
+        return page;
+    }
+
+    // Null when the queue is full, the reference taken for the task is then given back at once
+    private Future<String> submit(Ranking ranking, int rank, String normalizedQuery, AtomicBoolean givenUp) {
+        Ranking retained = ranking.retain();
+        try {
+            return getExecutor().submit(newSnippetTask(retained, rank, normalizedQuery, givenUp));
+        } catch (RejectedExecutionException e) {
+            retained.close();
+            return null;
+        }
+    }
+
+    // Not cancelled but skipped once the page is given up, so the reference it holds is always given back
+    private Callable<String> newSnippetTask(Ranking ranking, int rank, String normalizedQuery,
+                                            AtomicBoolean givenUp) {
+        return () -> {
+            try (Ranking retained = ranking) {
+                if (givenUp.get()) {
+                    return null;
+                }
+                return snippetGeneration.thisSnippet(retained.getDocumentName(rank), retained.getDocument(rank),
+                        retained.getPassages(rank), normalizedQuery);
+            }
+        };
+    }
+
+    private static String getKey(Ranking ranking, int rank, String normalizedQuery) {
+        return ranking.getDocId(rank) + "|" + normalizedQuery;
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    private synchronized TinyLfuCache<String, String> getCache(long version) {
+        if (cache != null && version != indexVersion) {
+            cache.invalidateAll();
+            indexVersion = version;
+        }
+        return cache;
+    }
+
+    // not kept if the index changed while the snippet was made
+    private synchronized void put(TinyLfuCache<String, String> snippets, long version, String key, String snippet) {
+        if (snippets != null && snippets == cache && version == indexVersion) {
+            snippets.put(key, snippet, 1);
+        }
+    }
+}
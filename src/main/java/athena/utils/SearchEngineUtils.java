@@ -54,11 +54,17 @@ public class SearchEngineUtils {
     }
 
     public static String cleanDocumentContent(String content, Boolean doCaseFold, Boolean doStopping, Integer noiseFactor) {
+        return cleanDocumentContent(content, doCaseFold, doStopping ? getStopWords() : null, noiseFactor);
+    }
+
+    // Stops with the given list, null does no stopping. TextAnalyzer takes its stop words the same way
+    public static String cleanDocumentContent(String content, Boolean doCaseFold, List<String> stopWords,
+                                              Integer noiseFactor) {
         if (doCaseFold) {
             content = caseFoldText(content);
         }
-        if (doStopping) {
-            content = stoppedText(content);
+        if (stopWords != null) {
+            content = stoppedText(content, stopWords);
         }
         for (int i = 0; i < noiseFactor; i++) {
             content = removeNoise(content);
@@ -89,7 +95,10 @@ public class SearchEngineUtils {
     }
 
     public static String stoppedText(String text) {
-        ArrayList<String> stopList = getStopWords();
+        return stoppedText(text, getStopWords());
+    }
+
+    public static String stoppedText(String text, List<String> stopList) {
         for (String stopWord : stopList) {
             text = text.replaceAll(" "+stopWord+" ", " ");
         }
@@ -0,0 +1,674 @@
+package athena.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Single pass, char level replacement for the regex cleaning of the number lines, kept as RegexCleaning.removeNumbers
+ * in the tests, and {@link SearchEngineUtils#cleanDocumentContent}. Every regex pass is rebuilt as a small streaming
+ * stage with the same leftmost, non-overlapping match semantics, and the stages are chained so each char of the
+ * document is scanned once. The tokens of the cleaned text are handed to a {@link TokenConsumer} straight from a
+ * reused buffer.
+ * <p>
+ * The output is the same as the regex cleaning, including the order dependent quirks of the stop word and noise
+ * passes, because the number of spaces left by one pass changes what the next one matches. An analyzer keeps its
+ * buffers between documents and is not thread safe, every indexing task uses its own.
+ */
+public class TextAnalyzer {
+
+    public interface TokenConsumer {
+        // Returns false once no more tokens are wanted
+        boolean accept(char[] buffer, int length);
+    }
+
+    private Stage head;
+    private TokenStage tokenStage = new TokenStage();
+    private List<Stage> stages = new ArrayList<>();
+
+    public TextAnalyzer(boolean removeNumbers, boolean doCaseFold, List<String> stopWords, int noiseFactor) {
+        if (removeNumbers) {
+            stages.add(new NumberLineStage());
+        }
+        if (doCaseFold) {
+            stages.add(new CaseFoldStage());
+        }
+        if (stopWords != null) {
+            stages.add(new StopWordStage(stopWords));
+        }
+        // SearchEngineUtils.removeNoise, one stage per replaceAll
+        for (int i = 0; i < noiseFactor; i++) {
+            stages.add(new BracketStage());
+            stages.add(new DotsAndHyphensStage());
+            stages.add(new PairStage('-'));
+            stages.add(new RunBeforeSpaceStage('.'));
+            stages.add(new RunBeforeSpaceStage('-'));
+            stages.add(new SpaceBeforeRunStage('-'));
+            stages.add(new SpaceBeforeRunStage('.'));
+            stages.add(new LeadingCharStage('-'));
+            stages.add(new LeadingCharStage('.'));
+            stages.add(new CharClassStage());
+            stages.add(new PairStage(' '));
+        }
+        stages.add(tokenStage);
+        for (int i = 0; i < stages.size() - 1; i++) {
+            stages.get(i).next = stages.get(i + 1);
+        }
+        head = stages.get(0);
+    }
+
+    // Feeds the tokens of the cleaned text to the consumer, returns false if the cleaned text is empty
+    public boolean analyze(CharSequence text, TokenConsumer consumer) {
+        return analyze(text, consumer, null);
+    }
+
+    // Same as analyze, also appends the cleaned text to the output when it is not null
+    public boolean analyze(CharSequence text, TokenConsumer consumer, StringBuilder output) {
+        for (Stage stage : stages) {
+            stage.reset();
+        }
+        tokenStage.consumer = consumer;
+        tokenStage.output = output;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            head.put(text.charAt(i));
+            if (tokenStage.stopped && output == null) {
+                return true;
+            }
+        }
+        head.end();
+        return tokenStage.outputLength > 0;
+    }
+
+    // Cleaned text as a string, for callers that still need the whole content
+    public String clean(CharSequence text) {
+        StringBuilder output = new StringBuilder(text.length() + 1);
+        analyze(text, (buffer, length) -> true, output);
+        return output.toString();
+    }
+
+    private abstract static class Stage {
+        Stage next;
+
+        abstract void put(char c);
+
+        void end() {
+            next.end();
+        }
+
+        void reset() {
+        }
+
+        void emit(char c, int count) {
+            for (int i = 0; i < count; i++) {
+                next.put(c);
+            }
+        }
+    }
+
+    // RegexCleaning.removeNumbers of the tests: lines made of digits and tabs only are dropped, every other line is
+    // followed by a space. Lines end at \n, \r or \r\n like BufferedReader.readLine
+    private static class NumberLineStage extends Stage {
+        private char[] pending = new char[64];
+        private int pendingLength;
+        private boolean lineStarted;
+        private boolean digitsOnly;
+        private boolean afterCarriageReturn;
+
+        @Override
+        void reset() {
+            pendingLength = 0;
+            lineStarted = false;
+            digitsOnly = true;
+            afterCarriageReturn = false;
+        }
+
+        @Override
+        void put(char c) {
+            if (c == '\n' && afterCarriageReturn) {
+                afterCarriageReturn = false;
+                return;
+            }
+            afterCarriageReturn = c == '\r';
+            if (c == '\n' || c == '\r') {
+                endLine();
+                return;
+            }
+            lineStarted = true;
+            if (!digitsOnly) {
+                next.put(c);
+            } else if ((c >= '0' && c <= '9') || c == '\t') {
+                if (pendingLength == pending.length) {
+                    pending = Arrays.copyOf(pending, pendingLength * 2);
+                }
+                pending[pendingLength++] = c;
+            } else {
+                digitsOnly = false;
+                for (int i = 0; i < pendingLength; i++) {
+                    next.put(pending[i]);
+                }
+                next.put(c);
+            }
+        }
+
+        private void endLine() {
+            // an empty line does not match [0-9\t]+ and is kept
+            if (!(lineStarted && digitsOnly)) {
+                next.put(' ');
+            }
+            pendingLength = 0;
+            lineStarted = false;
+            digitsOnly = true;
+        }
+
+        @Override
+        void end() {
+            if (lineStarted) {
+                endLine();
+            }
+            next.end();
+        }
+    }
+
+    // String.toLowerCase, which works on code points and turns the dotted capital I into two chars
+    private static class CaseFoldStage extends Stage {
+        private char highSurrogate;
+
+        @Override
+        void reset() {
+            highSurrogate = 0;
+        }
+
+        @Override
+        void put(char c) {
+            if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int codePoint = Character.toLowerCase(Character.toCodePoint(high, c));
+                    next.put(Character.highSurrogate(codePoint));
+                    next.put(Character.lowSurrogate(codePoint));
+                    return;
+                }
+                next.put(high);
+            }
+            if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (c == '\u0130') {
+                next.put('i');
+                next.put('\u0307');
+            } else {
+                next.put(Character.toLowerCase(c));
+            }
+        }
+
+        @Override
+        void end() {
+            if (highSurrogate != 0) {
+                next.put(highSurrogate);
+                highSurrogate = 0;
+            }
+            next.end();
+        }
+    }
+
+    // SearchEngineUtils.stoppedText, replaceAll(" " + stopWord + " ", " ") once per stop word in list order. Splitting
+    // the text at every space, a word is removed by a pass unless it is the first or last one, or the word right
+    // before it in that pass was removed by the same pass and took the space in between
+    private static class StopWordStage extends Stage {
+        private HashMap<String, int[]> passes = new HashMap<>();
+        private List<Pattern> patterns = new ArrayList<>();
+        private List<Integer> patternPasses = new ArrayList<>();
+        private int maxLength;
+        private char[] word = new char[32];
+        private int wordLength;
+        private boolean firstWord;
+        // pass that removed each of the words directly before the current one, up to the last word kept
+        private int[] removedPasses = new int[16];
+        private int removedCount;
+        private int[] candidates = new int[4];
+
+        StopWordStage(List<String> stopWords) {
+            for (int pass = 0; pass < stopWords.size(); pass++) {
+                String stopWord = stopWords.get(pass);
+                if (stopWord.matches("[0-9A-Za-z'\\-]*")) {
+                    int[] wordPasses = passes.get(stopWord);
+                    wordPasses = wordPasses == null ? new int[1] : Arrays.copyOf(wordPasses, wordPasses.length + 1);
+                    wordPasses[wordPasses.length - 1] = pass;
+                    passes.put(stopWord, wordPasses);
+                    maxLength = Math.max(maxLength, stopWord.length());
+                } else {
+                    patterns.add(Pattern.compile(stopWord));
+                    patternPasses.add(pass);
+                }
+            }
+        }
+
+        @Override
+        void reset() {
+            wordLength = 0;
+            firstWord = true;
+            removedCount = 0;
+        }
+
+        @Override
+        void put(char c) {
+            if (c != ' ') {
+                if (wordLength == word.length) {
+                    word = Arrays.copyOf(word, wordLength * 2);
+                }
+                word[wordLength++] = c;
+                return;
+            }
+            int removedPass = firstWord ? -1 : getRemovedPass();
+            if (removedPass == -1) {
+                for (int i = 0; i < wordLength; i++) {
+                    next.put(word[i]);
+                }
+                next.put(' ');
+                removedCount = 0;
+            } else {
+                if (removedCount == removedPasses.length) {
+                    removedPasses = Arrays.copyOf(removedPasses, removedCount * 2);
+                }
+                removedPasses[removedCount++] = removedPass;
+            }
+            firstWord = false;
+            wordLength = 0;
+        }
+
+        // First pass removing the current word, -1 if it is kept
+        private int getRemovedPass() {
+            int candidateCount = 0;
+            if (wordLength <= maxLength) {
+                int[] wordPasses = passes.get(new String(word, 0, wordLength));
+                if (wordPasses != null) {
+                    candidates = Arrays.copyOf(wordPasses, Math.max(wordPasses.length, candidates.length));
+                    candidateCount = wordPasses.length;
+                }
+            }
+            if (!patterns.isEmpty()) {
+                String text = new String(word, 0, wordLength);
+                for (int i = 0; i < patterns.size(); i++) {
+                    if (patterns.get(i).matcher(text).matches()) {
+                        if (candidateCount == candidates.length) {
+                            candidates = Arrays.copyOf(candidates, candidateCount * 2);
+                        }
+                        candidates[candidateCount++] = patternPasses.get(i);
+                    }
+                }
+                Arrays.sort(candidates, 0, candidateCount);
+            }
+            for (int c = 0; c < candidateCount; c++) {
+                int pass = candidates[c];
+                // words removed by earlier passes are gone by this one
+                int before = removedCount - 1;
+                while (before >= 0 && removedPasses[before] < pass) {
+                    before--;
+                }
+                if (before < 0 || removedPasses[before] != pass) {
+                    return pass;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        void end() {
+            for (int i = 0; i < wordLength; i++) {
+                next.put(word[i]);
+            }
+            next.end();
+        }
+    }
+
+    // \[[0-9]\w{0,3}\] -> " "
+    private static class BracketStage extends Stage {
+        private char[] buffer = new char[5];
+        private int length;
+
+        @Override
+        void reset() {
+            length = 0;
+        }
+
+        @Override
+        void put(char c) {
+            if (length == 0) {
+                if (c == '[') {
+                    buffer[length++] = c;
+                } else {
+                    next.put(c);
+                }
+            } else if (length == 1 ? c >= '0' && c <= '9' : length < 5 && isWordChar(c)) {
+                buffer[length++] = c;
+            } else if (length > 1 && c == ']') {
+                length = 0;
+                next.put(' ');
+            } else {
+                // no match can start inside the buffer, it holds no other '['
+                flush();
+                put(c);
+            }
+        }
+
+        private static boolean isWordChar(char c) {
+            return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+        }
+
+        private void flush() {
+            for (int i = 0; i < length; i++) {
+                next.put(buffer[i]);
+            }
+            length = 0;
+        }
+
+        @Override
+        void end() {
+            flush();
+            next.end();
+        }
+    }
+
+    // (\.+ )|(\-+ )|( -+)|( \.+)|(^-)|(^\.) -> " "
+    private static class DotsAndHyphensStage extends Stage {
+        private static final int NONE = 0;
+        private static final int RUN = 1;
+        private static final int SPACE = 2;
+        private static final int SPACE_RUN = 3;
+
+        private int state;
+        private char runChar;
+        private int runLength;
+        private boolean runAtStart;
+        private boolean atStart;
+
+        @Override
+        void reset() {
+            state = NONE;
+            atStart = true;
+        }
+
+        @Override
+        void put(char c) {
+            boolean first = atStart;
+            atStart = false;
+            switch (state) {
+                case RUN:
+                    if (c == runChar) {
+                        runLength++;
+                        return;
+                    }
+                    state = NONE;
+                    if (c == ' ') {
+                        next.put(' ');
+                        return;
+                    }
+                    flushRun();
+                    break;
+                case SPACE:
+                    if (c == '-' || c == '.') {
+                        state = SPACE_RUN;
+                        runChar = c;
+                        return;
+                    }
+                    state = NONE;
+                    next.put(' ');
+                    break;
+                case SPACE_RUN:
+                    if (c == runChar) {
+                        return;
+                    }
+                    state = NONE;
+                    next.put(' ');
+                    break;
+                default:
+                    break;
+            }
+            if (c == '.' || c == '-') {
+                state = RUN;
+                runChar = c;
+                runLength = 1;
+                runAtStart = first;
+            } else if (c == ' ') {
+                state = SPACE;
+            } else {
+                next.put(c);
+            }
+        }
+
+        // A run not followed by a space only loses its first char at the start of the text
+        private void flushRun() {
+            if (runAtStart) {
+                next.put(' ');
+                emit(runChar, runLength - 1);
+            } else {
+                emit(runChar, runLength);
+            }
+        }
+
+        @Override
+        void end() {
+            if (state == RUN) {
+                flushRun();
+            } else if (state != NONE) {
+                next.put(' ');
+            }
+            state = NONE;
+            next.end();
+        }
+    }
+
+    // Two chars in a row -> " ", "--" and the final "  "
+    private static class PairStage extends Stage {
+        private char pairChar;
+        private boolean pending;
+
+        PairStage(char pairChar) {
+            this.pairChar = pairChar;
+        }
+
+        @Override
+        void reset() {
+            pending = false;
+        }
+
+        @Override
+        void put(char c) {
+            if (c == pairChar) {
+                if (pending) {
+                    pending = false;
+                    next.put(' ');
+                } else {
+                    pending = true;
+                }
+                return;
+            }
+            if (pending) {
+                pending = false;
+                next.put(pairChar);
+            }
+            next.put(c);
+        }
+
+        @Override
+        void end() {
+            if (pending) {
+                pending = false;
+                next.put(pairChar);
+            }
+            next.end();
+        }
+    }
+
+    // (\.+ ) and (\-+ ) -> " "
+    private static class RunBeforeSpaceStage extends Stage {
+        private char runChar;
+        private int runLength;
+
+        RunBeforeSpaceStage(char runChar) {
+            this.runChar = runChar;
+        }
+
+        @Override
+        void reset() {
+            runLength = 0;
+        }
+
+        @Override
+        void put(char c) {
+            if (c == runChar) {
+                runLength++;
+                return;
+            }
+            if (runLength > 0 && c == ' ') {
+                runLength = 0;
+                next.put(' ');
+                return;
+            }
+            emit(runChar, runLength);
+            runLength = 0;
+            next.put(c);
+        }
+
+        @Override
+        void end() {
+            emit(runChar, runLength);
+            runLength = 0;
+            next.end();
+        }
+    }
+
+    // ( -+) and ( \.+) -> " "
+    private static class SpaceBeforeRunStage extends Stage {
+        private char runChar;
+        private boolean pendingSpace;
+        private boolean inRun;
+
+        SpaceBeforeRunStage(char runChar) {
+            this.runChar = runChar;
+        }
+
+        @Override
+        void reset() {
+            pendingSpace = false;
+            inRun = false;
+        }
+
+        @Override
+        void put(char c) {
+            if (c == runChar && (pendingSpace || inRun)) {
+                pendingSpace = false;
+                inRun = true;
+                return;
+            }
+            if (pendingSpace || inRun) {
+                next.put(' ');
+            }
+            inRun = false;
+            pendingSpace = c == ' ';
+            if (!pendingSpace) {
+                next.put(c);
+            }
+        }
+
+        @Override
+        void end() {
+            if (pendingSpace || inRun) {
+                next.put(' ');
+            }
+            pendingSpace = false;
+            inRun = false;
+            next.end();
+        }
+    }
+
+    // (^-) and (^\.) -> " "
+    private static class LeadingCharStage extends Stage {
+        private char leadingChar;
+        private boolean atStart;
+
+        LeadingCharStage(char leadingChar) {
+            this.leadingChar = leadingChar;
+        }
+
+        @Override
+        void reset() {
+            atStart = true;
+        }
+
+        @Override
+        void put(char c) {
+            next.put(atStart && c == leadingChar ? ' ' : c);
+            atStart = false;
+        }
+    }
+
+    // ([^0-9a-zA-Z\.\- ]) -> " ", the regex replaces a surrogate pair by a single space
+    private static class CharClassStage extends Stage {
+        private boolean afterHighSurrogate;
+
+        @Override
+        void reset() {
+            afterHighSurrogate = false;
+        }
+
+        @Override
+        void put(char c) {
+            if (afterHighSurrogate && Character.isLowSurrogate(c)) {
+                afterHighSurrogate = false;
+                return;
+            }
+            afterHighSurrogate = Character.isHighSurrogate(c);
+            boolean keep = (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '.' ||
+                    c == '-' || c == ' ';
+            next.put(keep ? c : ' ');
+        }
+    }
+
+    // Splits the cleaned text at spaces, empty tokens are skipped like the empty strings of split(" ")
+    private static class TokenStage extends Stage {
+        private char[] token = new char[32];
+        private int tokenLength;
+        private int outputLength;
+        private boolean stopped;
+        private TokenConsumer consumer;
+        private StringBuilder output;
+
+        @Override
+        void reset() {
+            tokenLength = 0;
+            outputLength = 0;
+            stopped = false;
+        }
+
+        @Override
+        void put(char c) {
+            outputLength++;
+            if (output != null) {
+                output.append(c);
+            }
+            if (c == ' ') {
+                flush();
+            } else {
+                if (tokenLength == token.length) {
+                    token = Arrays.copyOf(token, tokenLength * 2);
+                }
+                token[tokenLength++] = c;
+            }
+        }
+
+        private void flush() {
+            if (tokenLength > 0 && !stopped) {
+                stopped = !consumer.accept(token, tokenLength);
+            }
+            tokenLength = 0;
+        }
+
+        @Override
+        void end() {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package athena.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache with W-TinyLFU eviction. New entries go into a small LRU window, the entry pushed out of the window
+ * only enters the main space if it has been asked for more often than the entry it would evict there, going by a
+ * count-min sketch of recent key frequencies. The main space is a segmented LRU, entries hit a second time move from
+ * probation to the protected segment. This keeps one-off keys from flushing out the frequently used ones.
+ * <p>
+ * Entries are weighed by the caller, the cache holds at most the maximum weight. All methods are synchronized.
+ */
+public class TinyLfuCache<K, V> {
+
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private static class Node<K, V> {
+        private final K key;
+        private V value;
+        private long weight;
+
+        private Node(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    // insertion ordered, the first entry of a segment is its least recently used one
+    private final LinkedHashMap<K, Node<K, V>> window = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Node<K, V>> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Node<K, V>> protectedSegment = new LinkedHashMap<>();
+    private final FrequencySketch sketch;
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public TinyLfuCache(long maximumWeight, int expectedEntries) {
+        this.maximumWeight = Math.max(maximumWeight, 0);
+        this.windowMaximum = Math.max(1, (long) (this.maximumWeight * WINDOW_SHARE));
+        this.protectedMaximum = (long) ((this.maximumWeight - windowMaximum) * PROTECTED_SHARE);
+        this.sketch = new FrequencySketch(Math.max(expectedEntries, 1));
+    }
+
+    public synchronized V get(K key) {
+        sketch.increment(key);
+        Node<K, V> node = window.remove(key);
+        if (node != null) {
+            window.put(key, node);
+        } else if ((node = probation.remove(key)) != null) {
+            probationWeight -= node.weight;
+            protectedSegment.put(key, node);
+            protectedWeight += node.weight;
+            demoteProtected();
+        } else if ((node = protectedSegment.remove(key)) != null) {
+            protectedSegment.put(key, node);
+        }
+        if (node == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return node.value;
+    }
+
+    public synchronized void put(K key, V value, long weight) {
+        if (weight > maximumWeight) {
+            return;
+        }
+        Node<K, V> node = window.get(key);
+        if (node == null) {
+            node = probation.get(key);
+        }
+        if (node == null) {
+            node = protectedSegment.get(key);
+        }
+        if (node != null) {
+            // replaced in place, the weights are rebalanced by evicting through the window
+            node.value = value;
+            long change = weight - node.weight;
+            node.weight = weight;
+            if (window.containsKey(key)) {
+                windowWeight += change;
+            } else if (probation.containsKey(key)) {
+                probationWeight += change;
+            } else {
+                protectedWeight += change;
+                demoteProtected();
+            }
+        } else {
+            window.put(key, new Node<>(key, value, weight));
+            windowWeight += weight;
+        }
+        evict();
+    }
+
+    public synchronized void invalidateAll() {
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+        windowWeight = 0;
+        probationWeight = 0;
+        protectedWeight = 0;
+    }
+
+    public synchronized long size() {
+        return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    public synchronized long weight() {
+        return windowWeight + probationWeight + protectedWeight;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    // Entries evicted from the main space plus window entries that were not admitted into it
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    // Moves the least recently used protected entries back to probation until the segment fits
+    private void demoteProtected() {
+        Iterator<Node<K, V>> iterator = protectedSegment.values().iterator();
+        while (protectedWeight > protectedMaximum && iterator.hasNext()) {
+            Node<K, V> node = iterator.next();
+            iterator.remove();
+            protectedWeight -= node.weight;
+            probation.put(node.key, node);
+            probationWeight += node.weight;
+        }
+    }
+
+    private void evict() {
+        Iterator<Node<K, V>> windowIterator = window.values().iterator();
+        while (windowWeight > windowMaximum && windowIterator.hasNext()) {
+            Node<K, V> candidate = windowIterator.next();
+            windowIterator.remove();
+            windowWeight -= candidate.weight;
+            admit(candidate);
+        }
+        // a heavier replacement can leave the main space over its share
+        while (weight() > maximumWeight) {
+            Node<K, V> victim = removeVictim();
+            if (victim == null) {
+                break;
+            }
+            evictionCount++;
+        }
+    }
+
+    // Puts the candidate on probation if it fits or is used more often than the entries it has to push out
+    private void admit(Node<K, V> candidate) {
+        int candidateFrequency = sketch.frequency(candidate.key);
+        while (windowWeight + probationWeight + protectedWeight + candidate.weight > maximumWeight) {
+            Node<K, V> victim = peekVictim();
+            if (victim == null || sketch.frequency(victim.key) >= candidateFrequency) {
+                evictionCount++;
+                return;
+            }
+            removeVictim();
+            evictionCount++;
+        }
+        probation.put(candidate.key, candidate);
+        probationWeight += candidate.weight;
+    }
+
+    private Node<K, V> peekVictim() {
+        if (!probation.isEmpty()) {
+            return probation.values().iterator().next();
+        }
+        if (!protectedSegment.isEmpty()) {
+            return protectedSegment.values().iterator().next();
+        }
+        return null;
+    }
+
+    private Node<K, V> removeVictim() {
+        Node<K, V> victim = peekVictim();
+        if (victim == null) {
+            if (window.isEmpty()) {
+                return null;
+            }
+            victim = window.values().iterator().next();
+            window.remove(victim.key);
+            windowWeight -= victim.weight;
+        } else if (probation.remove(victim.key) != null) {
+            probationWeight -= victim.weight;
+        } else {
+            protectedSegment.remove(victim.key);
+            protectedWeight -= victim.weight;
+        }
+        return victim;
+    }
+
+    /**
+     * Count-min sketch of 4 bit counters, four to a key, spread over 64 bit words. All counters are halved once
+     * ten times as many increments as expected entries have been counted, so old popularity fades out.
+     */
+    private static class FrequencySketch {
+
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+                0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(int expectedEntries) {
+            int length = Integer.highestOneBit(Math.max(expectedEntries - 1, 1)) << 1;
+            table = new long[length];
+            tableMask = length - 1;
+            sampleSize = 10 * expectedEntries;
+        }
+
+        private int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                frequency = Math.min(frequency, (int) ((table[indexOf(hash, i)] >>> offsetOf(hash, i)) & 0xfL));
+            }
+            return frequency;
+        }
+
+        private void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = offsetOf(hash, i);
+                if (((table[index] >>> offset) & 0xfL) < 15) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & tableMask;
+        }
+
+        // each of the four counters of a key sits in its own quarter of the sixteen in a word
+        private int offsetOf(int hash, int i) {
+            return ((((hash >>> (i << 3)) & 3) << 2) + (i << 4)) & 63;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
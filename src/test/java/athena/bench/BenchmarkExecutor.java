@@ -0,0 +1,685 @@
+package athena.bench;
+
+import athena.execute.QueryBatchExecutor;
+import athena.index.IndexSnapshot;
+import athena.index.IndexWriter;
+import athena.index.InvertedIndexer;
+import athena.index.PostingsList;
+import athena.index.SnapshotManager;
+import athena.queryexpansion.PseudoRelevanceFeedback;
+import athena.retrievalmodel.BM25;
+import athena.retrievalmodel.QueryResultCache;
+import athena.retrievalmodel.Ranking;
+import athena.retrievalmodel.RetrievalModel;
+import athena.snippetgeneration.SnippetGeneration;
+import athena.snippetgeneration.SnippetService;
+import athena.utils.CommonUtils;
+import athena.utils.RegexCleaning;
+import athena.utils.SearchEngineUtils;
+import athena.utils.TextAnalyzer;
+import athena.utils.TinyLfuCache;
+import org.jsoup.Jsoup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Timings of the indexing and query paths over the CACM collection, run by hand with
+ * {@code mvn test-compile exec:java -Dexec.mainClass=athena.bench.BenchmarkExecutor -Dexec.classpathScope=test}.
+ * Only times, rates and effectiveness are printed, that the faster paths give the same results is asserted by the
+ * tests. Every setting a benchmark changes on the beans is set back when it ends.
+ */
+public class BenchmarkExecutor {
+    private static final int ANALYZER_ROUNDS = 5;
+    private static final String[] EVALUATIONS = {"exhaustive", "wand", "bmw", "maxscore"};
+    private static final int RETRIEVAL_ROUNDS = 5;
+    private static final int[] IMPACT_BUDGETS = {0, 4000, 2000, 1000, 500};
+    private static final int PRECISION_RANK = 10;
+    // The CACM query set is repeated to get a batch the size of a nightly evaluation
+    private static final int BATCH_REPEATS = 50;
+    private static final int BATCH_ID_STRIDE = 1000;
+    // A query log drawn with Zipf popularity from the CACM queries and made up queries of their words
+    private static final int LOG_QUERIES = 20000;
+    private static final int LOG_DISTINCT_QUERIES = 5000;
+    private static final double LOG_ZIPF_EXPONENT = 0.9;
+    private static final int[] CACHE_SIZES = {0, 100, 1000};
+    private static final int[] POSTINGS_CACHE_SIZES = {0, 1, 4, 16};
+
+    private Properties properties;
+    private ClassPathXmlApplicationContext context;
+    private CommonUtils commonUtils;
+
+    public BenchmarkExecutor() {
+        context = new ClassPathXmlApplicationContext("spring/bean.xml");
+        properties = (Properties) context.getBean("searchEngineProperties");
+        commonUtils = (CommonUtils) context.getBean("commonUtils");
+        // the rounds of the other benchmarks would only measure the cache
+        ((QueryResultCache) context.getBean("queryResultCache")).setMaximumSize(0);
+    }
+
+    public static void main(String[] args) {
+        BenchmarkExecutor executor = new BenchmarkExecutor();
+        try {
+            executor.benchmarkIndexing();
+            executor.benchmarkIncrementalIndexing();
+            executor.benchmarkAnalyzer();
+            executor.benchmarkRetrieval();
+            executor.benchmarkImpacts();
+            executor.benchmarkQueryExpansion();
+            executor.benchmarkQueryBatch();
+            executor.benchmarkResultCache();
+            executor.benchmarkPostingsCache();
+            executor.benchmarkDocumentStore();
+            executor.benchmarkSnippets();
+            executor.benchmarkSnippetPage();
+            executor.benchmarkRankingAllocation();
+        } finally {
+            executor.close();
+        }
+    }
+
+    // Sets the result cache back to its configured size and closes the context
+    public void close() {
+        ((QueryResultCache) context.getBean("queryResultCache")).setMaximumSize(getIntProperty(
+                "search.engine.query.cache.size"));
+        context.close();
+    }
+
+    // Rebuilds the index with 1, 2, 4 ... threads up to the core count and prints the wall-clock time of every build
+    public void benchmarkIndexing() {
+        InvertedIndexer indexer = (InvertedIndexer) context.getBean("invertedIndexer");
+        String inputFolder = commonUtils.getResourcePath() + properties.getProperty("search.engine.input.folder") +
+                File.separator;
+        int cores = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int threads = 1; threads <= cores; threads = threads * 2) {
+                indexer.setIndexThreads(threads);
+                long startTime = System.currentTimeMillis();
+                indexer.createIndex(inputFolder);
+                System.out.println("Threads : " + threads + ", Time : " + (System.currentTimeMillis() - startTime) +
+                        " ms");
+            }
+        } finally {
+            indexer.setIndexThreads(getIntProperty("search.engine.index.threads"));
+        }
+    }
+
+    // Times a full build against re-indexing a growing number of changed documents into a new segment
+    public void benchmarkIncrementalIndexing() {
+        InvertedIndexer indexer = (InvertedIndexer) context.getBean("invertedIndexer");
+        String inputFolder = commonUtils.getResourcePath() + properties.getProperty("search.engine.input.folder") +
+                File.separator;
+        File[] files = new File(inputFolder).listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        long startTime = System.currentTimeMillis();
+        indexer.createIndex(inputFolder);
+        System.out.println("Full build : " + files.length + " documents, " + (System.currentTimeMillis() - startTime) +
+                " ms");
+        for (int changed = 1; changed <= files.length; changed = changed * 10) {
+            startTime = System.currentTimeMillis();
+            indexer.addDocuments(Arrays.copyOf(files, changed));
+            System.out.println("Incremental : " + changed + " documents, " +
+                    (System.currentTimeMillis() - startTime) + " ms");
+        }
+        indexer.getSegmentManager().waitForMerges();
+    }
+
+    // Cleans the parsed text of every input document with the regex passes and with TextAnalyzer and prints the
+    // throughput of both. The first rounds include the JIT warm up
+    public void benchmarkAnalyzer() {
+        InvertedIndexer indexer = (InvertedIndexer) context.getBean("invertedIndexer");
+        Boolean doCaseFold = isEnabled("search.engine.enable.case.fold");
+        Boolean doStopping = isEnabled("search.engine.enable.stopping");
+        Integer noiseFactor = getIntProperty("search.engine.remove.noise.factor");
+        File[] files = indexer.getInputFolder().listFiles();
+        if (files == null) {
+            return;
+        }
+        List<String> texts = new ArrayList<>();
+        long totalChars = 0;
+        try {
+            for (File file : files) {
+                String text = Jsoup.parse(file, "UTF-8").text();
+                texts.add(text);
+                totalChars += text.length();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        for (int round = 1; round <= ANALYZER_ROUNDS; round++) {
+            System.out.print("Round " + round + " - ");
+            benchmarkAnalyzer(indexer.newAnalyzer(), texts, totalChars, doCaseFold, doStopping, noiseFactor);
+        }
+    }
+
+    private void benchmarkAnalyzer(TextAnalyzer analyzer, List<String> texts, long totalChars, Boolean doCaseFold,
+                                   Boolean doStopping, Integer noiseFactor) {
+        long tokenCount = 0;
+        long startTime = System.nanoTime();
+        for (String text : texts) {
+            String content = RegexCleaning.removeNumbers(text);
+            content = SearchEngineUtils.cleanDocumentContent(content, doCaseFold, doStopping, noiseFactor);
+            for (String token : content.split(" ")) {
+                tokenCount += token.isEmpty() ? 0 : 1;
+            }
+        }
+        long regexTime = System.nanoTime() - startTime;
+
+        long[] analyzerTokens = new long[1];
+        startTime = System.nanoTime();
+        for (String text : texts) {
+            analyzer.analyze(text, (buffer, length) -> {
+                analyzerTokens[0]++;
+                return true;
+            });
+        }
+        long analyzerTime = System.nanoTime() - startTime;
+
+        System.out.println("Regex : " + formatThroughput(totalChars, regexTime) + ", Analyzer : " +
+                formatThroughput(totalChars, analyzerTime) + ", Tokens : " + tokenCount + " / " + analyzerTokens[0]);
+    }
+
+    // Runs the CACM queries with every BM25 evaluation and prints the latency of the last round and the postings it
+    // scored
+    public void benchmarkRetrieval() {
+        BM25 bm25 = (BM25) context.getBean("retrievalModel");
+        int printSize = getIntProperty("search.engine.print.size");
+        Map<Integer, String> queries = getQueries();
+        try {
+            for (String evaluation : EVALUATIONS) {
+                bm25.setEvaluation(evaluation);
+                long totalTime = 0;
+                long scoredPostings = 0;
+                for (int round = 1; round <= RETRIEVAL_ROUNDS; round++) {
+                    long scored = bm25.getScoredPostings();
+                    long startTime = System.nanoTime();
+                    for (Integer queryID : new TreeSet<>(queries.keySet())) {
+                        bm25.getRanking(queries.get(queryID), queryID, printSize);
+                    }
+                    totalTime = System.nanoTime() - startTime;
+                    scoredPostings = bm25.getScoredPostings() - scored;
+                }
+                System.out.println("Evaluation : " + evaluation + ", Latency : " +
+                        String.format("%.3f", totalTime / 1e6 / queries.size()) + " ms/query, Postings scored : " +
+                        scoredPostings);
+            }
+        } finally {
+            bm25.setEvaluation(properties.getProperty("search.engine.bm25.evaluation"));
+        }
+    }
+
+    // Writes the impact index and runs the CACM queries with exact float BM25 scores and with the quantized impacts
+    // for a range of postings budgets. Prints the latency of the last round and the postings processed, the mean
+    // average precision and precision at 10 against the relevance judgements, and how much of the exact printed
+    // results the impacts return
+    public void benchmarkImpacts() {
+        BM25 bm25 = (BM25) context.getBean("retrievalModel");
+        int printSize = getIntProperty("search.engine.print.size");
+        Map<Integer, String> queries = getQueries();
+        Map<Integer, List<String>> relevance = new HashMap<>();
+        for (Integer queryID : queries.keySet()) {
+            relevance.put(queryID, SearchEngineUtils.getRelevance(queryID));
+        }
+        bm25.writeImpactIndex();
+
+        try {
+            bm25.setEvaluation("exhaustive");
+            Map<Integer, List<String>> exact = benchmarkRankings(bm25, bm25::getRanking, queries, relevance,
+                    printSize, "exhaustive");
+            bm25.setEvaluation("impact");
+            for (int budget : IMPACT_BUDGETS) {
+                bm25.setImpactBudget(budget);
+                Map<Integer, List<String>> rankings = benchmarkRankings(bm25, bm25::getRanking, queries, relevance,
+                        printSize, "impact, budget " + budget);
+                double overlap = 0;
+                for (Integer queryID : exact.keySet()) {
+                    List<String> common = new ArrayList<>(exact.get(queryID));
+                    common.retainAll(rankings.get(queryID));
+                    overlap += exact.get(queryID).isEmpty() ? 1 : (double) common.size() / exact.get(queryID).size();
+                }
+                System.out.println("  Overlap with exact : " + String.format("%.4f", overlap / exact.size()));
+            }
+        } finally {
+            bm25.setEvaluation(properties.getProperty("search.engine.bm25.evaluation"));
+            bm25.setImpactBudget(getIntProperty("search.engine.bm25.impact.budget"));
+        }
+    }
+
+    // Runs the CACM queries with exhaustive BM25, without expansion and with the frequency and rm3 feedback models.
+    // Prints the latency of the last round, the postings scored, the mean average precision and precision at 10
+    public void benchmarkQueryExpansion() {
+        BM25 bm25 = (BM25) context.getBean("retrievalModel");
+        PseudoRelevanceFeedback feedback = (PseudoRelevanceFeedback) context.getBean("pseudoRelevanceFeedback");
+        int printSize = getIntProperty("search.engine.print.size");
+        Map<Integer, String> queries = getQueries();
+        Map<Integer, List<String>> relevance = new HashMap<>();
+        for (Integer queryID : queries.keySet()) {
+            relevance.put(queryID, SearchEngineUtils.getRelevance(queryID));
+        }
+
+        try {
+            bm25.setEvaluation("exhaustive");
+            benchmarkRankings(bm25, bm25::getRanking, queries, relevance, printSize, "no expansion");
+            for (String feedbackModel : new String[]{"frequency", "rm3"}) {
+                feedback.setFeedbackModel(feedbackModel);
+                benchmarkRankings(bm25, feedback::getRanking, queries, relevance, printSize,
+                        "expansion " + feedbackModel);
+            }
+        } finally {
+            feedback.setFeedbackModel(properties.getProperty("search.engine.feedback.model"));
+            bm25.setEvaluation(properties.getProperty("search.engine.bm25.evaluation"));
+        }
+    }
+
+    private interface Ranker {
+        HashMap<String, Double> getRanking(String query, Integer queryID, int k);
+    }
+
+    private Map<Integer, List<String>> benchmarkRankings(BM25 bm25, Ranker ranker, Map<Integer, String> queries,
+                                                         Map<Integer, List<String>> relevance, int printSize,
+                                                         String name) {
+        Map<Integer, List<String>> rankings = new HashMap<>();
+        long totalTime = 0;
+        long scoredPostings = 0;
+        for (int round = 1; round <= RETRIEVAL_ROUNDS; round++) {
+            long scored = bm25.getScoredPostings();
+            long startTime = System.nanoTime();
+            for (Integer queryID : queries.keySet()) {
+                rankings.put(queryID, new ArrayList<>(ranker.getRanking(queries.get(queryID), queryID, printSize)
+                        .keySet()));
+            }
+            totalTime = System.nanoTime() - startTime;
+            scoredPostings = bm25.getScoredPostings() - scored;
+        }
+        double totalPrecision = 0;
+        double totalPrecisionAtRank = 0;
+        for (Integer queryID : queries.keySet()) {
+            List<String> ranking = rankings.get(queryID);
+            List<String> relevantDocs = relevance.get(queryID);
+            double relevantCount = 0;
+            double precision = 0;
+            for (int i = 0; i < ranking.size(); i++) {
+                if (relevantDocs.contains(ranking.get(i))) {
+                    relevantCount++;
+                    precision += relevantCount / (i + 1);
+                    if (i < PRECISION_RANK) {
+                        totalPrecisionAtRank += 1.0 / PRECISION_RANK;
+                    }
+                }
+            }
+            totalPrecision += relevantCount == 0 ? 0 : precision / relevantCount;
+        }
+        System.out.println("Evaluation : " + name + ", Latency : " +
+                String.format("%.3f", totalTime / 1e6 / queries.size()) + " ms/query, Postings : " + scoredPostings +
+                ", MAP : " + String.format("%.4f", totalPrecision / queries.size()) + ", P@" + PRECISION_RANK +
+                " : " + String.format("%.4f", totalPrecisionAtRank / queries.size()));
+        return rankings;
+    }
+
+    // Ranks a batch of queries with 1, 2, 4 ... threads up to the core count, prints the wall-clock time and the
+    // speedup over one thread
+    public void benchmarkQueryBatch() {
+        RetrievalModel retrievalModel = (RetrievalModel) context.getBean("retrievalModel");
+        int printSize = getIntProperty("search.engine.print.size");
+        Map<Integer, String> queries = getQueries();
+        Map<Integer, String> batch = new HashMap<>();
+        for (int repeat = 0; repeat < BATCH_REPEATS; repeat++) {
+            for (Map.Entry<Integer, String> query : queries.entrySet()) {
+                batch.put(repeat * BATCH_ID_STRIDE + query.getKey(), query.getValue());
+            }
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        long referenceTime = 0;
+        for (int threads = 1; threads <= cores; threads = threads * 2) {
+            QueryBatchExecutor batchExecutor = new QueryBatchExecutor(threads);
+            long startTime = System.currentTimeMillis();
+            batchExecutor.execute(batch, (queryID, query) -> {
+                try (Ranking ranking = retrievalModel.getTopK(query, queryID, printSize)) {
+                    return ranking.size();
+                }
+            });
+            long totalTime = System.currentTimeMillis() - startTime;
+            if (referenceTime == 0) {
+                referenceTime = Math.max(totalTime, 1);
+            }
+            System.out.println("Query threads : " + threads + ", Queries : " + batch.size() + ", Time : " + totalTime +
+                    " ms, Speedup : " + String.format("%.2f", (double) referenceTime / Math.max(totalTime, 1)));
+        }
+    }
+
+    // Replays a query log with the result cache off and with a range of sizes, prints the time, the hit rate and the
+    // evictions
+    public void benchmarkResultCache() {
+        RetrievalModel retrievalModel = (RetrievalModel) context.getBean("retrievalModel");
+        QueryResultCache resultCache = (QueryResultCache) context.getBean("queryResultCache");
+        int printSize = getIntProperty("search.engine.print.size");
+        Map<Integer, String> queries = getQueries();
+        Random random = new Random(LOG_DISTINCT_QUERIES);
+        List<String> distinctQueries = new ArrayList<>(new TreeSet<>(queries.values()));
+        List<String> words = new ArrayList<>();
+        for (String query : distinctQueries) {
+            words.addAll(Arrays.asList(query.trim().split(" +")));
+        }
+        while (distinctQueries.size() < LOG_DISTINCT_QUERIES) {
+            distinctQueries.add(words.get(random.nextInt(words.size())) + " " + words.get(random.nextInt(words.size())));
+        }
+        double[] popularity = new double[distinctQueries.size()];
+        double totalPopularity = 0;
+        for (int i = 0; i < popularity.length; i++) {
+            totalPopularity += 1 / Math.pow(i + 1, LOG_ZIPF_EXPONENT);
+            popularity[i] = totalPopularity;
+        }
+        List<String> log = new ArrayList<>();
+        for (int i = 0; i < LOG_QUERIES; i++) {
+            int rank = Arrays.binarySearch(popularity, random.nextDouble() * totalPopularity);
+            log.add(distinctQueries.get(rank < 0 ? -rank - 1 : rank));
+        }
+
+        long referenceTime = 0;
+        try {
+            for (int size : CACHE_SIZES) {
+                resultCache.setMaximumSize(size);
+                long startTime = System.nanoTime();
+                for (int i = 0; i < log.size(); i++) {
+                    retrievalModel.getTopK(log.get(i), i, printSize).close();
+                }
+                long totalTime = System.nanoTime() - startTime;
+                if (referenceTime == 0) {
+                    referenceTime = Math.max(totalTime, 1);
+                }
+                long lookups = resultCache.getHitCount() + resultCache.getMissCount();
+                System.out.println("Result cache size : " + size + ", Queries : " + log.size() + ", Time : " +
+                        totalTime / 1000000 + " ms, Speedup : " +
+                        String.format("%.2f", (double) referenceTime / Math.max(totalTime, 1)) + ", Hit rate : " +
+                        String.format("%.4f", lookups == 0 ? 0 : (double) resultCache.getHitCount() / lookups) +
+                        ", Evictions : " + resultCache.getEvictionCount());
+            }
+        } finally {
+            // the other benchmarks run with the cache off
+            resultCache.setMaximumSize(0);
+        }
+    }
+
+    // Runs the CACM queries with the postings cache off and with a range of memory budgets in MB, prints the latency of
+    // the last round, the hit rate, evictions and cached bytes
+    public void benchmarkPostingsCache() {
+        RetrievalModel retrievalModel = (RetrievalModel) context.getBean("retrievalModel");
+        SnapshotManager snapshotManager = (SnapshotManager) context.getBean("snapshotManager");
+        int printSize = getIntProperty("search.engine.print.size");
+        Map<Integer, String> queries = getQueries();
+        IndexSnapshot indexSnapshot = snapshotManager.acquire();
+        try {
+            for (int size : POSTINGS_CACHE_SIZES) {
+                snapshotManager.setPostingsCacheSize(size);
+                long totalTime = 0;
+                for (int round = 1; round <= RETRIEVAL_ROUNDS; round++) {
+                    long startTime = System.nanoTime();
+                    for (Integer queryID : new TreeSet<>(queries.keySet())) {
+                        retrievalModel.getTopK(queries.get(queryID), queryID, printSize).close();
+                    }
+                    totalTime = System.nanoTime() - startTime;
+                }
+                TinyLfuCache<String, PostingsList> cache = indexSnapshot.getPostingsCache();
+                long lookups = cache == null ? 0 : cache.getHitCount() + cache.getMissCount();
+                System.out.println("Postings cache : " + size + " MB, Latency : " +
+                        String.format("%.3f", totalTime / 1e6 / queries.size()) + " ms/query, Hit rate : " +
+                        String.format("%.4f", lookups == 0 ? 0 : (double) cache.getHitCount() / lookups) +
+                        ", Evictions : " + (cache == null ? 0 : cache.getEvictionCount()) + ", Cached : " +
+                        (cache == null ? 0 : cache.weight() / 1024) + " KB");
+            }
+        } finally {
+            snapshotManager.setPostingsCacheSize(getIntProperty("search.engine.postings.cache.size"));
+            snapshotManager.release(indexSnapshot);
+        }
+    }
+
+    // Runs the CACM queries through the map based ranking and the primitive top k ranking and prints the latency and
+    // the bytes allocated per query of the last round of each. The allocated bytes are only counted on JVMs whose
+    // thread bean has getThreadAllocatedBytes
+    public void benchmarkRankingAllocation() {
+        RetrievalModel retrievalModel = (RetrievalModel) context.getBean("retrievalModel");
+        int printSize = getIntProperty("search.engine.print.size");
+        Map<Integer, String> queries = getQueries();
+        long threadID = Thread.currentThread().getId();
+        for (String ranking : new String[]{"getRanking", "getTopK"}) {
+            long totalTime = 0;
+            long allocatedBytes = 0;
+            for (int round = 1; round <= RETRIEVAL_ROUNDS; round++) {
+                long allocated = getThreadAllocatedBytes(threadID);
+                long startTime = System.nanoTime();
+                for (Integer queryID : queries.keySet()) {
+                    if (ranking.equals("getTopK")) {
+                        retrievalModel.getTopK(queries.get(queryID), queryID, printSize).close();
+                    } else {
+                        retrievalModel.getRanking(queries.get(queryID), queryID, printSize);
+                    }
+                }
+                totalTime = System.nanoTime() - startTime;
+                allocatedBytes = allocated < 0 ? -1 : getThreadAllocatedBytes(threadID) - allocated;
+            }
+            System.out.println("Ranking : " + ranking + ", Latency : " +
+                    String.format("%.3f", totalTime / 1e6 / queries.size()) + " ms/query, Allocated : " +
+                    (allocatedBytes < 0 ? "unknown" : allocatedBytes / queries.size() / 1024 + " KB/query"));
+        }
+    }
+
+    // Fetches the top documents of every CACM query from the source files and from the document store with the block
+    // cache off and on. Prints the latency per document of the last round, the hit rate of the block cache and the size
+    // of the store against the sources
+    public void benchmarkDocumentStore() {
+        RetrievalModel retrievalModel = (RetrievalModel) context.getBean("retrievalModel");
+        InvertedIndexer indexer = (InvertedIndexer) context.getBean("invertedIndexer");
+        SnapshotManager snapshotManager = (SnapshotManager) context.getBean("snapshotManager");
+        int printSize = getIntProperty("search.engine.print.size");
+        Map<Integer, String> queries = getQueries();
+        // the docIds of the rankings belong to this snapshot, the index is not changed while it runs
+        IndexSnapshot indexSnapshot = snapshotManager.acquire();
+        List<Integer> docIds = new ArrayList<>();
+        for (Integer queryID : new TreeSet<>(queries.keySet())) {
+            try (Ranking ranking = retrievalModel.getTopK(queries.get(queryID), queryID, printSize)) {
+                for (int rank = 0; rank < ranking.size(); rank++) {
+                    docIds.add(ranking.getDocId(rank));
+                }
+            }
+        }
+
+        int cacheSize = getIntProperty("search.engine.document.cache.size");
+        long sourceBytes = 0;
+        try {
+            for (String source : new String[]{"files", "store", "store, cache " + cacheSize + " MB"}) {
+                snapshotManager.setDocumentCacheSize(source.equals("store") ? 0 : cacheSize);
+                long totalTime = 0;
+                long totalChars = 0;
+                for (int round = 1; round <= RETRIEVAL_ROUNDS; round++) {
+                    totalChars = 0;
+                    long startTime = System.nanoTime();
+                    for (int docId : docIds) {
+                        String document = null;
+                        if (source.equals("files")) {
+                            File file = indexer.getSourceFile(indexSnapshot.getDocumentName(docId));
+                            try {
+                                document = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                        } else {
+                            document = indexSnapshot.getDocument(docId);
+                        }
+                        totalChars += document == null ? 0 : document.length();
+                    }
+                    totalTime = System.nanoTime() - startTime;
+                }
+                TinyLfuCache<Long, byte[]> cache = indexSnapshot.getDocumentCache();
+                long lookups = cache == null ? 0 : cache.getHitCount() + cache.getMissCount();
+                System.out.println("Documents : " + source + ", Latency : " +
+                        String.format("%.2f", totalTime / 1e3 / docIds.size()) + " us/document, Hit rate : " +
+                        String.format("%.4f", lookups == 0 ? 0 : (double) cache.getHitCount() / lookups) +
+                        ", Chars : " + totalChars);
+            }
+            for (int docId = 0; docId < indexSnapshot.getMaxDoc(); docId++) {
+                sourceBytes += indexer.getSourceFile(indexSnapshot.getDocumentName(docId)).length();
+            }
+        } finally {
+            snapshotManager.setDocumentCacheSize(cacheSize);
+            snapshotManager.release(indexSnapshot);
+        }
+
+        long storeBytes = 0;
+        for (String segmentPrefix : indexer.getSegmentPrefixes()) {
+            storeBytes += new File(segmentPrefix + IndexWriter.STORE_EXTENSION).length();
+        }
+        System.out.println("Document store : " + storeBytes / 1024 + " KB, Sources : " + sourceBytes / 1024 + " KB");
+    }
+
+    // Makes the snippets of the top documents of every CACM query by scoring the lines of the stored document and by
+    // scoring the passages of the passage index, prints the latency per snippet of the last round of each
+    public void benchmarkSnippets() {
+        RetrievalModel retrievalModel = (RetrievalModel) context.getBean("retrievalModel");
+        int printSize = getIntProperty("search.engine.print.size");
+        Map<Integer, String> queries = getQueries();
+        Map<Integer, Ranking> rankings = new HashMap<>();
+        for (Integer queryID : queries.keySet()) {
+            rankings.put(queryID, retrievalModel.getTopK(queries.get(queryID), queryID, printSize));
+        }
+        SnippetGeneration snippetGeneration = new SnippetGeneration();
+        try {
+            for (String snippets : new String[]{"lines", "passages"}) {
+                long totalTime = 0;
+                int count = 0;
+                for (int round = 1; round <= RETRIEVAL_ROUNDS; round++) {
+                    count = 0;
+                    long startTime = System.nanoTime();
+                    for (Integer queryID : queries.keySet()) {
+                        Ranking ranking = rankings.get(queryID);
+                        for (int rank = 0; rank < ranking.size(); rank++) {
+                            String document = ranking.getDocument(rank);
+                            if (snippets.equals("lines")) {
+                                snippetGeneration.thisSnippet(ranking.getDocumentName(rank), document,
+                                        queries.get(queryID));
+                            } else {
+                                snippetGeneration.thisSnippet(ranking.getDocumentName(rank), document,
+                                        ranking.getPassages(rank), queries.get(queryID));
+                            }
+                            count++;
+                        }
+                    }
+                    totalTime = System.nanoTime() - startTime;
+                }
+                System.out.println("Snippets : " + snippets + ", Latency : " +
+                        String.format("%.2f", totalTime / 1e3 / count) + " us/snippet");
+            }
+        } finally {
+            close(rankings);
+        }
+    }
+
+    // Snippet latency per query of making the snippets of all printed results one after the other inline, against the
+    // snippet service making those of the shown page in parallel with an empty and with a filled snippet cache. Also
+    // prints how many snippets of the pages were not made within the time budget
+    public void benchmarkSnippetPage() {
+        RetrievalModel retrievalModel = (RetrievalModel) context.getBean("retrievalModel");
+        SnippetService snippetService = (SnippetService) context.getBean("snippetService");
+        int printSize = getIntProperty("search.engine.print.size");
+        int cacheSize = getIntProperty("search.engine.snippet.cache.size");
+        Map<Integer, String> queries = getQueries();
+        Map<Integer, Ranking> rankings = new HashMap<>();
+        for (Integer queryID : queries.keySet()) {
+            rankings.put(queryID, retrievalModel.getTopK(queries.get(queryID), queryID, printSize));
+        }
+        SnippetGeneration snippetGeneration = new SnippetGeneration();
+        try {
+            for (String snippets : new String[]{"all results inline", "page", "page, cached"}) {
+                // the cached rounds after the first one find the snippets of the rounds before
+                snippetService.setCacheSize(snippets.equals("page, cached") ? cacheSize : 0);
+                long totalTime = 0;
+                int missed = 0;
+                for (int round = 1; round <= RETRIEVAL_ROUNDS; round++) {
+                    missed = 0;
+                    long startTime = System.nanoTime();
+                    for (Integer queryID : queries.keySet()) {
+                        Ranking ranking = rankings.get(queryID);
+                        if (snippets.equals("all results inline")) {
+                            for (int rank = 0; rank < Math.min(ranking.size(), printSize); rank++) {
+                                snippetGeneration.thisSnippet(ranking.getDocumentName(rank), ranking.getDocument(rank),
+                                        ranking.getPassages(rank), queries.get(queryID));
+                            }
+                        } else {
+                            for (String snippet : snippetService.getSnippets(ranking, queries.get(queryID))) {
+                                missed += snippet == null ? 1 : 0;
+                            }
+                        }
+                    }
+                    totalTime = System.nanoTime() - startTime;
+                }
+                System.out.println("Snippets : " + snippets + ", Latency : " +
+                        String.format("%.3f", totalTime / 1e6 / queries.size()) + " ms/query, Over time budget : " +
+                        missed);
+            }
+        } finally {
+            snippetService.setCacheSize(cacheSize);
+            close(rankings);
+        }
+    }
+
+    private static void close(Map<Integer, Ranking> rankings) {
+        for (Ranking ranking : rankings.values()) {
+            ranking.close();
+        }
+    }
+
+    private String formatThroughput(long chars, long nanos) {
+        return (nanos / 1000000) + " ms (" + String.format("%.1f", chars / 1048576.0 / (nanos / 1e9)) + " MB/s)";
+    }
+
+    // The CACM queries, cleaned with the case folding and stopping of the properties
+    private Map<Integer, String> getQueries() {
+        return SearchEngineUtils.getQuerySet(commonUtils.getResourcePath() + "query" + File.separator +
+                "cacm.query.txt", isEnabled("search.engine.enable.case.fold"),
+                isEnabled("search.engine.enable.stopping"));
+    }
+
+    private boolean isEnabled(String property) {
+        return Boolean.parseBoolean(properties.getProperty(property));
+    }
+
+    private int getIntProperty(String property) {
+        return Integer.parseInt(properties.getProperty(property));
+    }
+
+    // Bytes allocated by the thread so far, -1 when the thread bean of the JVM cannot tell. Looked up by reflection,
+    // the method is only on the thread bean of HotSpot and OpenJ9
+    private static long getThreadAllocatedBytes(long threadID) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        try {
+            for (Class<?> beanClass = threadBean.getClass(); beanClass != null; beanClass = beanClass.getSuperclass()) {
+                for (Class<?> beanInterface : beanClass.getInterfaces()) {
+                    if (ThreadMXBean.class.isAssignableFrom(beanInterface) && beanInterface != ThreadMXBean.class) {
+                        Method method = beanInterface.getMethod("getThreadAllocatedBytes", long.class);
+                        return (Long) method.invoke(threadBean, threadID);
+                    }
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+        return -1;
+    }
+}
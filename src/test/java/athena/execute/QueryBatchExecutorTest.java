@@ -0,0 +1,140 @@
+package athena.execute;
+
+import athena.index.InMemoryIndex;
+import athena.index.IndexSnapshot;
+import athena.index.IndexWriter;
+import athena.index.PostingsList;
+import athena.index.SegmentManager;
+import athena.retrievalmodel.ScoreAccumulator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A batch has to give the same results, and hand them to the consumer in the same order, whatever the number of
+ * threads and whatever order the queries finish in.
+ */
+public class QueryBatchExecutorTest {
+
+    private static final int DOCUMENT_COUNT = 2000;
+    private static final int QUERY_COUNT = 200;
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    private static final String[] VOCABULARY = {"a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // The queries score on the accumulator of their thread over a shared snapshot, as the retrieval models do
+    @Test
+    public void testBatchMatchesSingleThreaded() throws IOException {
+        Random random = new Random(16);
+        String indexPrefix = folder.getRoot().getPath() + "/Index";
+        SegmentManager segmentManager = new SegmentManager(indexPrefix, 100);
+        InMemoryIndex index = new InMemoryIndex();
+        for (int i = 0; i < DOCUMENT_COUNT; i++) {
+            List<String> terms = randomTerms(random, 1 + random.nextInt(30));
+            index.addDocument("D" + i, terms, terms.size());
+        }
+        String segment = segmentManager.newSegmentName();
+        IndexWriter.write(segmentManager.getSegmentPrefix(segment), index, 0);
+        segmentManager.replaceAll(segment, index.getDocumentCount());
+        segmentManager.close();
+        Map<Integer, String> queries = randomQueries(random);
+        try (IndexSnapshot indexSnapshot = new IndexSnapshot(indexPrefix)) {
+            QueryBatchExecutor.QueryTask<int[]> task = (queryID, query) -> {
+                ScoreAccumulator scores = ScoreAccumulator.forCurrentThread(indexSnapshot.getMaxDoc());
+                for (String term : query.split(" ")) {
+                    PostingsList postings = indexSnapshot.getPostings(term);
+                    if (postings != null) {
+                        for (int i = 0; i < postings.size(); i++) {
+                            scores.add(postings.getDocIds()[i], postings.getFrequencies()[i] /
+                                    (double) indexSnapshot.getDocumentLength(postings.getDocIds()[i]));
+                        }
+                    }
+                }
+                return scores.getTopK(10).drain(null);
+            };
+            LinkedHashMap<Integer, int[]> reference = null;
+            for (int threads : THREAD_COUNTS) {
+                List<Integer> consumed = new ArrayList<>();
+                LinkedHashMap<Integer, int[]> results = new QueryBatchExecutor(threads).execute(queries, task,
+                        (queryID, query, result) -> consumed.add(queryID));
+                assertEquals(new ArrayList<>(results.keySet()), consumed);
+                if (reference == null) {
+                    reference = results;
+                    continue;
+                }
+                assertEquals(new ArrayList<>(reference.keySet()), new ArrayList<>(results.keySet()));
+                for (Integer queryID : reference.keySet()) {
+                    assertArrayEquals("threads " + threads + ", query " + queryID, reference.get(queryID),
+                            results.get(queryID));
+                }
+            }
+        }
+    }
+
+    // Later queries finish first, the consumer still sees ascending query IDs and a failed query is left out
+    @Test
+    public void testOrderedConsumer() {
+        Map<Integer, String> queries = new HashMap<>();
+        for (int queryID = 1; queryID <= 40; queryID++) {
+            queries.put(queryID, "query " + queryID);
+        }
+        for (int threads : THREAD_COUNTS) {
+            StringBuilder output = new StringBuilder();
+            LinkedHashMap<Integer, String> results = new QueryBatchExecutor(threads).execute(queries,
+                    (queryID, query) -> {
+                        if (queryID == 13) {
+                            throw new IllegalStateException("failed query");
+                        }
+                        sleep(40 - queryID);
+                        return query.toUpperCase();
+                    },
+                    (queryID, query, result) -> output.append(queryID).append(' ').append(result).append('\n'));
+            StringBuilder expected = new StringBuilder();
+            for (int queryID = 1; queryID <= 40; queryID++) {
+                if (queryID != 13) {
+                    expected.append(queryID).append(" QUERY ").append(queryID).append('\n');
+                }
+            }
+            assertEquals(expected.toString(), output.toString());
+            assertEquals(39, results.size());
+        }
+    }
+
+    private static Map<Integer, String> randomQueries(Random random) {
+        Map<Integer, String> queries = new HashMap<>();
+        for (int queryID = 1; queryID <= QUERY_COUNT; queryID++) {
+            queries.put(queryID, String.join(" ", randomTerms(random, 1 + random.nextInt(4))));
+        }
+        return queries;
+    }
+
+    private static List<String> randomTerms(Random random, int length) {
+        String[] terms = new String[length];
+        for (int i = 0; i < length; i++) {
+            terms[i] = VOCABULARY[random.nextInt(VOCABULARY.length)];
+        }
+        return Arrays.asList(terms);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
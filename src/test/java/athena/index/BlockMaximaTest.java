@@ -0,0 +1,48 @@
+package athena.index;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static athena.index.RandomIndexes.buildIndex;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The block maxima written after the postings of every term are the highest tf and the shortest document of the block.
+ */
+public class BlockMaximaTest {
+
+    private static final int DOCUMENT_COUNT = 400;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBlockMaximaRoundTrip() throws IOException {
+        InMemoryIndex index = buildIndex(DOCUMENT_COUNT, 0);
+        String prefix = folder.getRoot().getPath() + "/blocks";
+        IndexWriter.write(prefix, index, 0);
+        try (IndexReader reader = new IndexReader(prefix)) {
+            for (String term : index.getSortedTerms()) {
+                PostingsList postings = reader.getPostings(term);
+                assertTrue(postings.hasBlockMaxima());
+                assertEquals(index.getPostings(term).size(), postings.size());
+                for (int block = 0; block < postings.getBlockCount(); block++) {
+                    int maxFrequency = 0;
+                    int minDocumentLength = Integer.MAX_VALUE;
+                    int end = Math.min((block + 1) * PostingsList.BLOCK_SIZE, postings.size());
+                    for (int i = block * PostingsList.BLOCK_SIZE; i < end; i++) {
+                        maxFrequency = Math.max(maxFrequency, postings.getFrequencies()[i]);
+                        minDocumentLength = Math.min(minDocumentLength,
+                                reader.getDocumentLength(postings.getDocIds()[i]));
+                    }
+                    assertEquals(maxFrequency, postings.getBlockMaxFrequency(block));
+                    assertEquals(minDocumentLength, postings.getBlockMinDocumentLength(block));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package athena.index;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static athena.index.RandomIndexes.buildIndex;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every stored source comes back from the compressed blocks of the document store, documents added without their
+ * source have none.
+ */
+public class DocumentStoreTest {
+
+    private static final int DOCUMENT_COUNT = 400;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDocumentStoreRoundTrip() throws IOException {
+        InMemoryIndex index = buildIndex(DOCUMENT_COUNT, 5);
+        String prefix = folder.getRoot().getPath() + "/store";
+        IndexWriter.write(prefix, index, 0);
+        try (IndexReader reader = new IndexReader(prefix)) {
+            DocumentStore store = reader.getDocumentStore();
+            assertNotNull(store);
+            assertTrue(store.getBlockCount() > 1);
+            for (int docId = 0; docId < DOCUMENT_COUNT; docId++) {
+                byte[] content = index.getDocumentContent(docId);
+                if (content == null) {
+                    assertEquals(-1, store.getBlock(docId));
+                    assertNull(store.getDocument(docId));
+                } else {
+                    assertEquals(new String(content, StandardCharsets.UTF_8), store.getDocument(docId));
+                }
+            }
+        }
+    }
+}
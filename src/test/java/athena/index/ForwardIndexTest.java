@@ -0,0 +1,75 @@
+package athena.index;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import static athena.index.RandomIndexes.assertFileEquals;
+import static athena.index.RandomIndexes.buildIndex;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The term vectors read back from the forward index are the term frequencies of every document, and a forward index
+ * built through spill files is the same file as one built in memory.
+ */
+public class ForwardIndexTest {
+
+    private static final int DOCUMENT_COUNT = 400;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testForwardIndexRoundTrip() throws IOException {
+        InMemoryIndex index = buildIndex(DOCUMENT_COUNT, 0);
+        String prefix = prefix("fwd");
+        IndexWriter.write(prefix, index, 0);
+        try (IndexReader reader = new IndexReader(prefix)) {
+            assertTrue(reader.hasTermVectors());
+            for (int docId = 0; docId < DOCUMENT_COUNT; docId++) {
+                TermVector vector = reader.getTermVector(docId);
+                HashMap<String, Integer> expected = getTermFrequencies(index, docId);
+                assertEquals(expected.size(), vector.size());
+                for (int i = 0; i < vector.size(); i++) {
+                    assertEquals(expected.get(vector.getTerm(i)), Integer.valueOf(vector.getFrequency(i)));
+                    assertEquals(vector.getTerm(i), reader.getTerm(vector.getTermOrdinal(i)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSpilledForwardIndexMatchesInMemory() throws IOException {
+        // enough postings for more spills than are kept open at once
+        InMemoryIndex index = buildIndex(4000, 0);
+        String inMemory = prefix("memory");
+        String spilled = prefix("spilled");
+        IndexWriter.write(inMemory, index, 0);
+        IndexWriter.write(spilled, index, 1);
+        assertFileEquals(inMemory, spilled, IndexWriter.FORWARD_EXTENSION);
+        for (String file : folder.getRoot().list()) {
+            assertFalse(file, file.contains(".spill"));
+        }
+    }
+
+    private String prefix(String name) {
+        return folder.getRoot().getPath() + "/" + name;
+    }
+
+    private static HashMap<String, Integer> getTermFrequencies(InMemoryIndex index, int docId) {
+        HashMap<String, Integer> frequencies = new HashMap<>();
+        for (String term : index.getSortedTerms()) {
+            PostingsList postings = index.getPostings(term);
+            int i = postings.indexOf(docId);
+            if (i >= 0) {
+                frequencies.put(term, postings.getFrequencies()[i]);
+            }
+        }
+        return frequencies;
+    }
+}
@@ -0,0 +1,121 @@
+package athena.index;
+
+import athena.retrievalmodel.ImpactEvaluator;
+import athena.retrievalmodel.TopKCollector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static athena.index.RandomIndexes.buildIndex;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Writes the impact index of a segment with deletes and reads the quantized weights back, then evaluates queries over
+ * it against summing the impacts of every posting.
+ */
+public class ImpactIndexTest {
+
+    private static final int DOCUMENT_COUNT = 400;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testImpactIndexRoundTrip() throws IOException {
+        String indexPrefix = folder.getRoot().getPath() + "/Index";
+        SegmentManager segmentManager = new SegmentManager(indexPrefix, 100);
+        InMemoryIndex index = buildIndex(DOCUMENT_COUNT, 0);
+        String segment = segmentManager.newSegmentName();
+        IndexWriter.write(segmentManager.getSegmentPrefix(segment), index, 0);
+        segmentManager.replaceAll(segment, index.getDocumentCount());
+        segmentManager.deleteDocuments(Arrays.asList("D1", "D2", "D3"));
+        segmentManager.close();
+        try (IndexSnapshot indexSnapshot = new IndexSnapshot(indexPrefix)) {
+            ImpactIndex.TermWeight termWeight = (documentFrequency, frequency, documentLength) ->
+                    frequency * Math.log(1 + 1000.0 / documentFrequency) / documentLength;
+            ImpactIndex.write(indexSnapshot, termWeight);
+            try (ImpactIndex impactIndex = new ImpactIndex(indexPrefix)) {
+                assertEquals(indexSnapshot.getVersion(), impactIndex.getVersion());
+                for (String term : indexSnapshot.getTerms()) {
+                    PostingsList postings = indexSnapshot.getPostings(term);
+                    ImpactPostings impacts = impactIndex.getImpactPostings(term);
+                    if (postings == null) {
+                        assertNull(impacts);
+                        continue;
+                    }
+                    assertEquals(postings.size(), impacts.size());
+                    int[] docIds = new int[impacts.size()];
+                    for (int g = 0; g < impacts.getGroupCount(); g++) {
+                        for (int i = impacts.getGroupStart(g); i < impacts.getGroupStart(g + 1); i++) {
+                            int docId = impacts.getDocIds()[i];
+                            int posting = postings.indexOf(docId);
+                            double weight = termWeight.weight(postings.size(), postings.getFrequencies()[posting],
+                                    indexSnapshot.getDocumentLength(docId));
+                            assertEquals(Math.round(weight / impactIndex.getScale()), impacts.getImpact(g));
+                            docIds[i] = docId;
+                        }
+                    }
+                    Arrays.sort(docIds);
+                    assertArrayEquals(Arrays.copyOf(postings.getDocIds(), postings.size()), docIds);
+                }
+                assertNull(impactIndex.getImpactPostings("missing"));
+            }
+        }
+    }
+
+    // Every query runs on the accumulator of the same thread, the scores of one query must not leak into the next
+    @Test
+    public void testEvaluateAllPostings() throws IOException {
+        String indexPrefix = folder.getRoot().getPath() + "/Index";
+        SegmentManager segmentManager = new SegmentManager(indexPrefix, 100);
+        InMemoryIndex index = buildIndex(DOCUMENT_COUNT, 0);
+        String segment = segmentManager.newSegmentName();
+        IndexWriter.write(segmentManager.getSegmentPrefix(segment), index, 0);
+        segmentManager.replaceAll(segment, index.getDocumentCount());
+        segmentManager.close();
+        try (IndexSnapshot indexSnapshot = new IndexSnapshot(indexPrefix)) {
+            ImpactIndex.write(indexSnapshot, (documentFrequency, frequency, documentLength) ->
+                    frequency * Math.log(1 + 1000.0 / documentFrequency) / documentLength);
+            try (ImpactIndex impactIndex = new ImpactIndex(indexPrefix)) {
+                List<String> terms = indexSnapshot.getTerms();
+                for (int q = 0; q + 3 <= terms.size() && q < 30; q += 3) {
+                    List<ImpactPostings> termPostings = new ArrayList<>();
+                    for (String term : terms.subList(q, q + 3)) {
+                        termPostings.add(impactIndex.getImpactPostings(term));
+                    }
+                    int[] multipliers = {1, 2, 3};
+                    Map<Integer, Integer> expected = new HashMap<>();
+                    for (int t = 0; t < termPostings.size(); t++) {
+                        ImpactPostings impacts = termPostings.get(t);
+                        for (int g = 0; g < impacts.getGroupCount(); g++) {
+                            for (int i = impacts.getGroupStart(g); i < impacts.getGroupStart(g + 1); i++) {
+                                expected.merge(impacts.getDocIds()[i], impacts.getImpact(g) * multipliers[t],
+                                        Integer::sum);
+                            }
+                        }
+                    }
+                    TopKCollector collector = new TopKCollector(indexSnapshot.getMaxDoc());
+                    long processed = ImpactEvaluator.evaluate(termPostings, multipliers, 0,
+                            indexSnapshot.getMaxDoc(), impactIndex.getScale(), collector);
+                    assertEquals(termPostings.get(0).size() + termPostings.get(1).size() +
+                            termPostings.get(2).size(), processed);
+                    assertEquals(expected.size(), collector.size());
+                    double[] scores = new double[collector.size()];
+                    int[] docIds = collector.drain(scores);
+                    for (int i = 0; i < docIds.length; i++) {
+                        assertEquals(expected.get(docIds[i]) * impactIndex.getScale(), scores[i], 0);
+                    }
+                }
+            }
+        }
+    }
+}
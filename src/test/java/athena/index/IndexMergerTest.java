@@ -0,0 +1,61 @@
+package athena.index;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static athena.index.RandomIndexes.assertFileEquals;
+import static athena.index.RandomIndexes.randomContent;
+import static athena.index.RandomIndexes.randomTerms;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Merges the sorted runs of the SPIMI build, the merged index has to be the one written from all documents at once.
+ */
+public class IndexMergerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMergedRunsMatchSingleWrite() throws IOException {
+        Random random = new Random(3);
+        InMemoryIndex all = new InMemoryIndex();
+        List<String> runs = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            InMemoryIndex run = new InMemoryIndex();
+            for (int i = 0; i < 150; i++) {
+                String name = "R" + r + "-" + i;
+                List<String> terms = randomTerms(random);
+                byte[] content = randomContent(random, terms);
+                run.addDocument(name, terms, terms.size(), content);
+                all.addDocument(name, terms, terms.size(), content);
+            }
+            String runPrefix = prefix("run" + r);
+            IndexWriter.writeRun(runPrefix, run);
+            assertFalse(new File(runPrefix + IndexWriter.FORWARD_EXTENSION).exists());
+            assertFalse(new File(runPrefix + IndexWriter.PASSAGES_EXTENSION).exists());
+            runs.add(runPrefix);
+        }
+        String merged = prefix("merged");
+        String single = prefix("single");
+        assertEquals(450, IndexMerger.merge(runs, merged, 0));
+        IndexWriter.write(single, all, 0);
+        for (String extension : new String[]{IndexWriter.DOCUMENTS_EXTENSION, IndexWriter.DICTIONARY_EXTENSION,
+                IndexWriter.POSTINGS_EXTENSION, IndexWriter.FORWARD_EXTENSION, IndexWriter.STORE_EXTENSION,
+                IndexWriter.PASSAGES_EXTENSION}) {
+            assertFileEquals(single, merged, extension);
+        }
+    }
+
+    private String prefix(String name) {
+        return folder.getRoot().getPath() + "/" + name;
+    }
+}
@@ -0,0 +1,41 @@
+package athena.index;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Looks up the terms of a dictionary with multi-byte and supplementary characters, whose String order differs from
+ * their UTF-8 byte order.
+ */
+public class IndexReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTermOrdinals() throws IOException {
+        List<String> terms = Arrays.asList("a", "ab", "abc", "b", "caf\u00e9", "cafe", "\u00fcber", "z",
+                "\ud83d\ude00", "\ud83d\ude00a", "\ufffd", "\ufffda");
+        InMemoryIndex index = new InMemoryIndex();
+        index.addDocument("D0", terms, terms.size());
+        String prefix = folder.getRoot().getPath() + "/Index";
+        IndexWriter.write(prefix, index, 0);
+        List<String> sortedTerms = index.getSortedTerms();
+        try (IndexReader reader = new IndexReader(prefix)) {
+            assertEquals(terms.size(), reader.getTermCount());
+            for (int ordinal = 0; ordinal < sortedTerms.size(); ordinal++) {
+                assertEquals(sortedTerms.get(ordinal), ordinal, reader.getTermOrdinal(sortedTerms.get(ordinal)));
+            }
+            for (String missing : new String[]{"", "aa", "abcd", "ca", "caf", "zz", "\ud83d\ude01", "\ufffdb"}) {
+                assertEquals(missing, -1, reader.getTermOrdinal(missing));
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package athena.index;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Opening a snapshot of an index that is missing, has no live documents, or is found through the indexer. The files
+ * of the segments a snapshot opened through the indexer reads are kept until it is closed.
+ */
+public class IndexSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(expected = UncheckedIOException.class)
+    public void testMissingIndexThrows() {
+        new IndexSnapshot(folder.getRoot().getPath() + "/Index");
+    }
+
+    @Test
+    public void testOpenByIndexerOrPrefix() throws IOException {
+        String indexPrefix = folder.getRoot().getPath() + "/Index";
+        SegmentManager segmentManager = new SegmentManager(indexPrefix, 10);
+        InMemoryIndex index = new InMemoryIndex();
+        index.addDocument("D0", Arrays.asList("index", "snapshot"), 2);
+        index.addDocument("D1", Arrays.asList("snapshot"), 1);
+        String segmentName = segmentManager.newSegmentName();
+        IndexWriter.write(segmentManager.getSegmentPrefix(segmentName), index, 0);
+        segmentManager.replaceAll(segmentName, index.getDocumentCount());
+        segmentManager.close();
+        InvertedIndexer invertedIndexer = new InvertedIndexer("snapshot") {
+            @Override
+            public String getIndexPrefix() {
+                return indexPrefix;
+            }
+        };
+        invertedIndexer.setMergeFactor(10);
+        invertedIndexer.setMemoryBudget(0);
+        try (IndexSnapshot byIndexer = new IndexSnapshot(invertedIndexer);
+             IndexSnapshot byPrefix = new IndexSnapshot(indexPrefix)) {
+            assertEquals(indexPrefix, byIndexer.getIndexPrefix());
+            assertEquals(byPrefix.getVersion(), byIndexer.getVersion());
+            assertEquals(2, byIndexer.getDocumentCount());
+            assertEquals(byPrefix.getDocumentId("D1"), byIndexer.getDocumentId("D1"));
+            assertEquals(byPrefix.getPostings("snapshot").size(), byIndexer.getPostings("snapshot").size());
+        } finally {
+            invertedIndexer.close();
+        }
+    }
+
+    @Test
+    public void testSegmentFilesKeptUntilClosed() throws IOException {
+        String indexPrefix = folder.getRoot().getPath() + "/Index";
+        InvertedIndexer invertedIndexer = new InvertedIndexer("snapshot") {
+            @Override
+            public String getIndexPrefix() {
+                return indexPrefix;
+            }
+        };
+        invertedIndexer.setMergeFactor(10);
+        invertedIndexer.setMemoryBudget(0);
+        SegmentManager segmentManager = invertedIndexer.getSegmentManager();
+        try {
+            String first = writeSegment(segmentManager, "first");
+            segmentManager.replaceAll(first, 1);
+            File postings = new File(segmentManager.getSegmentPrefix(first) + IndexWriter.POSTINGS_EXTENSION);
+            try (IndexSnapshot indexSnapshot = new IndexSnapshot(invertedIndexer)) {
+                String second = writeSegment(segmentManager, "second");
+                segmentManager.replaceAll(second, 1);
+                assertTrue(postings.exists());
+                assertEquals(1, indexSnapshot.getPostings("first").size());
+                assertNull(indexSnapshot.getPostings("second"));
+            }
+            assertFalse(postings.exists());
+        } finally {
+            invertedIndexer.close();
+        }
+    }
+
+    // Writes a segment of one document holding the term, not committed yet
+    private static String writeSegment(SegmentManager segmentManager, String term) throws IOException {
+        InMemoryIndex index = new InMemoryIndex();
+        index.addDocument("D0", Collections.singletonList(term), 1);
+        String segmentName = segmentManager.newSegmentName();
+        IndexWriter.write(segmentManager.getSegmentPrefix(segmentName), index, 0);
+        return segmentName;
+    }
+
+    @Test
+    public void testEveryDocumentDeleted() throws IOException {
+        String indexPrefix = folder.getRoot().getPath() + "/Index";
+        SegmentManager segmentManager = new SegmentManager(indexPrefix, 10);
+        InMemoryIndex index = new InMemoryIndex();
+        List<String> terms = Arrays.asList("index", "snapshot");
+        index.addDocument("D0", terms, terms.size());
+        index.addDocument("D1", terms, terms.size());
+        String segmentName = segmentManager.newSegmentName();
+        IndexWriter.write(segmentManager.getSegmentPrefix(segmentName), index, 0);
+        segmentManager.replaceAll(segmentName, index.getDocumentCount());
+        assertEquals(2, segmentManager.deleteDocuments(Arrays.asList("D0", "D1")));
+        segmentManager.close();
+        try (IndexSnapshot indexSnapshot = new IndexSnapshot(indexPrefix)) {
+            assertEquals(0, indexSnapshot.getDocumentCount());
+            assertEquals(2, indexSnapshot.getMaxDoc());
+            assertEquals(0, indexSnapshot.getAverageDocumentLength(), 0);
+            assertNull(indexSnapshot.getPostings("index"));
+        }
+    }
+}
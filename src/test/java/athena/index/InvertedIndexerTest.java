@@ -0,0 +1,172 @@
+package athena.index;
+
+import athena.utils.CommonUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Builds the index of a part of the CACM collection in different ways, every build has to write the same index files
+ * byte for byte as a single threaded build in memory.
+ */
+public class InvertedIndexerTest {
+
+    private static final int CORPUS_SIZE = 120;
+    // Enough documents for several runs of every thread within the smallest memory budget
+    private static final int RUNS_CORPUS_SIZE = 1200;
+    private static final int THREADS = 4;
+    private static final String[] INDEX_FILES = {IndexWriter.DOCUMENTS_EXTENSION, IndexWriter.DICTIONARY_EXTENSION,
+            IndexWriter.POSTINGS_EXTENSION, IndexWriter.POSITIONS_EXTENSION, IndexWriter.FORWARD_EXTENSION,
+            IndexWriter.STORE_EXTENSION, IndexWriter.PASSAGES_EXTENSION};
+
+    private static ClassPathXmlApplicationContext context;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void createContext() {
+        context = new ClassPathXmlApplicationContext("spring/bean.xml");
+    }
+
+    @AfterClass
+    public static void closeContext() {
+        context.close();
+    }
+
+    @Test
+    public void testParallelBuildMatchesSingleThreaded() throws IOException {
+        File corpus = copyCorpus(CORPUS_SIZE);
+        assertIndexEquals(read(build(corpus, 1, false, 0)), read(build(corpus, THREADS, false, 0)));
+    }
+
+    @Test
+    public void testParallelPositionalBuildMatchesSingleThreaded() throws IOException {
+        File corpus = copyCorpus(CORPUS_SIZE);
+        TreeMap<String, byte[]> single = read(build(corpus, 1, true, 0));
+        assertTrue(single.containsKey(IndexWriter.POSITIONS_EXTENSION));
+        assertIndexEquals(single, read(build(corpus, THREADS, true, 0)));
+    }
+
+    @Test
+    public void testMergedRunsMatchSingleBuild() throws IOException {
+        File corpus = copyCorpus(RUNS_CORPUS_SIZE);
+        TreeMap<String, byte[]> single = read(build(corpus, 1, false, 0));
+        for (int threads : new int[]{1, THREADS}) {
+            InvertedIndexer indexer = build(corpus, threads, false, 1);
+            assertTrue("runs : " + indexer.getRunCount(), indexer.getRunCount() > threads);
+            assertIndexEquals(single, read(indexer));
+            for (int run = 0; run < indexer.getRunCount(); run++) {
+                String runPrefix = indexer.getIndexFolder() + "Run_" + run;
+                assertFalse(runPrefix, new File(runPrefix + IndexWriter.POSTINGS_EXTENSION).exists());
+            }
+        }
+    }
+
+    // A build that writes no segment keeps no sources, the segments written by createIndex and addDocuments store them
+    @Test
+    public void testSourcesOnlyKeptForWrittenSegments() throws IOException {
+        File corpus = copyCorpus(CORPUS_SIZE);
+        File[] files = corpus.listFiles();
+        Arrays.sort(files);
+        InvertedIndexer indexer = build(corpus, 1, false, 0);
+        try {
+            InMemoryIndex index = indexer.createIndex(files, false);
+            assertEquals(CORPUS_SIZE, index.getDocumentCount());
+            for (int docId = 0; docId < index.getDocumentCount(); docId++) {
+                assertNull(index.getDocumentContent(docId));
+            }
+            File added = folder.newFolder("added");
+            Files.copy(files[0].toPath(), new File(added, files[0].getName()).toPath());
+            indexer.addDocuments(added.listFiles());
+            try (IndexSnapshot indexSnapshot = new IndexSnapshot(indexer.getIndexPrefix())) {
+                assertEquals(2, indexer.getSegmentPrefixes().size());
+                String source = new String(Files.readAllBytes(files[0].toPath()), StandardCharsets.UTF_8);
+                for (int docId = 0; docId < indexSnapshot.getMaxDoc(); docId++) {
+                    assertNotNull(indexSnapshot.getDocument(docId));
+                }
+                assertEquals(source, indexSnapshot.getDocument(indexSnapshot.getDocumentId(
+                        index.getDocumentName(0))));
+            }
+        } finally {
+            indexer.close();
+        }
+    }
+
+    // The first documents of the collection in their own folder
+    private File copyCorpus(int size) throws IOException {
+        CommonUtils commonUtils = (CommonUtils) context.getBean("commonUtils");
+        Properties properties = (Properties) context.getBean("searchEngineProperties");
+        File[] files = new File(commonUtils.getResourcePath() + properties.getProperty("search.engine.input.folder"))
+                .listFiles();
+        Arrays.sort(files);
+        File corpus = folder.newFolder("cacm");
+        for (int i = 0; i < size; i++) {
+            Files.copy(files[i].toPath(), new File(corpus, files[i].getName()).toPath());
+        }
+        return corpus;
+    }
+
+    // Builds the index with a memory budget in MB, 0 builds it in memory. The indexer writes its segments to a folder
+    // of its own
+    private InvertedIndexer build(File corpus, int threads, boolean storePositions, int memoryBudget)
+            throws IOException {
+        String indexPrefix = folder.newFolder().getPath() + File.separator + "Index";
+        InvertedIndexer indexer = new InvertedIndexer("test") {
+            @Override
+            public String getIndexPrefix() {
+                return indexPrefix;
+            }
+        };
+        context.getAutowireCapableBeanFactory().autowireBean(indexer);
+        indexer.setIndexThreads(threads);
+        indexer.setStorePositions(storePositions);
+        indexer.setMemoryBudget(memoryBudget);
+        try {
+            indexer.createIndex(corpus.getPath());
+        } finally {
+            indexer.close();
+        }
+        return indexer;
+    }
+
+    // Index files of the single segment of a build by extension
+    private static TreeMap<String, byte[]> read(InvertedIndexer indexer) throws IOException {
+        List<String> segmentPrefixes = indexer.getSegmentPrefixes();
+        assertEquals(1, segmentPrefixes.size());
+        TreeMap<String, byte[]> indexFiles = new TreeMap<>();
+        for (String extension : INDEX_FILES) {
+            if (new File(segmentPrefixes.get(0) + extension).exists()) {
+                indexFiles.put(extension, Files.readAllBytes(Paths.get(segmentPrefixes.get(0) + extension)));
+            }
+        }
+        return indexFiles;
+    }
+
+    private static void assertIndexEquals(TreeMap<String, byte[]> expected, TreeMap<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String extension : expected.keySet()) {
+            assertArrayEquals(extension, expected.get(extension), actual.get(extension));
+        }
+    }
+}
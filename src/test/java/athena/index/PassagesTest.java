@@ -0,0 +1,72 @@
+package athena.index;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The passages split from a stored document give back its text, word counts and term occurrences, and none are
+ * written for an n-gram dictionary.
+ */
+public class PassagesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPassagesRoundTrip() throws IOException {
+        String document = "<html>\n<title>Fox</title>\nThe Quick, brown fox.\r\n  12\t34\n\nDeWitte (jumps) over\n";
+        InMemoryIndex index = new InMemoryIndex();
+        index.addDocument("D0", Arrays.asList("the", "quick", "brown", "fox", "dewitte", "jumps", "fox"), 7,
+                document.getBytes(StandardCharsets.UTF_8));
+        index.addDocument("D1", Arrays.asList("fox"), 1);
+        String prefix = prefix("psg");
+        IndexWriter.write(prefix, index, 0);
+        try (IndexReader reader = new IndexReader(prefix)) {
+            assertTrue(reader.hasPassages());
+            Passages passages = reader.getPassages(0);
+            assertEquals(2, passages.size());
+            assertPassage(document, passages, 0, "The Quick, brown fox.", 4, "the", "quick", "brown", "fox");
+            assertPassage(document, passages, 1, "DeWitte (jumps) over", 3, "dewitte", "jumps");
+            assertEquals(1, passages.getPosition(passages.getOccurrenceStart(1) + 1));
+            assertEquals(0, reader.getPassages(1).size());
+        }
+    }
+
+    @Test
+    public void testNoPassagesForNGrams() throws IOException {
+        InMemoryIndex index = new InMemoryIndex();
+        index.addDocument("D0", Arrays.asList("brown fox", "fox jumps"), 3,
+                "brown fox jumps".getBytes(StandardCharsets.UTF_8));
+        String prefix = prefix("ngrams");
+        IndexWriter.write(prefix, index, 0);
+        assertFalse(new File(prefix + IndexWriter.PASSAGES_EXTENSION).exists());
+        try (IndexReader reader = new IndexReader(prefix)) {
+            assertFalse(reader.hasPassages());
+        }
+    }
+
+    private String prefix(String name) {
+        return folder.getRoot().getPath() + "/" + name;
+    }
+
+    private static void assertPassage(String document, Passages passages, int passage, String text, int wordCount,
+                                      String... terms) {
+        int start = passages.getStart(passage);
+        assertEquals(text, document.substring(start, start + passages.getLength(passage)));
+        assertEquals(wordCount, passages.getWordCount(passage));
+        assertEquals(terms.length, passages.getOccurrenceEnd(passage) - passages.getOccurrenceStart(passage));
+        for (int i = 0; i < terms.length; i++) {
+            assertEquals(terms[i], passages.getTerm(passages.getOccurrenceStart(passage) + i));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package athena.index;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Phrase and proximity matches over positional postings, against counting the matches in the words of every document.
+ */
+public class PhraseMatcherTest {
+
+    private static final String[] VOCABULARY = {"a", "b", "c", "d", "e"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPhrase() {
+        InMemoryIndex index = new InMemoryIndex(true);
+        index.addDocument("D0", words("the quick brown fox jumps over the quick brown dog"), 10);
+        index.addDocument("D1", words("brown quick fox"), 3);
+        index.addDocument("D2", words("quick brown quick brown quick"), 5);
+        PostingsList matches = matchPhrase(index, "quick brown");
+        assertPostings(matches, new int[]{0, 2}, new int[]{2, 2});
+        assertPostings(matchPhrase(index, "the quick brown"), new int[]{0}, new int[]{2});
+        assertPostings(matchPhrase(index, "brown quick"), new int[]{1, 2}, new int[]{1, 2});
+        assertEquals(0, matchPhrase(index, "fox brown").size());
+        assertEquals(0, matchPhrase(index, "brown fox jumps the").size());
+    }
+
+    @Test
+    public void testWithin() {
+        InMemoryIndex index = new InMemoryIndex(true);
+        index.addDocument("D0", words("the quick brown fox jumps over the quick brown dog"), 10);
+        index.addDocument("D1", words("fox quick"), 2);
+        // quick at 1 and 7, fox at 3
+        assertPostings(matchWithin(index, "fox quick", 3), new int[]{0, 1}, new int[]{1, 1});
+        assertPostings(matchWithin(index, "fox quick", 5), new int[]{0, 1}, new int[]{2, 1});
+        assertPostings(matchWithin(index, "quick fox", 2), new int[]{1}, new int[]{1});
+        assertEquals(0, matchWithin(index, "the dog", 3).size());
+        assertPostings(matchWithin(index, "the dog", 4), new int[]{0}, new int[]{1});
+    }
+
+    @Test
+    public void testRandomPhrases() {
+        Random random = new Random(9);
+        InMemoryIndex index = new InMemoryIndex(true);
+        List<List<String>> documents = new ArrayList<>();
+        for (int docId = 0; docId < 300; docId++) {
+            List<String> words = randomWords(random);
+            documents.add(words);
+            index.addDocument("D" + docId, words, words.size());
+        }
+        for (int q = 0; q < 200; q++) {
+            List<String> phrase = randomPhrase(random);
+            PostingsList matches = PhraseMatcher.matchPhrase(getPostings(index, phrase));
+            int i = 0;
+            for (int docId = 0; docId < documents.size(); docId++) {
+                int count = countPhrase(documents.get(docId), phrase);
+                if (count > 0) {
+                    assertEquals(phrase.toString(), docId, matches.getDocIds()[i]);
+                    assertEquals(phrase.toString(), count, matches.getFrequencies()[i]);
+                    i++;
+                }
+            }
+            assertEquals(phrase.toString(), i, matches.size());
+        }
+    }
+
+    // Two segments with deletes, the phrases are matched over the live postings with shifted docIds
+    @Test
+    public void testPhraseOverSegments() throws IOException {
+        String indexPrefix = folder.getRoot().getPath() + "/Index";
+        SegmentManager segmentManager = new SegmentManager(indexPrefix, 10);
+        Random random = new Random(4);
+        List<List<String>> documents = new ArrayList<>();
+        for (int s = 0; s < 2; s++) {
+            InMemoryIndex index = new InMemoryIndex(true);
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < 150; i++) {
+                List<String> words = randomWords(random);
+                documents.add(words);
+                names.add("D" + (documents.size() - 1));
+                index.addDocument(names.get(i), words, words.size());
+            }
+            String segmentName = segmentManager.newSegmentName();
+            IndexWriter.write(segmentManager.getSegmentPrefix(segmentName), index, 0);
+            if (s == 0) {
+                segmentManager.replaceAll(segmentName, index.getDocumentCount());
+            } else {
+                segmentManager.addSegment(segmentName, index.getDocumentCount(), names);
+            }
+        }
+        List<String> deleted = new ArrayList<>();
+        for (int docId = 0; docId < documents.size(); docId += 5) {
+            deleted.add("D" + docId);
+        }
+        segmentManager.deleteDocuments(deleted);
+        segmentManager.close();
+        try (IndexSnapshot indexSnapshot = new IndexSnapshot(indexPrefix)) {
+            assertTrue(indexSnapshot.hasPositions());
+            for (int q = 0; q < 100; q++) {
+                List<String> phrase = randomPhrase(random);
+                PostingsList matches = indexSnapshot.getPhrasePostings(phrase, 0);
+                int i = 0;
+                for (int docId = 0; docId < documents.size(); docId++) {
+                    int count = countPhrase(documents.get(docId), phrase);
+                    if (count > 0 && indexSnapshot.isLive(docId)) {
+                        assertEquals(phrase.toString(), docId, matches.getDocIds()[i]);
+                        assertEquals(phrase.toString(), count, matches.getFrequencies()[i]);
+                        i++;
+                    }
+                }
+                if (i == 0) {
+                    assertNull(phrase.toString(), matches);
+                } else {
+                    assertEquals(phrase.toString(), i, matches.size());
+                }
+            }
+            // every live document is shorter than the window, it matches when it holds all the terms
+            List<String> terms = Arrays.asList("a", "e");
+            PostingsList matches = indexSnapshot.getPhrasePostings(terms, 100);
+            int i = 0;
+            for (int docId = 0; docId < documents.size(); docId++) {
+                if (indexSnapshot.isLive(docId) && documents.get(docId).containsAll(terms)) {
+                    assertEquals(docId, matches.getDocIds()[i++]);
+                }
+            }
+            assertEquals(i, matches.size());
+        }
+    }
+
+    private static List<String> words(String text) {
+        return Arrays.asList(text.split(" "));
+    }
+
+    private static List<PostingsList> getPostings(InMemoryIndex index, List<String> terms) {
+        List<PostingsList> termPostings = new ArrayList<>();
+        for (String term : terms) {
+            PostingsList postings = index.getPostings(term);
+            termPostings.add(postings == null ? new PostingsList() : postings);
+        }
+        return termPostings;
+    }
+
+    private static PostingsList matchPhrase(InMemoryIndex index, String phrase) {
+        return PhraseMatcher.matchPhrase(getPostings(index, words(phrase)));
+    }
+
+    private static PostingsList matchWithin(InMemoryIndex index, String terms, int window) {
+        return PhraseMatcher.matchWithin(getPostings(index, words(terms)), window);
+    }
+
+    private static List<String> randomWords(Random random) {
+        List<String> words = new ArrayList<>();
+        int length = 1 + random.nextInt(40);
+        for (int i = 0; i < length; i++) {
+            words.add(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+        }
+        return words;
+    }
+
+    private static List<String> randomPhrase(Random random) {
+        List<String> phrase = new ArrayList<>();
+        int length = 2 + random.nextInt(2);
+        for (int i = 0; i < length; i++) {
+            phrase.add(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+        }
+        return phrase;
+    }
+
+    private static int countPhrase(List<String> words, List<String> phrase) {
+        int count = 0;
+        for (int p = 0; p + phrase.size() <= words.size(); p++) {
+            if (words.subList(p, p + phrase.size()).equals(phrase)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void assertPostings(PostingsList postings, int[] docIds, int[] frequencies) {
+        assertEquals(docIds.length, postings.size());
+        for (int i = 0; i < docIds.length; i++) {
+            assertEquals(docIds[i], postings.getDocIds()[i]);
+            assertEquals(frequencies[i], postings.getFrequencies()[i]);
+        }
+    }
+}
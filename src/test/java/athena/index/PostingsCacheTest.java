@@ -0,0 +1,101 @@
+package athena.index;
+
+import athena.utils.TinyLfuCache;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static athena.index.RandomIndexes.randomTerms;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Postings served from the cache of a snapshot have to be the postings decoded from the segments, positions and
+ * block maxima included, over segments with deletes.
+ */
+public class PostingsCacheTest {
+
+    private static final int SEGMENT_DOCUMENTS = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCachedPostingsMatchDecoded() throws IOException {
+        String indexPrefix = folder.getRoot().getPath() + "/Index";
+        SegmentManager segmentManager = new SegmentManager(indexPrefix, 10);
+        Random random = new Random(18);
+        for (int s = 0; s < 2; s++) {
+            InMemoryIndex index = new InMemoryIndex(true);
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < SEGMENT_DOCUMENTS; i++) {
+                List<String> terms = randomTerms(random);
+                names.add("D" + (s * SEGMENT_DOCUMENTS + i));
+                index.addDocument(names.get(i), terms, terms.size());
+            }
+            String segmentName = segmentManager.newSegmentName();
+            IndexWriter.write(segmentManager.getSegmentPrefix(segmentName), index, 0);
+            if (s == 0) {
+                segmentManager.replaceAll(segmentName, index.getDocumentCount());
+            } else {
+                segmentManager.addSegment(segmentName, index.getDocumentCount(), names);
+            }
+        }
+        List<String> deleted = new ArrayList<>();
+        for (int docId = 0; docId < 2 * SEGMENT_DOCUMENTS; docId += 9) {
+            deleted.add("D" + docId);
+        }
+        segmentManager.deleteDocuments(deleted);
+        segmentManager.close();
+        try (IndexSnapshot decoded = new IndexSnapshot(indexPrefix);
+             IndexSnapshot cached = new IndexSnapshot(indexPrefix)) {
+            cached.setPostingsCacheSize(1);
+            TinyLfuCache<String, PostingsList> cache = cached.getPostingsCache();
+            List<String> terms = decoded.getTerms();
+            // the second pass is answered from the cache
+            for (int pass = 0; pass < 2; pass++) {
+                for (String term : terms) {
+                    assertPostingsEquals(term, decoded.getPostings(term), cached.getPostings(term));
+                    assertPostingsEquals(term, decoded.getPositionalPostings(term),
+                            cached.getPositionalPostings(term));
+                }
+                assertTrue(cache.weight() <= 1024L * 1024L);
+            }
+            assertTrue(cache.getHitCount() > 0);
+            assertEquals(4 * terms.size(), cache.getHitCount() + cache.getMissCount());
+            assertNull(cached.getPostings("missing"));
+        }
+    }
+
+    private static void assertPostingsEquals(String term, PostingsList expected, PostingsList actual) {
+        if (expected == null) {
+            assertNull(term, actual);
+            return;
+        }
+        assertEquals(term, expected.size(), actual.size());
+        assertArrayEquals(term, Arrays.copyOf(expected.getDocIds(), expected.size()),
+                Arrays.copyOf(actual.getDocIds(), actual.size()));
+        assertArrayEquals(term, Arrays.copyOf(expected.getFrequencies(), expected.size()),
+                Arrays.copyOf(actual.getFrequencies(), actual.size()));
+        assertEquals(term, expected.hasPositions(), actual.hasPositions());
+        if (expected.hasPositions()) {
+            int length = expected.getPositionStart(expected.size());
+            assertEquals(term, length, actual.getPositionStart(actual.size()));
+            assertArrayEquals(term, Arrays.copyOf(expected.getPositions(), length),
+                    Arrays.copyOf(actual.getPositions(), length));
+        }
+        assertEquals(term, expected.hasBlockMaxima(), actual.hasBlockMaxima());
+        for (int block = 0; expected.hasBlockMaxima() && block < expected.getBlockCount(); block++) {
+            assertEquals(term, expected.getBlockMaxFrequency(block), actual.getBlockMaxFrequency(block));
+            assertEquals(term, expected.getBlockMinDocumentLength(block), actual.getBlockMinDocumentLength(block));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package athena.index;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Random documents of a small vocabulary with multi-byte words, for the tests writing and reading index files.
+ */
+final class RandomIndexes {
+
+    private static final String[] WORDS = {"Search", "engine", "index", "posting", "query", "Snippet", "block",
+            "merge", "segment", "\u00fcber", "na\u00efve", "caf\u00e9"};
+
+    private RandomIndexes() {
+    }
+
+    // Every nth document is added without its content, 0 stores all of them
+    static InMemoryIndex buildIndex(int documentCount, int withoutContent) {
+        Random random = new Random(documentCount);
+        InMemoryIndex index = new InMemoryIndex();
+        for (int docId = 0; docId < documentCount; docId++) {
+            List<String> terms = randomTerms(random);
+            byte[] content = withoutContent > 0 && docId % withoutContent == 0 ? null :
+                    randomContent(random, terms);
+            index.addDocument("D" + docId, terms, terms.size(), content);
+        }
+        return index;
+    }
+
+    static List<String> randomTerms(Random random) {
+        List<String> terms = new ArrayList<>();
+        int length = 1 + random.nextInt(120);
+        for (int i = 0; i < length; i++) {
+            terms.add(WORDS[random.nextInt(WORDS.length)].toLowerCase() + random.nextInt(1 + random.nextInt(60)));
+        }
+        return terms;
+    }
+
+    // The terms as lines of text between markup
+    static byte[] randomContent(Random random, List<String> terms) {
+        StringBuilder content = new StringBuilder("<html>\n<pre>\n");
+        for (String term : terms) {
+            content.append(random.nextInt(8) == 0 ? "\n" : " ").append(term);
+            if (random.nextInt(10) == 0) {
+                content.append(", ").append(WORDS[random.nextInt(WORDS.length)]).append('.');
+            }
+        }
+        return content.append("\n</pre>\n</html>\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static void assertFileEquals(String expectedPrefix, String actualPrefix, String extension) throws IOException {
+        assertArrayEquals(extension, Files.readAllBytes(Paths.get(expectedPrefix + extension)),
+                Files.readAllBytes(Paths.get(actualPrefix + extension)));
+    }
+}
@@ -0,0 +1,109 @@
+package athena.index;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reopening the snapshot on a new commit, the old snapshot and its files stay until the last query released it.
+ */
+public class SnapshotManagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private InvertedIndexer invertedIndexer;
+    private SegmentManager segmentManager;
+    private SnapshotManager snapshotManager;
+
+    @Before
+    public void createIndex() throws IOException {
+        String indexPrefix = folder.getRoot().getPath() + "/Index";
+        invertedIndexer = new InvertedIndexer("snapshot") {
+            @Override
+            public String getIndexPrefix() {
+                return indexPrefix;
+            }
+        };
+        invertedIndexer.setMergeFactor(10);
+        invertedIndexer.setMemoryBudget(0);
+        segmentManager = invertedIndexer.getSegmentManager();
+        segmentManager.replaceAll(writeSegment("D0", "first"), 1);
+        snapshotManager = new SnapshotManager(invertedIndexer);
+    }
+
+    @After
+    public void close() {
+        snapshotManager.close();
+        invertedIndexer.close();
+    }
+
+    @Test
+    public void testReopenOnlyOnNewCommit() throws IOException {
+        IndexSnapshot first = snapshotManager.acquire();
+        snapshotManager.release(first);
+        assertFalse(snapshotManager.maybeReopen());
+        IndexSnapshot same = snapshotManager.acquire();
+        assertSame(first, same);
+        snapshotManager.release(same);
+
+        segmentManager.addSegment(writeSegment("D1", "second"), 1, Collections.singletonList("D1"));
+        assertTrue(snapshotManager.maybeReopen());
+        IndexSnapshot reopened = snapshotManager.acquire();
+        try {
+            assertNotSame(first, reopened);
+            assertEquals(segmentManager.getVersion(), reopened.getVersion());
+            assertEquals(2, reopened.getDocumentCount());
+            assertFalse(first.tryIncRef());
+        } finally {
+            snapshotManager.release(reopened);
+        }
+    }
+
+    @Test
+    public void testOldSnapshotClosedByLastRelease() throws IOException {
+        IndexSnapshot old = snapshotManager.acquire();
+        String firstSegment = segmentManager.getSegmentPrefixes().get(0);
+        File postings = new File(firstSegment + IndexWriter.POSTINGS_EXTENSION);
+
+        segmentManager.replaceAll(writeSegment("D1", "second"), 1);
+        assertTrue(snapshotManager.maybeReopen());
+        // the query still running reads the old documents
+        assertTrue(postings.exists());
+        assertEquals(1, old.getPostings("first").size());
+        IndexSnapshot reopened = snapshotManager.acquire();
+        assertEquals(1, reopened.getPostings("second").size());
+        snapshotManager.release(reopened);
+
+        snapshotManager.release(old);
+        assertFalse(old.tryIncRef());
+        assertFalse(postings.exists());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosedManagerThrows() {
+        snapshotManager.close();
+        snapshotManager.acquire();
+    }
+
+    // Writes a segment of one document holding the term, not committed yet
+    private String writeSegment(String documentName, String term) throws IOException {
+        InMemoryIndex index = new InMemoryIndex();
+        index.addDocument(documentName, Collections.singletonList(term), 1);
+        String segmentName = segmentManager.newSegmentName();
+        IndexWriter.write(segmentManager.getSegmentPrefix(segmentName), index, 0);
+        return segmentName;
+    }
+}
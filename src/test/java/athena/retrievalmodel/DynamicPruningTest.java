@@ -0,0 +1,198 @@
+package athena.retrievalmodel;
+
+import athena.index.InMemoryIndex;
+import athena.index.IndexSnapshot;
+import athena.index.IndexWriter;
+import athena.index.PostingsList;
+import athena.index.SegmentManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * WAND, Block-Max WAND and MaxScore have to return the same top k as scoring every posting, over an index of two
+ * segments with deleted documents so the block maxima of the live postings are bounds and not exact.
+ */
+public class DynamicPruningTest {
+
+    private static final int DOCUMENT_COUNT = 3000;
+    private static final int VOCABULARY_SIZE = 400;
+    private static final int QUERY_COUNT = 60;
+    private static final int[] K_VALUES = {1, 10, 100, 1000, DOCUMENT_COUNT};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private IndexSnapshot indexSnapshot;
+
+    @Before
+    public void buildIndex() throws IOException {
+        String indexPrefix = folder.getRoot().getPath() + "/Index";
+        SegmentManager segmentManager = new SegmentManager(indexPrefix, 100);
+        Random random = new Random(42);
+        InMemoryIndex first = new InMemoryIndex();
+        InMemoryIndex second = new InMemoryIndex();
+        List<String> secondNames = new ArrayList<>();
+        for (int i = 0; i < DOCUMENT_COUNT; i++) {
+            List<String> terms = randomDocument(random);
+            if (i < DOCUMENT_COUNT / 2) {
+                first.addDocument("D" + i, terms, terms.size());
+            } else {
+                second.addDocument("D" + i, terms, terms.size());
+                secondNames.add("D" + i);
+            }
+        }
+        String firstSegment = segmentManager.newSegmentName();
+        IndexWriter.write(segmentManager.getSegmentPrefix(firstSegment), first, 0);
+        segmentManager.replaceAll(firstSegment, first.getDocumentCount());
+        String secondSegment = segmentManager.newSegmentName();
+        IndexWriter.write(segmentManager.getSegmentPrefix(secondSegment), second, 0);
+        segmentManager.addSegment(secondSegment, second.getDocumentCount(), secondNames);
+        List<String> deleted = new ArrayList<>();
+        for (int i = 0; i < DOCUMENT_COUNT; i += 7) {
+            deleted.add("D" + i);
+        }
+        segmentManager.deleteDocuments(deleted);
+        segmentManager.close();
+        indexSnapshot = new IndexSnapshot(indexPrefix);
+        assertEquals(DOCUMENT_COUNT, indexSnapshot.getMaxDoc());
+    }
+
+    @After
+    public void closeIndex() {
+        indexSnapshot.close();
+    }
+
+    @Test
+    public void testWandMatchesExhaustive() {
+        compareWithExhaustive(Evaluation.WAND);
+    }
+
+    @Test
+    public void testBlockMaxWandMatchesExhaustive() {
+        compareWithExhaustive(Evaluation.BLOCK_MAX_WAND);
+    }
+
+    @Test
+    public void testMaxScoreMatchesExhaustive() {
+        compareWithExhaustive(Evaluation.MAX_SCORE);
+    }
+
+    @Test
+    public void testBlockMaximaBoundLivePostings() {
+        for (int t = 0; t < VOCABULARY_SIZE; t++) {
+            PostingsList postings = indexSnapshot.getPostings(term(t));
+            if (postings == null) {
+                continue;
+            }
+            assertTrue(postings.hasBlockMaxima());
+            for (int i = 0; i < postings.size(); i++) {
+                int block = i / PostingsList.BLOCK_SIZE;
+                assertTrue(postings.getFrequencies()[i] <= postings.getBlockMaxFrequency(block));
+                assertTrue(indexSnapshot.getDocumentLength(postings.getDocIds()[i]) >=
+                        postings.getBlockMinDocumentLength(block));
+            }
+        }
+    }
+
+    private enum Evaluation {
+        WAND, BLOCK_MAX_WAND, MAX_SCORE
+    }
+
+    private void compareWithExhaustive(Evaluation evaluation) {
+        Random random = new Random(7);
+        for (int q = 0; q < QUERY_COUNT; q++) {
+            List<String> query = randomQuery(random);
+            for (int k : K_VALUES) {
+                double[] expectedScores = new double[k];
+                int[] expected = exhaustive(query).getTopK(k).drain(expectedScores);
+                TopKCollector collector = new TopKCollector(k);
+                List<PostingsCursor> cursors = getCursors(query);
+                if (evaluation == Evaluation.MAX_SCORE) {
+                    MaxScoreEvaluator.evaluate(cursors, collector);
+                } else {
+                    WandEvaluator.evaluate(cursors, collector, evaluation == Evaluation.BLOCK_MAX_WAND);
+                }
+                double[] actualScores = new double[k];
+                int[] actual = collector.drain(actualScores);
+                String message = evaluation + " " + query + " k=" + k;
+                assertArrayEquals(message, expected, actual);
+                assertArrayEquals(message, expectedScores, actualScores, 0);
+            }
+        }
+    }
+
+    // Term at a time over every posting, in query term order like the evaluators add up a document
+    private ScoreAccumulator exhaustive(List<String> query) {
+        ScoreAccumulator scores = new ScoreAccumulator(indexSnapshot.getMaxDoc());
+        for (String term : query) {
+            PostingsList postings = indexSnapshot.getPostings(term);
+            if (postings == null) {
+                continue;
+            }
+            TermScorer scorer = getScorer(postings);
+            for (int i = 0; i < postings.size(); i++) {
+                int docId = postings.getDocIds()[i];
+                scores.add(docId, scorer.score(postings.getFrequencies()[i], indexSnapshot.getDocumentLength(docId)));
+            }
+        }
+        return scores;
+    }
+
+    private List<PostingsCursor> getCursors(List<String> query) {
+        List<PostingsCursor> cursors = new ArrayList<>();
+        for (String term : query) {
+            PostingsList postings = indexSnapshot.getPostings(term);
+            if (postings != null) {
+                cursors.add(new PostingsCursor(postings, indexSnapshot, getScorer(postings)));
+            }
+        }
+        return cursors;
+    }
+
+    // BM25 with k1 1.2 and b 0.75
+    private TermScorer getScorer(PostingsList postings) {
+        double idf = Math.log((indexSnapshot.getDocumentCount() - postings.size() + 0.5) / (postings.size() + 0.5) + 1);
+        double averageLength = indexSnapshot.getAverageDocumentLength();
+        return (frequency, documentLength) -> idf * frequency * 2.2 /
+                (frequency + 1.2 * (0.25 + 0.75 * documentLength / averageLength));
+    }
+
+    // Zipf-like term draws, so a few terms have long postings with many blocks
+    private static List<String> randomDocument(Random random) {
+        int length = 5 + random.nextInt(200);
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            terms.add(term(zipf(random)));
+        }
+        return terms;
+    }
+
+    private static List<String> randomQuery(Random random) {
+        String[] query = new String[1 + random.nextInt(6)];
+        for (int i = 0; i < query.length; i++) {
+            query[i] = term(random.nextBoolean() ? zipf(random) : random.nextInt(VOCABULARY_SIZE));
+        }
+        return Arrays.asList(query);
+    }
+
+    private static int zipf(Random random) {
+        return (int) Math.min(VOCABULARY_SIZE - 1, Math.floor(Math.pow(VOCABULARY_SIZE, random.nextDouble())) - 1);
+    }
+
+    private static String term(int t) {
+        return "t" + t;
+    }
+}
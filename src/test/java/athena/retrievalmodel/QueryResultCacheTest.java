@@ -0,0 +1,263 @@
+package athena.retrievalmodel;
+
+import athena.index.IndexSnapshot;
+import athena.index.InvertedIndexer;
+import athena.index.SnapshotManager;
+import athena.utils.CommonUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Repeated queries are answered from the cache until documents are added to or deleted from the index, the rankings
+ * of the older index versions are never served again.
+ */
+public class QueryResultCacheTest {
+
+    private static final int CORPUS_SIZE = 60;
+    private static final int ADDED_DOCUMENTS = 5;
+    // Title words of CACM-0061, the first added document
+    private static final String ADDED_DOCUMENT_QUERY = "tape matrix compiler";
+
+    private static ClassPathXmlApplicationContext context;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void createContext() {
+        context = new ClassPathXmlApplicationContext("spring/bean.xml");
+    }
+
+    @AfterClass
+    public static void closeContext() {
+        context.close();
+    }
+
+    @Test
+    public void testHits() {
+        QueryResultCache cache = new QueryResultCache();
+        cache.setMaximumSize(2);
+        AtomicInteger computed = new AtomicInteger();
+        Ranking first = cache.getRanking("a", 1, () -> count(computed));
+        assertSame(first, cache.getRanking("a", 1, () -> count(computed)));
+        assertEquals(1, computed.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        cache.getRanking("b", 1, () -> count(computed));
+        cache.getRanking("c", 1, () -> count(computed));
+        assertTrue(cache.size() <= 2);
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertNotSame(first, cache.getRanking("a", 1, () -> count(computed)));
+        assertEquals(4, computed.get());
+    }
+
+    @Test
+    public void testDisabled() {
+        QueryResultCache cache = new QueryResultCache();
+        cache.setMaximumSize(0);
+        assertFalse(cache.isEnabled());
+        AtomicInteger computed = new AtomicInteger();
+        cache.getRanking("a", 1, () -> count(computed));
+        cache.getRanking("a", 1, () -> count(computed));
+        assertEquals(2, computed.get());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    // A ranking computed while a query of a newer index version came in belongs to the old version, it is not kept
+    @Test
+    public void testNotKeptForOldVersion() {
+        QueryResultCache cache = new QueryResultCache();
+        cache.setMaximumSize(10);
+        AtomicInteger computed = new AtomicInteger();
+        cache.getRanking("a", 1, () -> {
+            cache.getRanking("b", 2, () -> count(computed));
+            return count(computed);
+        });
+        assertEquals(1, cache.size());
+        cache.getRanking("a", 2, () -> count(computed));
+        assertEquals(3, computed.get());
+    }
+
+    @Test
+    public void testInvalidatedByIndexChanges() throws IOException {
+        File[] files = getCacmFiles();
+        File corpus = copyCorpus(files);
+        String indexPrefix = folder.newFolder().getPath() + File.separator + "Index";
+        InvertedIndexer indexer = new InvertedIndexer("test") {
+            @Override
+            public String getIndexPrefix() {
+                return indexPrefix;
+            }
+        };
+        context.getAutowireCapableBeanFactory().autowireBean(indexer);
+        QueryResultCache cache = new QueryResultCache();
+        cache.setMaximumSize(10);
+        AtomicInteger computed = new AtomicInteger();
+        try {
+            indexer.createIndex(corpus.getPath());
+            try (IndexSnapshot indexSnapshot = new IndexSnapshot(indexPrefix)) {
+                Ranking ranking = getRanking(cache, indexSnapshot, computed);
+                assertSame(ranking, getRanking(cache, indexSnapshot, computed));
+                assertEquals(CORPUS_SIZE, ranking.size());
+                assertEquals(1, computed.get());
+            }
+
+            indexer.addDocuments(Arrays.copyOfRange(files, CORPUS_SIZE, CORPUS_SIZE + ADDED_DOCUMENTS));
+            try (IndexSnapshot indexSnapshot = new IndexSnapshot(indexPrefix)) {
+                Ranking ranking = getRanking(cache, indexSnapshot, computed);
+                assertEquals(2, computed.get());
+                assertEquals(1, cache.getInvalidationCount());
+                assertEquals(CORPUS_SIZE + ADDED_DOCUMENTS, ranking.size());
+                assertEquals(indexSnapshot.getVersion(), ranking.getIndexVersion());
+                assertSame(ranking, getRanking(cache, indexSnapshot, computed));
+            }
+
+            assertEquals(1, indexer.deleteDocuments(Collections.singletonList(
+                    files[0].getName().replace(".html", ""))));
+            try (IndexSnapshot indexSnapshot = new IndexSnapshot(indexPrefix)) {
+                Ranking ranking = getRanking(cache, indexSnapshot, computed);
+                assertEquals(3, computed.get());
+                assertEquals(2, cache.getInvalidationCount());
+                assertEquals(CORPUS_SIZE + ADDED_DOCUMENTS - 1, ranking.size());
+            }
+        } finally {
+            indexer.close();
+        }
+    }
+
+    // The snapshot manager of the context reopens the index, which empties the cache before any query asks for the
+    // new version. A query still running on the old snapshot is neither answered from the cache nor empties it again
+    @Test
+    public void testInvalidatedBySnapshotReopen() throws IOException {
+        File[] files = getCacmFiles();
+        File corpus = copyCorpus(files);
+        String indexPrefix = folder.newFolder().getPath() + File.separator + "Index";
+        ClassPathXmlApplicationContext indexContext = new ClassPathXmlApplicationContext(
+                new String[]{"spring/bean.xml"}, false);
+        indexContext.addBeanFactoryPostProcessor(beanFactory -> {
+            BeanDefinition indexer = beanFactory.getBeanDefinition("invertedIndexer");
+            indexer.setBeanClassName(TemporaryIndexer.class.getName());
+            indexer.getConstructorArgumentValues().addIndexedArgumentValue(1, indexPrefix);
+        });
+        indexContext.refresh();
+        try {
+            InvertedIndexer indexer = (InvertedIndexer) indexContext.getBean("invertedIndexer");
+            SnapshotManager snapshotManager = (SnapshotManager) indexContext.getBean("snapshotManager");
+            RetrievalModel retrievalModel = (RetrievalModel) indexContext.getBean("retrievalModel");
+            QueryResultCache cache = (QueryResultCache) indexContext.getBean("queryResultCache");
+            indexer.createIndex(corpus.getPath());
+
+            IndexSnapshot old = snapshotManager.acquire();
+            try (Ranking first = retrievalModel.getTopK(ADDED_DOCUMENT_QUERY, 1, CORPUS_SIZE);
+                 Ranking cached = retrievalModel.getTopK(ADDED_DOCUMENT_QUERY, 1, CORPUS_SIZE)) {
+                assertSame(first, cached);
+                assertFalse(getDocumentNames(first).contains("CACM-0061"));
+            }
+
+            indexer.addDocuments(Arrays.copyOfRange(files, CORPUS_SIZE, CORPUS_SIZE + ADDED_DOCUMENTS));
+            assertTrue(snapshotManager.maybeReopen());
+            assertEquals(1, cache.getInvalidationCount());
+            assertEquals(0, cache.size());
+
+            AtomicInteger computed = new AtomicInteger();
+            getRanking(cache, old, computed);
+            getRanking(cache, old, computed);
+            snapshotManager.release(old);
+            assertEquals(2, computed.get());
+            assertEquals(1, cache.getInvalidationCount());
+
+            try (Ranking reopened = retrievalModel.getTopK(ADDED_DOCUMENT_QUERY, 1, CORPUS_SIZE);
+                 Ranking cached = retrievalModel.getTopK(ADDED_DOCUMENT_QUERY, 1, CORPUS_SIZE)) {
+                assertSame(reopened, cached);
+                assertEquals(indexer.getSegmentManager().getVersion(), reopened.getIndexVersion());
+                assertTrue(getDocumentNames(reopened).contains("CACM-0061"));
+            }
+            assertEquals(1, cache.getInvalidationCount());
+        } finally {
+            indexContext.close();
+        }
+    }
+
+    // The context's indexer, writing to the temporary folder
+    public static class TemporaryIndexer extends InvertedIndexer {
+
+        private final String indexPrefix;
+
+        public TemporaryIndexer(String folderName, String indexPrefix) {
+            super(folderName);
+            this.indexPrefix = indexPrefix;
+        }
+
+        @Override
+        public String getIndexPrefix() {
+            return indexPrefix;
+        }
+    }
+
+    private File[] getCacmFiles() {
+        CommonUtils commonUtils = (CommonUtils) context.getBean("commonUtils");
+        Properties properties = (Properties) context.getBean("searchEngineProperties");
+        File[] files = new File(commonUtils.getResourcePath() + properties.getProperty("search.engine.input.folder"))
+                .listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    // The first documents of the corpus in a folder of their own
+    private File copyCorpus(File[] files) throws IOException {
+        File corpus = folder.newFolder("cacm");
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            Files.copy(files[i].toPath(), new File(corpus, files[i].getName()).toPath());
+        }
+        return corpus;
+    }
+
+    private static List<String> getDocumentNames(Ranking ranking) {
+        List<String> names = new ArrayList<>();
+        for (int rank = 0; rank < ranking.size(); rank++) {
+            names.add(ranking.getDocumentName(rank));
+        }
+        return names;
+    }
+
+    private static Ranking count(AtomicInteger computed) {
+        computed.incrementAndGet();
+        return new Ranking(new TopKCollector(0), null);
+    }
+
+    // Every live document, the shortest first
+    private static Ranking getRanking(QueryResultCache cache, IndexSnapshot indexSnapshot, AtomicInteger computed) {
+        return cache.getRanking("all", indexSnapshot.getVersion(), () -> {
+            computed.incrementAndGet();
+            TopKCollector collector = new TopKCollector(indexSnapshot.getMaxDoc());
+            for (int docId = 0; docId < indexSnapshot.getMaxDoc(); docId++) {
+                if (indexSnapshot.isLive(docId)) {
+                    collector.collect(docId, -indexSnapshot.getDocumentLength(docId));
+                }
+            }
+            return new Ranking(collector, indexSnapshot);
+        });
+    }
+}
@@ -0,0 +1,102 @@
+package athena.retrievalmodel;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The heap has to keep the same k pairs in the same order as sorting all of them by descending score and ascending id.
+ */
+public class TopKCollectorTest {
+
+    private static final int[] K_VALUES = {1, 2, 10, 100, 1000};
+
+    @Test
+    public void testOrderAndTies() {
+        TopKCollector collector = new TopKCollector(4);
+        collector.collect(7, 1.0);
+        collector.collect(3, 2.0);
+        collector.collect(9, 2.0);
+        collector.collect(1, 0.5);
+        assertEquals(0.5, collector.getThreshold(), 0);
+        // beats the weakest pair, a tie on score goes to the lower id
+        collector.collect(5, 1.0);
+        collector.collect(8, 1.0);
+        collector.collect(0, -1.0);
+        double[] scores = new double[4];
+        assertArrayEquals(new int[]{3, 9, 5, 7}, collector.drain(scores));
+        assertArrayEquals(new double[]{2.0, 2.0, 1.0, 1.0}, scores, 0);
+        assertEquals(0, collector.size());
+    }
+
+    @Test
+    public void testThresholdBeforeFull() {
+        TopKCollector collector = new TopKCollector(3);
+        collector.collect(1, 4.0);
+        collector.collect(2, 3.0);
+        assertEquals(Double.NEGATIVE_INFINITY, collector.getThreshold(), 0);
+        collector.collect(3, 5.0);
+        assertEquals(3.0, collector.getThreshold(), 0);
+        assertArrayEquals(new int[]{3, 1, 2}, collector.drain(null));
+    }
+
+    @Test
+    public void testEmptyAndZeroK() {
+        assertEquals(0, new TopKCollector(5).drain(new double[5]).length);
+        TopKCollector collector = new TopKCollector(0);
+        collector.collect(1, 1.0);
+        assertEquals(0, collector.size());
+        assertEquals(0, collector.drain(null).length);
+    }
+
+    // Scores drawn from a few values so that many of them tie
+    @Test
+    public void testRandomAgainstFullSort() {
+        Random random = new Random(11);
+        for (int round = 0; round < 50; round++) {
+            int n = random.nextInt(2000);
+            List<double[]> pairs = new ArrayList<>();
+            for (int id = 0; id < n; id++) {
+                pairs.add(new double[]{id, random.nextInt(round % 2 == 0 ? 8 : 100000) / 4.0});
+            }
+            Collections.shuffle(pairs, random);
+            List<double[]> sorted = new ArrayList<>(pairs);
+            sorted.sort((a, b) -> a[1] != b[1] ? Double.compare(b[1], a[1]) : Double.compare(a[0], b[0]));
+            for (int k : K_VALUES) {
+                TopKCollector collector = new TopKCollector(k);
+                for (double[] pair : pairs) {
+                    collector.collect((int) pair[0], pair[1]);
+                }
+                int expectedSize = Math.min(k, n);
+                assertEquals(expectedSize, collector.size());
+                double[] scores = new double[expectedSize];
+                int[] ids = collector.drain(scores);
+                assertEquals(expectedSize, ids.length);
+                for (int i = 0; i < expectedSize; i++) {
+                    assertEquals(sorted.get(i)[0], ids[i], 0);
+                    assertEquals(sorted.get(i)[1], scores[i], 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAccumulatorTopK() {
+        ScoreAccumulator accumulator = new ScoreAccumulator(10);
+        accumulator.add(4, 1.5);
+        accumulator.add(2, 1.0);
+        accumulator.add(4, 0.5);
+        accumulator.add(8, 2.0);
+        accumulator.add(6, 0.25);
+        double[] scores = new double[3];
+        assertArrayEquals(new int[]{4, 8, 2}, accumulator.getTopK(3).drain(scores));
+        assertArrayEquals(new double[]{2.0, 2.0, 1.0}, scores, 0);
+        assertEquals(4, accumulator.getTopK(10).size());
+    }
+}
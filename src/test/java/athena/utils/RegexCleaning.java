@@ -0,0 +1,33 @@
+package athena.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Line based removal of the number lines that TextAnalyzer replaced, kept as the reference its tokens are checked
+ * against and timed against. Quadratic in the length of the document, only meant for tests and benchmarks.
+ */
+public class RegexCleaning {
+
+    private RegexCleaning() {
+    }
+
+    // Drops the lines made of digits and tabs only, every other line is followed by a space
+    public static String removeNumbers(String content) {
+        String newContent = "";
+        try {
+            BufferedReader br = new BufferedReader(new StringReader(content));
+            String line = br.readLine();
+            while (line != null) {
+                if (!line.matches("[0-9\t]+")) {
+                    newContent += line + " ";
+                }
+                line = br.readLine();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return newContent;
+    }
+}
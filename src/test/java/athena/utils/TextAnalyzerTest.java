@@ -0,0 +1,158 @@
+package athena.utils;
+
+import org.jsoup.Jsoup;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * TextAnalyzer has to give the same tokens as removeNumbers followed by cleanDocumentContent. Every CACM document is
+ * checked with the settings of the properties, a sample of them and inputs made to hit the quirks of each regex with
+ * every case fold, stopping and noise factor setting.
+ */
+public class TextAnalyzerTest {
+
+    private static final int[] NOISE_FACTORS = {0, 1, 2, 3};
+    // CACM documents, evenly spread over the collection, checked with every setting
+    private static final int SAMPLE_SIZE = 32;
+
+    private static List<String> stopWords;
+
+    @BeforeClass
+    public static void readStopWords() throws IOException {
+        File file = new File(new CommonUtils().getResourcePath() + "query" + File.separator + "common_words");
+        stopWords = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testCacmDocuments() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = TextAnalyzerTest.class.getResourceAsStream("/properties/searchengine.properties")) {
+            properties.load(in);
+        }
+        boolean doCaseFold = Boolean.parseBoolean(properties.getProperty("search.engine.enable.case.fold"));
+        boolean doStopping = Boolean.parseBoolean(properties.getProperty("search.engine.enable.stopping"));
+        int noiseFactor = Integer.parseInt(properties.getProperty("search.engine.remove.noise.factor"));
+        TextAnalyzer analyzer = new TextAnalyzer(true, doCaseFold, doStopping ? stopWords : null, noiseFactor);
+        for (File file : getCacmFiles()) {
+            String text = Jsoup.parse(file, "UTF-8").text();
+            assertEquals(file.getName(), regexTokens(text, doCaseFold, doStopping, noiseFactor),
+                    analyzerTokens(analyzer, text));
+        }
+    }
+
+    @Test
+    public void testCacmSample() throws IOException {
+        File[] files = getCacmFiles();
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            File file = files[i * files.length / SAMPLE_SIZE];
+            assertSameTokens(file.getName(), Jsoup.parse(file, "UTF-8").text());
+        }
+    }
+
+    @Test
+    public void testDigits() {
+        assertSameTokens("abc123 x1y 42 3.14 1-2 CACM-1234 -5 .5 5. 5- 12a");
+        assertSameTokens("12\t34\nreal line 12\n1 2\n\n007\r\nend 99");
+        assertSameTokens("12\r\n34\r\r\n\t\n");
+        assertSameTokens("text\n123");
+        // a line of digits longer than the pending buffer of the number line stage
+        assertSameTokens("a\n" + repeat("0123456789", 10) + "\nb\n" + repeat("1", 100) + "x\nc");
+    }
+
+    @Test
+    public void testNoise() {
+        // \[[0-9]\w{0,3}\]
+        assertSameTokens("see [1] and [2a] [3abc] [4abcd] [x1] [] [[5]] [6_b] [7]]");
+        // dot and hyphen runs before or after a space, at the start and as pairs
+        assertSameTokens("end. end.. end... a - b a -- b a --- b -a --b .a ..b a- b a-. b a.- b");
+        assertSameTokens("-leading hyphen");
+        assertSameTokens(".leading dot");
+        assertSameTokens("--double ..double");
+        assertSameTokens("a--b a---b a----b a-.-b a..b x.y.z e.g. i.e. U.S.A. - . -- ..");
+        // everything outside [0-9a-zA-Z.- ] and the double spaces it leaves
+        assertSameTokens("(paren) {brace} a,b a;b a:b a/b a_b a'b \"quoted\" 50% $5 a&b a+b=c a*b#c @at ~tilde");
+        assertSameTokens("caf\u00e9 na\u00efve \u00dcBER \u0130stanbul \ud835\udc00 tab\there \u00a0nbsp");
+        assertSameTokens("a    b  .  -  c   ");
+        assertSameTokens("");
+        assertSameTokens(" ");
+        assertSameTokens("...---...");
+    }
+
+    @Test
+    public void testStopWords() {
+        // stop words are never removed at the very start or end, and one pass removes only every other stop word
+        // of a run
+        assertSameTokens("the system of the computer");
+        assertSameTokens("the");
+        assertSameTokens("about above the the the the a an of of of of of computer");
+        assertSameTokens("computer the of a about");
+        assertSameTokens("The System OF the Computer");
+        // runs of stop words longer than the removed pass buffer, and words longer than the word buffer
+        assertSameTokens("x " + repeat("the a of ", 30) + "y");
+        assertSameTokens(repeat("a", 40) + " the " + repeat("b", 70) + " of " + repeat("c", 33));
+        assertSameTokens("programmer's programmer's the programmer's x");
+        // /* in the stop list is a pattern matching a run of slashes or the empty word between two spaces
+        assertSameTokens("a // b /// c  d / e");
+        assertSameTokens("end of line.\nthe next line\nof");
+    }
+
+    private static void assertSameTokens(String text) {
+        assertSameTokens("\"" + text + "\"", text);
+    }
+
+    private static void assertSameTokens(String name, String text) {
+        for (boolean doCaseFold : new boolean[]{false, true}) {
+            for (boolean doStopping : new boolean[]{false, true}) {
+                for (int noiseFactor : NOISE_FACTORS) {
+                    TextAnalyzer analyzer = new TextAnalyzer(true, doCaseFold, doStopping ? stopWords : null,
+                            noiseFactor);
+                    assertEquals(name + ", case fold " + doCaseFold + ", stopping " + doStopping +
+                                    ", noise factor " + noiseFactor,
+                            regexTokens(text, doCaseFold, doStopping, noiseFactor), analyzerTokens(analyzer, text));
+                }
+            }
+        }
+    }
+
+    private static List<String> regexTokens(String text, boolean doCaseFold, boolean doStopping, int noiseFactor) {
+        String content = RegexCleaning.removeNumbers(text);
+        content = SearchEngineUtils.cleanDocumentContent(content, doCaseFold, doStopping ? stopWords : null,
+                noiseFactor);
+        List<String> tokens = new ArrayList<>();
+        for (String token : content.split(" ")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private static File[] getCacmFiles() {
+        File[] files = new File(new CommonUtils().getResourcePath() + "cacm").listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static List<String> analyzerTokens(TextAnalyzer analyzer, String text) {
+        List<String> tokens = new ArrayList<>();
+        analyzer.analyze(text, (buffer, length) -> tokens.add(new String(buffer, 0, length)));
+        return tokens;
+    }
+
+    private static String repeat(String text, int count) {
+        return String.join("", Collections.nCopies(count, text));
+    }
+}
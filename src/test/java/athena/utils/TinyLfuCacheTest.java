@@ -0,0 +1,104 @@
+package athena.utils;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The cache never holds more than its maximum weight, always answers with the value last put for a key, and keeps
+ * the frequently asked keys through a scan of keys asked once.
+ */
+public class TinyLfuCacheTest {
+
+    private static final long MAXIMUM_WEIGHT = 1000;
+
+    @Test
+    public void testWeightBound() {
+        Random random = new Random(18);
+        TinyLfuCache<Integer, Long> cache = new TinyLfuCache<>(MAXIMUM_WEIGHT, 50);
+        Map<Integer, Long> weights = new HashMap<>();
+        for (int operation = 0; operation < 100000; operation++) {
+            // a skewed key distribution, so that some keys are hit often
+            int key = (int) Math.abs(random.nextGaussian() * 100);
+            if (random.nextBoolean()) {
+                Long value = cache.get(key);
+                if (value != null) {
+                    assertEquals(weights.get(key), value);
+                }
+            } else {
+                // weights are the values, some of them are replaced in place by heavier or lighter ones
+                long weight = 1 + random.nextInt(random.nextInt(20) == 0 ? 400 : 40);
+                cache.put(key, weight, weight);
+                weights.put(key, weight);
+            }
+            assertTrue(cache.weight() <= MAXIMUM_WEIGHT);
+        }
+        long weight = 0;
+        long size = 0;
+        for (Map.Entry<Integer, Long> entry : weights.entrySet()) {
+            Long value = cache.get(entry.getKey());
+            if (value != null) {
+                assertEquals(entry.getValue(), value);
+                weight += value;
+                size++;
+            }
+        }
+        assertEquals(cache.weight(), weight);
+        assertEquals(cache.size(), size);
+        assertTrue(cache.getEvictionCount() > 0);
+    }
+
+    @Test
+    public void testTooHeavyNotCached() {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(MAXIMUM_WEIGHT, 10);
+        cache.put("heavy", "value", MAXIMUM_WEIGHT + 1);
+        assertNull(cache.get("heavy"));
+        assertEquals(0, cache.weight());
+        cache.put("limit", "value", MAXIMUM_WEIGHT);
+        assertNotNull(cache.get("limit"));
+        assertEquals(MAXIMUM_WEIGHT, cache.weight());
+    }
+
+    @Test
+    public void testFrequentKeysSurviveScan() {
+        TinyLfuCache<Integer, Integer> cache = new TinyLfuCache<>(100, 100);
+        for (int round = 0; round < 5; round++) {
+            for (int key = 0; key < 50; key++) {
+                if (cache.get(key) == null) {
+                    cache.put(key, key, 1);
+                }
+            }
+        }
+        for (int key = 1000; key < 11000; key++) {
+            if (cache.get(key) == null) {
+                cache.put(key, key, 1);
+            }
+        }
+        int kept = 0;
+        for (int key = 0; key < 50; key++) {
+            if (cache.get(key) != null) {
+                kept++;
+            }
+        }
+        assertTrue("kept " + kept, kept >= 45);
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(MAXIMUM_WEIGHT, 10);
+        cache.put("a", "1", 10);
+        cache.put("b", "2", 20);
+        assertEquals(30, cache.weight());
+        cache.invalidateAll();
+        assertEquals(0, cache.weight());
+        assertEquals(0, cache.size());
+        assertNull(cache.get("a"));
+    }
+}